@@ -0,0 +1,68 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a channel-changing command (alternately JOIN and LEAVE) on the
+ * model thread with the write-ahead {@link ChannelLog} under each sync
+ * policy, against no log at all. Sampled, so that the percentiles show what
+ * logging adds to the slowest commands and not just to the average.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChannelLogBenchmark {
+
+    @Param({ "OFF", "NEVER", "BATCH", "INTERVAL" })
+    public String sync;
+
+    private ServerModel model;
+    private ServerLog log;
+    private ChannelLog channelLog;
+    private Path file;
+    private JoinCommand join;
+    private LeaveCommand leave;
+    private boolean joined;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        model = Fixtures.modelWithUsers(2);
+        Fixtures.fillChannel(model, "java", 0, 1);
+        log = new ServerLog(ServerLog.Level.WARN, 1, ServerLog.CONSOLE);
+        if (!"OFF".equals(sync)) {
+            file = Files.createTempFile("channels", ".wal");
+            Files.delete(file);
+            channelLog = new ChannelLog(
+                    file, ChannelLog.Sync.valueOf(sync),
+                    ServerConfig.DEFAULT_WAL_SYNC_INTERVAL, log
+            );
+            model.setJournal(channelLog);
+        }
+        join = new JoinCommand(1, model.getNickname(1), "java");
+        leave = new LeaveCommand(1, model.getNickname(1), "java");
+        joined = false;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (channelLog != null) {
+            channelLog.close();
+            Files.delete(file);
+        }
+        log.close();
+    }
+
+    @Benchmark
+    public Broadcast joinOrLeave() {
+        joined = !joined;
+        return joined ? join.updateServerModel(model) : leave.updateServerModel(model);
+    }
+}
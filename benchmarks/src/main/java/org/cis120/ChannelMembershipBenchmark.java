@@ -0,0 +1,79 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costs of membership changes on one channel of {@code members} users: an
+ * outside user joining and leaving again, and building the NAMES response the
+ * joining user receives, by sorting the members' nicknames or by patching the
+ * payload the channel keeps between joins; and checking whether a user is a
+ * member, as every MESG does for its sender.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChannelMembershipBenchmark {
+
+    @Param({ "10", "1000", "10000" })
+    public int members;
+
+    private ServerModel model;
+    private JoinCommand join;
+    private LeaveCommand leave;
+    private Collection<String> recipients;
+    private String owner;
+    private String payload;
+    private Channel channel;
+    private int probe;
+
+    @Setup
+    public void setUp() {
+        model = Fixtures.modelWithUsers(members + 1);
+        Fixtures.fillChannel(model, "java", 0, members);
+        String joiner = model.getNickname(members);
+        join = new JoinCommand(members, joiner, "java");
+        leave = new LeaveCommand(members, joiner, "java");
+        recipients = model.getUsersInChannel("java");
+        owner = model.getOwner("java");
+        payload = NamesPayload.build(owner, new TreeSet<>(recipients));
+        channel = new Channel(0, false);
+        for (int i = 1; i < members; i++) {
+            channel.addUser(i);
+        }
+    }
+
+    @Benchmark
+    public Broadcast joinLeave() {
+        join.updateServerModel(model);
+        return leave.updateServerModel(model);
+    }
+
+    @Benchmark
+    public Broadcast namesPayload() {
+        return Broadcast.names(join, recipients, owner);
+    }
+
+    @Benchmark
+    public Broadcast namesPatched() {
+        return Broadcast.names(
+                join, recipients, Collections.<ByteBuffer>emptyList(),
+                NamesPayload.insert(payload, join.getSender())
+        );
+    }
+
+    @Benchmark
+    public boolean contains() {
+        // members and the user outside the channel, in turn
+        probe = probe == members ? 0 : probe + 1;
+        return channel.contains(probe);
+    }
+}
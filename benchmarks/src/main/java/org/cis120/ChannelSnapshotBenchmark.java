@@ -0,0 +1,115 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of snapshotting a million channels of three members each, shared
+ * among 100,000 users: copying them on the model thread, which holds up
+ * every command; writing the copy, which does not; and loading the snapshot
+ * into an empty model, which is most of what a restart costs. Each is timed
+ * as a single shot, since that is how they run.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xms3g", "-Xmx3g" })
+public class ChannelSnapshotBenchmark {
+
+    private static final int USERS = 100000;
+    private static final int CHANNELS = 1000000;
+    private static final int MEMBERS = 3;
+
+    /**
+     * A model holding the channels, and a copy of them.
+     */
+    @State(Scope.Benchmark)
+    public static class Populated {
+        ServerModel model;
+        ChannelSnapshot copy;
+        ChannelLog.Checkpoint checkpoint;
+        Path file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            model = populate();
+            copy = model.snapshotChannels();
+            checkpoint = new ChannelLog.Checkpoint(0, 16);
+            file = Files.createTempFile("channels", ".snapshot");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Only the snapshot file, as after a restart, so that loading it does not
+     * compete with the model it was taken from for the heap.
+     */
+    @State(Scope.Benchmark)
+    public static class Saved {
+        Path file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            file = Files.createTempFile("channels", ".snapshot");
+            populate().snapshotChannels().write(file, new ChannelLog.Checkpoint(0, 16));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Restores the channels as a snapshot would, so that setting up does not
+     * take longer than the runs.
+     */
+    private static ServerModel populate() {
+        String[] nicknames = new String[USERS];
+        for (int u = 0; u < USERS; u++) {
+            nicknames[u] = "User" + u;
+        }
+        String[] names = new String[CHANNELS];
+        boolean[] inviteOnly = new boolean[CHANNELS];
+        int[] owners = new int[CHANNELS];
+        int[][] members = new int[CHANNELS][];
+        for (int c = 0; c < CHANNELS; c++) {
+            names[c] = "channel" + c;
+            inviteOnly[c] = c % 2 == 0;
+            members[c] = new int[MEMBERS];
+            for (int m = 0; m < MEMBERS; m++) {
+                members[c][m] = (c + m * 7919) % USERS;
+            }
+            owners[c] = members[c][0];
+        }
+        ServerModel model = new ServerModel();
+        model.restoreChannels(nicknames, names, inviteOnly, owners, members);
+        return model;
+    }
+
+    @Benchmark
+    public ChannelSnapshot copyChannels(Populated state) {
+        return state.model.snapshotChannels();
+    }
+
+    @Benchmark
+    public void write(Populated state) throws IOException {
+        state.copy.write(state.file, state.checkpoint);
+    }
+
+    @Benchmark
+    public ServerModel load(Saved state) throws IOException {
+        ServerModel restored = new ServerModel();
+        ChannelSnapshot.load(state.file, restored);
+        return restored;
+    }
+}
@@ -0,0 +1,298 @@
+package org.cis120;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection-count load test for the server's network engines. Opens a number
+ * of idle connections that only receive their CONNECT line, plus a number of
+ * active connections that each create their own channel and then send
+ * timestamped MESGs to it, measuring the echo round trip.
+ *
+ * All client connections are driven from one selector thread so the client
+ * side does not need a thread per connection. Run against a server that is
+ * already running, or start one in-process with {@code --embedded}:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.cis120.ConnectionLoadTest \
+ *     --embedded nio --idle 50000 --active 5000 --seconds 60 --rate 1
+ * </pre>
+ *
+ * The embedded engine is {@code blocking}, {@code nio} or {@code virtual}
+ * (Java 21 and later); comparing {@code blocking} with {@code virtual}
+ * compares platform and virtual threads for the same connection code. With
+ * an embedded server the peak thread count and heap in use are reported too.
+ * Its other settings are read from {@code pennpals.*} system properties.
+ *
+ * Each connection needs a file descriptor on each side (two when embedded),
+ * and connecting more than ~28k sockets to one server port needs several
+ * client source addresses or a widened ephemeral port range, so raise
+ * {@code ulimit -n} and {@code net.ipv4.ip_local_port_range} accordingly.
+ */
+public final class ConnectionLoadTest {
+
+    private final InetSocketAddress address;
+    private final int idle;
+    private final int active;
+    private final long durationNanos;
+    private final long sendIntervalNanos;
+
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final List<Client> activeClients = new ArrayList<>();
+    private long[] latencies = new long[1 << 16];
+    private int latencyCount;
+    private long received;
+    private int connected;
+    private int closed;
+
+    private ConnectionLoadTest(
+            InetSocketAddress address, int idle, int active, int seconds, double rate
+    ) throws IOException {
+        this.address = address;
+        this.idle = idle;
+        this.active = active;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+        this.sendIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.selector = Selector.open();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = "127.0.0.1";
+        int port = ServerConfig.DEFAULT_PORT;
+        String embedded = null;
+        int idle = 1000;
+        int active = 100;
+        int seconds = 10;
+        double rate = 1.0;
+        for (int i = 0; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--host":
+                    host = value;
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--embedded":
+                    embedded = value;
+                    break;
+                case "--idle":
+                    idle = Integer.parseInt(value);
+                    break;
+                case "--active":
+                    active = Integer.parseInt(value);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(value);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        ServerBackend server = null;
+        if (embedded != null) {
+            ServerConfig config = ServerConfig.fromSystemProperties()
+                    .withPort(port)
+                    .withEngine(ServerConfig.Engine.valueOf(embedded.toUpperCase()))
+                    .withIoThreads(Math.max(1, Runtime.getRuntime().availableProcessors()));
+            server = new ServerBackend(new ServerModel(), config);
+            new Thread(server, "Connection acceptor").start();
+            Thread.sleep(500);
+        }
+        try {
+            new ConnectionLoadTest(
+                    new InetSocketAddress(host, port), idle, active, seconds, rate
+            ).run();
+            if (server != null) {
+                MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+                System.out.printf(
+                        "Peak JVM threads %d, heap used %d MiB%n",
+                        ManagementFactory.getThreadMXBean().getPeakThreadCount(),
+                        heap.getUsed() >> 20
+                );
+            }
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private void run() throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < idle + active; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            Client client = new Client(channel, i < active ? i : -1);
+            if (client.isActive()) {
+                activeClients.add(client);
+            }
+            channel.connect(address);
+            channel.register(selector, SelectionKey.OP_CONNECT, client);
+            // keep the listen backlog from overflowing while we connect
+            if (i % 500 == 499) {
+                poll(0);
+            }
+        }
+        while (connected + closed < idle + active) {
+            poll(100);
+        }
+        long connectNanos = System.nanoTime() - start;
+        System.out.printf(
+                "Connected %d clients (%d failed) in %d ms%n",
+                connected, closed, TimeUnit.NANOSECONDS.toMillis(connectNanos)
+        );
+
+        long measureStart = System.nanoTime();
+        long end = measureStart + durationNanos;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            for (Client client : activeClients) {
+                if (client.ready && now - client.lastSend >= sendIntervalNanos) {
+                    client.lastSend = now;
+                    client.write("MESG load" + client.index + " :" + now);
+                }
+            }
+            poll(1);
+        }
+        report(System.nanoTime() - measureStart);
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void poll(long timeoutMillis) throws IOException {
+        if (timeoutMillis == 0) {
+            selector.selectNow();
+        } else {
+            selector.select(timeoutMillis);
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Client client = (Client) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    client.channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                    connected++;
+                } else if (key.isReadable()) {
+                    client.read();
+                }
+            } catch (IOException iox) {
+                key.cancel();
+                client.channel.close();
+                closed++;
+            }
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(
+                "Idle %d, active %d: %.0f echoes/s, %d closed%n",
+                idle, active, received / seconds, closed
+        );
+        if (sorted.length > 0) {
+            System.out.printf(
+                    "Round trip us: p50=%d p99=%d p99.9=%d max=%d%n",
+                    percentile(sorted, 0.50) / 1000, percentile(sorted, 0.99) / 1000,
+                    percentile(sorted, 0.999) / 1000, sorted[sorted.length - 1] / 1000
+            );
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private void recordLatency(long nanos) {
+        if (latencyCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        }
+        latencies[latencyCount++] = nanos;
+        received++;
+    }
+
+    /**
+     * One client connection; active clients create channel "load[index]" once
+     * connected and then MESG it.
+     */
+    private final class Client {
+        private final SocketChannel channel;
+        private final int index;
+        private final StringBuilder line = new StringBuilder();
+        private boolean ready;
+        private long lastSend;
+
+        Client(SocketChannel channel, int index) {
+            this.channel = channel;
+            this.index = index;
+        }
+
+        boolean isActive() {
+            return index >= 0;
+        }
+
+        void write(String request) throws IOException {
+            ByteBuffer buffer = ByteBuffer
+                    .wrap((request + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        void read() throws IOException {
+            readBuffer.clear();
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                throw new IOException("closed by server");
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                char c = (char) readBuffer.get();
+                if (c == '\n') {
+                    onLine(line.toString());
+                    line.setLength(0);
+                } else {
+                    line.append(c);
+                }
+            }
+        }
+
+        private void onLine(String response) throws IOException {
+            if (!isActive()) {
+                return;
+            }
+            if (response.endsWith(" CONNECT")) {
+                write("CREATE load" + index + " 0");
+            } else if (response.contains(" CREATE ")) {
+                ready = true;
+            } else {
+                int payload = response.lastIndexOf(':');
+                if (payload > 0 && response.contains(" MESG ")) {
+                    long sent = Long.parseLong(response.substring(payload + 1));
+                    recordLatency(System.nanoTime() - sent);
+                }
+            }
+        }
+    }
+}
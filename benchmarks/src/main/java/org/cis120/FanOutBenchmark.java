@@ -0,0 +1,46 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one MESG to a channel of {@code members} users: handling the
+ * command in the model, and additionally resolving the broadcast to the
+ * per-user responses the backend dispatches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+
+    @Param({ "10", "1000", "10000" })
+    public int members;
+
+    private ServerModel model;
+    private MessageCommand message;
+
+    @Setup
+    public void setUp() {
+        model = Fixtures.modelWithUsers(members);
+        Fixtures.fillChannel(model, "java", 0, members);
+        message = new MessageCommand(
+                0, model.getNickname(0), "java", "the quick brown fox jumps over the lazy dog"
+        );
+    }
+
+    @Benchmark
+    public Broadcast mesg() {
+        return message.updateServerModel(model);
+    }
+
+    @Benchmark
+    public Map<Integer, List<String>> mesgResponses() {
+        return message.updateServerModel(model).getResponses(model);
+    }
+}
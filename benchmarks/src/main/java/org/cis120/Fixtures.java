@@ -0,0 +1,42 @@
+package org.cis120;
+
+/**
+ * Builds the server states the benchmarks run against. Everything goes
+ * through the public {@link ServerModel} methods and {@link Command}s, as the
+ * backend would.
+ */
+final class Fixtures {
+
+    /**
+     * @param users The number of users to register
+     * @return a model with users 0 to {@code users - 1} registered under
+     *         their generated nicknames
+     */
+    static ServerModel modelWithUsers(int users) {
+        ServerModel model = new ServerModel();
+        for (int id = 0; id < users; id++) {
+            model.registerUser(id);
+        }
+        return model;
+    }
+
+    /**
+     * Creates a public channel owned by user {@code first} and joins the
+     * following users to it.
+     *
+     * @param model   The model the users are registered in
+     * @param channel The name of the channel to create
+     * @param first   The ID of the owner
+     * @param members The number of members, including the owner
+     */
+    static void fillChannel(ServerModel model, String channel, int first, int members) {
+        new CreateCommand(first, model.getNickname(first), channel, false)
+                .updateServerModel(model);
+        for (int id = first + 1; id < first + members; id++) {
+            new JoinCommand(id, model.getNickname(id), channel).updateServerModel(model);
+        }
+    }
+
+    private Fixtures() {
+    }
+}
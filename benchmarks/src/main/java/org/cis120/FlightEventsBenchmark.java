@@ -0,0 +1,61 @@
+package org.cis120;
+
+import jdk.jfr.Recording;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the {@link FlightEvents} on a MESG to a channel of 10: applied
+ * directly, against through {@link ServerModel#apply(Command)}, with no
+ * recording, with a recording using the events' default 1 ms threshold, and
+ * with one recording every command.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlightEventsBenchmark {
+
+    @Param({ "none", "threshold", "all" })
+    public String recording;
+
+    private ServerModel model;
+    private MessageCommand message;
+    private Recording jfr;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        model = Fixtures.modelWithUsers(10);
+        Fixtures.fillChannel(model, "java", 0, 10);
+        message = new MessageCommand(0, model.getNickname(0), "java", "hello");
+        if (!"none".equals(recording)) {
+            jfr = new Recording();
+            jfr.enable("org.cis120.Command").withThreshold(
+                    "all".equals(recording) ? Duration.ZERO : Duration.ofMillis(1)
+            );
+            jfr.setToDisk(false);
+            jfr.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (jfr != null) {
+            jfr.close();
+        }
+    }
+
+    @Benchmark
+    public Broadcast direct() {
+        return message.updateServerModel(model);
+    }
+
+    @Benchmark
+    public Broadcast apply() {
+        return model.apply(message);
+    }
+}
@@ -0,0 +1,83 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of logging one request line from several threads at once, as the
+ * connection threads do. Compares the {@code System.out.printf} per request the
+ * backend used to do (against a stream to /dev/null, set up like
+ * {@code System.out}) with the {@link ServerLog} at its default level, with
+ * sampled tracing and with every line traced.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+
+    private static final String LINE = "MESG java :the quick brown fox jumps over the lazy dog";
+
+    private PrintStream devNull;
+    private ServerLog infoLog;
+    private ServerLog sampledTraceLog;
+    private ServerLog traceLog;
+
+    @Setup
+    public void setUp() throws FileNotFoundException {
+        devNull = new PrintStream(
+                new BufferedOutputStream(new FileOutputStream("/dev/null"), 8192), true
+        );
+        ServerLog.Sink sink = new ServerLog.Sink() {
+            @Override
+            public void write(ServerLog.Level level, String line) {
+                devNull.println(line);
+            }
+        };
+        infoLog = new ServerLog(ServerLog.Level.INFO, 1, sink);
+        sampledTraceLog = new ServerLog(ServerLog.Level.TRACE, 100, sink);
+        traceLog = new ServerLog(ServerLog.Level.TRACE, 1, sink);
+    }
+
+    @TearDown
+    public void tearDown() {
+        infoLog.close();
+        sampledTraceLog.close();
+        traceLog.close();
+        devNull.close();
+    }
+
+    @Benchmark
+    public void printfPerRequest() {
+        devNull.printf("Request received from user %d: \"%s\"\n", 42, LINE);
+    }
+
+    @Benchmark
+    public void serverLogDefaultLevel() {
+        if (infoLog.shouldTrace()) {
+            infoLog.trace("Request received from user %d: \"%s\"", 42, LINE);
+        }
+    }
+
+    @Benchmark
+    public void serverLogTraceSampled() {
+        if (sampledTraceLog.shouldTrace()) {
+            sampledTraceLog.trace("Request received from user %d: \"%s\"", 42, LINE);
+        }
+    }
+
+    @Benchmark
+    public void serverLogTraceAll() {
+        if (traceLog.shouldTrace()) {
+            traceLog.trace("Request received from user %d: \"%s\"", 42, LINE);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The two paths of a {@link MessageHistory}: appending a MESG line, which
+ * encodes it straight into the mapped segment, against encoding it to an
+ * array first and copying that; and fetching the last {@code count}
+ * messages, which slices the mapping, against encoding each of them from a
+ * string as a history kept on the heap would. Run with {@code -prof gc} to
+ * see what each allocates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageHistoryBenchmark {
+
+    private static final String LINE =
+            ":User0 MESG java :the quick brown fox jumps over the lazy dog";
+
+    @Param({ "50" })
+    public int count;
+
+    private Path dir;
+    private ServerLog log;
+    private MessageHistory history;
+    private ByteBuffer target;
+    private String[] lines;
+    private List<ByteBuffer> frames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("history");
+        log = new ServerLog(ServerLog.Level.WARN, 1, ServerLog.CONSOLE);
+        history = new MessageHistory(
+                dir, ServerConfig.DEFAULT_HISTORY_SEGMENT_SIZE,
+                ServerConfig.DEFAULT_HISTORY_SEGMENTS, log
+        );
+        lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = LINE + " " + i;
+            history.append("java", lines[i]);
+        }
+        target = ByteBuffer.allocateDirect(ServerConfig.DEFAULT_HISTORY_SEGMENT_SIZE);
+        frames = new ArrayList<>();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        history.clear("java");
+        history.close();
+        Files.delete(dir);
+        log.close();
+    }
+
+    @Benchmark
+    public void append() {
+        history.append("java", LINE);
+    }
+
+    @Benchmark
+    public ByteBuffer appendThroughArray() {
+        byte[] bytes = (LINE + '\n').getBytes(StandardCharsets.UTF_8);
+        if (target.remaining() < bytes.length) {
+            target.clear();
+        }
+        return target.put(bytes);
+    }
+
+    @Benchmark
+    public int fetch() {
+        frames.clear();
+        return history.last("java", count, frames);
+    }
+
+    @Benchmark
+    public int fetchByEncoding() {
+        frames.clear();
+        for (String line : lines) {
+            frames.add(OutboundQueue.encode(line));
+        }
+        return frames.size();
+    }
+}
@@ -0,0 +1,40 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a reconnect on a server of {@code users} users in no channels:
+ * one user disconnects and connects again, and is given the smallest free
+ * default nickname, which is the one it gave up. The user who reconnects
+ * moves through all of them in turn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NicknameAllocatorBenchmark {
+
+    @Param({ "1000", "10000", "50000" })
+    public int users;
+
+    private ServerModel model;
+    private int reconnecting;
+
+    @Setup
+    public void setUp() {
+        model = Fixtures.modelWithUsers(users);
+        reconnecting = 0;
+    }
+
+    @Benchmark
+    public Broadcast reconnect() {
+        int userId = reconnecting;
+        reconnecting = reconnecting + 1 == users ? 0 : reconnecting + 1;
+        model.deregisterUser(userId);
+        return model.registerUser(userId);
+    }
+}
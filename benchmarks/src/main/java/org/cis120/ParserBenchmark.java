@@ -0,0 +1,68 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a request line into a {@link Command}, comparing the
+ * substring-based {@link LegacyCommandParser} with the offset-based
+ * {@link CommandParser}. Lines carry a ":prefix " as sent by some clients,
+ * which the backend used to strip with a substring before parsing. Run with
+ * {@code -prof gc} to compare allocation per line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    @Param({ "join", "kick", "mesg", "mesgLong" })
+    public String kind;
+
+    private String line;
+
+    @Setup
+    public void setUp() {
+        switch (kind) {
+            case "join":
+                line = ":User0 JOIN java";
+                break;
+            case "kick":
+                line = ":User0 KICK java User1";
+                break;
+            case "mesg":
+                line = ":User0 MESG java :the quick brown fox jumps over the lazy dog";
+                break;
+            default:
+                char[] words = new char[4096];
+                Arrays.fill(words, 'x');
+                for (int i = 7; i < words.length; i += 8) {
+                    words[i] = ' ';
+                }
+                line = ":User0 MESG java :" + new String(words);
+                break;
+        }
+    }
+
+    @Benchmark
+    public Command legacy() {
+        String payload = line;
+        if (payload.startsWith(":")) {
+            payload = payload.substring(payload.indexOf(' ') + 1);
+        }
+        return LegacyCommandParser.parse(0, "User0", payload);
+    }
+
+    @Benchmark
+    public Command offsets() {
+        int start = 0;
+        if (line.startsWith(":")) {
+            start = line.indexOf(' ') + 1;
+        }
+        return CommandParser.parse(0, "User0", line, start, line.length());
+    }
+}
@@ -0,0 +1,91 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of keeping {@link RecentMessages} in 100,000 public channels under a
+ * 16 MiB budget, against keeping none: a MESG to each channel in turn, which
+ * keeps the budget full and evicting, and a JOIN or LEAVE of a channel whose
+ * ring is full, which backfills the joining user. The budget's use is
+ * printed after each trial to show it stays bounded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class RecentMessagesBenchmark {
+
+    private static final int USERS = 1000;
+    private static final int CHANNELS = 100000;
+
+    @Param({ "0", "20" })
+    public int recentMessages;
+
+    private ServerModel model;
+    private RecentMessages.Budget budget;
+    private String[] channels;
+    private String[] owners;
+    private int next;
+    private JoinCommand join;
+    private LeaveCommand leave;
+    private boolean joined;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        model = Fixtures.modelWithUsers(USERS + 1);
+        if (recentMessages > 0) {
+            budget = new RecentMessages.Budget(recentMessages, 16L << 20);
+            model.setRecentMessages(budget);
+        }
+        channels = new String[CHANNELS];
+        owners = new String[CHANNELS];
+        for (int c = 0; c < CHANNELS; c++) {
+            channels[c] = "channel" + c;
+            owners[c] = model.getNickname(c % USERS);
+            Fixtures.fillChannel(model, channels[c], c % USERS, 1);
+        }
+        next = 0;
+        for (int i = 0; i < recentMessages; i++) {
+            message(0).updateServerModel(model);
+        }
+        join = new JoinCommand(USERS, model.getNickname(USERS), "channel0");
+        leave = new LeaveCommand(USERS, model.getNickname(USERS), "channel0");
+        joined = false;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (budget != null) {
+            System.out.printf(
+                    "%n%d rings holding messages, %d KiB used%n",
+                    budget.getRingCount(), budget.getUsed() >> 10
+            );
+        }
+    }
+
+    /**
+     * A new command each time, as each request is parsed into one.
+     */
+    private MessageCommand message(int c) {
+        return new MessageCommand(
+                c % USERS, owners[c], channels[c], "the quick brown fox jumps over the lazy dog"
+        );
+    }
+
+    @Benchmark
+    public Broadcast mesg() {
+        MessageCommand message = message(next);
+        next = (next + 1) % CHANNELS;
+        return message.updateServerModel(model);
+    }
+
+    @Benchmark
+    public Broadcast joinOrLeave() {
+        joined = !joined;
+        return joined ? join.updateServerModel(model) : leave.updateServerModel(model);
+    }
+}
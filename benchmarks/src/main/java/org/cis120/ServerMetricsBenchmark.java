@@ -0,0 +1,61 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the {@link ServerMetrics} on the model thread's path: a MESG to a
+ * channel of 10 applied directly, against applied through
+ * {@link ServerMetrics#apply(Command, ServerModel)}, which times it; a task
+ * through the {@link TaskRing} with and without its queue wait recorded;
+ * and formatting every metric for a scrape, which happens off that path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerMetricsBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean enabled;
+
+    private ServerModel model;
+    private ServerMetrics metrics;
+    private MessageCommand message;
+    private TaskRing ring;
+    private TaskRing.Handler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        model = Fixtures.modelWithUsers(10);
+        Fixtures.fillChannel(model, "java", 0, 10);
+        metrics = new ServerMetrics(new Log2Histogram());
+        message = new MessageCommand(0, model.getNickname(0), "java", "hello");
+        ring = new TaskRing(1024, TaskRing.WaitStrategy.BUSY_SPIN,
+                enabled ? metrics.getQueueWaits() : null);
+        handler = new TaskRing.Handler() {
+            @Override
+            public void onTask(int kind, int userId, String line, int start) {
+            }
+        };
+    }
+
+    @Benchmark
+    public Broadcast mesg() {
+        return enabled ? metrics.apply(message, model) : message.updateServerModel(model);
+    }
+
+    @Benchmark
+    public int task() {
+        ring.publish(TaskRing.REQUEST, 0, "MESG java :hello", 0);
+        return ring.drain(handler, 1);
+    }
+
+    @Benchmark
+    public String format() {
+        return metrics.format();
+    }
+}
@@ -0,0 +1,77 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of channel-scoped commands spread over {@link ModelShards}: one
+ * operation routes a MESG to each of 64 channels of 100 members and waits for
+ * the shards to finish them, as the model thread does before a NICK. With one
+ * shard the commands run on the calling thread instead, as without sharding.
+ * Scaling with the shard count is bounded by the cores available.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedModelBenchmark {
+
+    private static final int CHANNELS = 64;
+    private static final int MEMBERS = 100;
+
+    @Param({ "1", "2", "4", "8" })
+    public int shardCount;
+
+    private ServerModel model;
+    private ServerLog log;
+    private ModelShards shards;
+    private MessageCommand[] messages;
+
+    @Setup
+    public void setUp() {
+        model = Fixtures.modelWithUsers(CHANNELS * MEMBERS);
+        messages = new MessageCommand[CHANNELS];
+        for (int c = 0; c < CHANNELS; c++) {
+            int owner = c * MEMBERS;
+            Fixtures.fillChannel(model, "channel" + c, owner, MEMBERS);
+            messages[c] = new MessageCommand(owner, model.getNickname(owner), "channel" + c, "hi");
+        }
+        log = new ServerLog(ServerLog.Level.WARN, 1, ServerLog.CONSOLE);
+        if (shardCount > 1) {
+            shards = new ModelShards(
+                    shardCount, model, new ConcurrentHashMap<Integer, ClientConnection>(), log, 256
+            );
+            shards.start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (shards != null) {
+            shards.close();
+        }
+        log.close();
+    }
+
+    @Benchmark
+    public void mesgEveryChannel() {
+        if (shards == null) {
+            ResponseBatch responses = new ResponseBatch(
+                    model, new ConcurrentHashMap<Integer, ClientConnection>(), log
+            );
+            for (MessageCommand message : messages) {
+                responses.collect(message.updateServerModel(model));
+            }
+            responses.send();
+        } else {
+            for (MessageCommand message : messages) {
+                shards.route(message.getChannel(), message);
+            }
+            shards.quiesce();
+        }
+    }
+}
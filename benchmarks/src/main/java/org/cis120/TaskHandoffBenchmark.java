@@ -0,0 +1,143 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handing a request from network threads to the model thread,
+ * comparing the backend's {@code LinkedBlockingQueue} of task objects with
+ * the {@link TaskRing} under each wait strategy. The benchmark threads are
+ * the producers; a background thread drains in batches as the model thread
+ * does. The queue is bounded to the ring's capacity so that both apply the
+ * same back pressure. Run with {@code -prof gc} to compare allocation per
+ * task.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(2)
+@State(Scope.Benchmark)
+public class TaskHandoffBenchmark {
+
+    private static final int CAPACITY = 65536;
+    private static final int BATCH = 256;
+    private static final String LINE = "MESG java :the quick brown fox jumps over the lazy dog";
+
+    @Param({ "queue", "ringPark", "ringYield", "ringSpin" })
+    public String channel;
+
+    private BlockingQueue<Task> queue;
+    private TaskRing ring;
+    private volatile boolean running;
+    private Thread consumer;
+
+    /**
+     * The task objects the backend queues when not using the ring.
+     */
+    private static final class Task {
+        private final int kind;
+        private final int userId;
+        private final String line;
+        private final int start;
+
+        Task(int kind, int userId, String line, int start) {
+            this.kind = kind;
+            this.userId = userId;
+            this.line = line;
+            this.start = start;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        running = true;
+        Runnable drain;
+        if (channel.equals("queue")) {
+            queue = new LinkedBlockingQueue<>(CAPACITY);
+            drain = new Runnable() {
+                @Override
+                public void run() {
+                    drainQueue();
+                }
+            };
+        } else {
+            TaskRing.WaitStrategy strategy = channel.equals("ringPark")
+                    ? TaskRing.WaitStrategy.PARK
+                    : channel.equals("ringYield")
+                            ? TaskRing.WaitStrategy.YIELD : TaskRing.WaitStrategy.BUSY_SPIN;
+            ring = new TaskRing(CAPACITY, strategy);
+            drain = new Runnable() {
+                @Override
+                public void run() {
+                    drainRing();
+                }
+            };
+        }
+        consumer = new Thread(drain, "Model thread");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        running = false;
+        consumer.interrupt();
+        consumer.join();
+    }
+
+    private void drainQueue() {
+        List<Task> batch = new ArrayList<>(BATCH);
+        long sum = 0;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ix) {
+                continue;
+            }
+            queue.drainTo(batch, BATCH - 1);
+            for (Task task : batch) {
+                sum += task.kind + task.userId + task.start;
+            }
+            batch.clear();
+        }
+        consume(sum);
+    }
+
+    private void drainRing() {
+        final long[] sum = new long[1];
+        TaskRing.Handler handler = new TaskRing.Handler() {
+            @Override
+            public void onTask(int kind, int userId, String line, int start) {
+                sum[0] += kind + userId + start;
+            }
+        };
+        while (running) {
+            if (ring.await()) {
+                ring.drain(handler, BATCH);
+            }
+        }
+        consume(sum[0]);
+    }
+
+    private static void consume(long sum) {
+        if (sum == 42) {
+            System.out.println();
+        }
+    }
+
+    @Benchmark
+    public void handoff() throws InterruptedException {
+        if (queue != null) {
+            queue.put(new Task(TaskRing.REQUEST, 7, LINE, 0));
+        } else {
+            ring.publish(TaskRing.REQUEST, 7, LINE, 0);
+        }
+    }
+}
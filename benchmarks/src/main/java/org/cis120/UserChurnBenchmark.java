@@ -0,0 +1,63 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costs of the global user operations on a populated server: a client
+ * connecting and disconnecting, and one user repeatedly changing nickname
+ * while sharing channels with everybody else.
+ *
+ * The {@code users} are spread over {@code channels} channels, all owned by
+ * user 0, who is therefore in every channel and whose NICK goes to every
+ * user.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserChurnBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int users;
+
+    @Param({ "1", "16" })
+    public int channels;
+
+    private ServerModel model;
+    private NicknameCommand[] nicks;
+    private int nickIndex;
+
+    @Setup
+    public void setUp() {
+        model = Fixtures.modelWithUsers(users);
+        String owner = model.getNickname(0);
+        for (int c = 0; c < channels; c++) {
+            new CreateCommand(0, owner, "channel" + c, false).updateServerModel(model);
+        }
+        for (int id = 1; id < users; id++) {
+            new JoinCommand(id, model.getNickname(id), "channel" + (id % channels))
+                    .updateServerModel(model);
+        }
+        nicks = new NicknameCommand[] {
+            new NicknameCommand(0, owner, "storm"),
+            new NicknameCommand(0, "storm", owner)
+        };
+    }
+
+    @Benchmark
+    public Broadcast registerDeregister() {
+        model.registerUser(users);
+        return model.deregisterUser(users);
+    }
+
+    @Benchmark
+    public Broadcast nickStorm() {
+        NicknameCommand nick = nicks[nickIndex];
+        nickIndex ^= 1;
+        return nick.updateServerModel(model);
+    }
+}
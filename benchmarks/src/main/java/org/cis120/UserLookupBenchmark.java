@@ -0,0 +1,69 @@
+package org.cis120;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares nickname -> user ID lookups through {@link ServerModel#getUserId}
+ * (backed by a reverse index) against the linear scan over a
+ * {@code TreeMap<Integer, String>} that the model used to perform.
+ *
+ * {@link Broadcast#getResponses(ServerModel)} does one such lookup per
+ * recipient, so this is the per-recipient cost of dispatching a broadcast.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserLookupBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int users;
+
+    private ServerModel model;
+    private Map<Integer, String> scanTable;
+    private String[] nicknames;
+
+    @Setup
+    public void setUp() {
+        model = new ServerModel();
+        scanTable = new TreeMap<>();
+        nicknames = new String[users];
+        for (int id = 0; id < users; id++) {
+            model.registerUser(id);
+            nicknames[id] = model.getNickname(id);
+            scanTable.put(id, nicknames[id]);
+        }
+    }
+
+    private String randomNickname() {
+        return nicknames[ThreadLocalRandom.current().nextInt(users)];
+    }
+
+    @Benchmark
+    public int indexedGetUserId() {
+        return model.getUserId(randomNickname());
+    }
+
+    @Benchmark
+    public int scanGetUserId() {
+        String nickname = randomNickname();
+        for (Map.Entry<Integer, String> entry : scanTable.entrySet()) {
+            if (nickname.equals(entry.getValue())) {
+                return entry.getKey();
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public String indexedGetNickname() {
+        return model.getNickname(ThreadLocalRandom.current().nextInt(users));
+    }
+}
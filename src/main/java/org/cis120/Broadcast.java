@@ -1,5 +1,6 @@
 package org.cis120;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -9,16 +10,23 @@ import java.util.*;
  * them of relevant events in their channels. For instance, many chat services
  * inform you when someone has been removed from a chat that you're in.
  *
+ * A broadcast may also carry frames that are already encoded, such as the
+ * messages fetched from a {@link MessageHistory} or a channel's
+ * {@link RecentMessages}; they are sent after the recipient's responses.
+ *
  * You do not need to modify this file.
  */
 public final class Broadcast {
 
     private final Map<String, List<String>> responses;
+    // Empty for most broadcasts, so not made until it is needed
+    private Map<String, List<ByteBuffer>> frames;
 
     // Hide constructor so Broadcasts can only be created via one of the
     // static factory methods below.
     private Broadcast() {
         responses = new TreeMap<>();
+        frames = Collections.emptyMap();
     }
 
     /**
@@ -54,15 +62,18 @@ public final class Broadcast {
      */
     public static Broadcast okay(Command command, Collection<String> recipients) {
         Broadcast broadcast = new Broadcast();
+        // Format the response once; every recipient shares the same string so
+        // the backend only has to encode it once
+        String response = command.toString();
         for (String recipient : recipients) {
-            broadcast.addResponse(recipient, command.toString());
+            broadcast.addResponse(recipient, response);
         }
 
         // Need to send response to user ID associated with *new* nick
         if (command instanceof NicknameCommand) {
             broadcast.responses.remove(command.getSender());
             NicknameCommand nickCommand = (NicknameCommand) command;
-            broadcast.addResponse(nickCommand.getNewNickname(), command.toString());
+            broadcast.addResponse(nickCommand.getNewNickname(), response);
         }
         return broadcast;
     }
@@ -147,6 +158,57 @@ public final class Broadcast {
      *                                  or {@link InviteCommand}
      */
     public static Broadcast names(Command command, Collection<String> recipients, String owner) {
+        return names(command, recipients, owner, Collections.<ByteBuffer>emptyList());
+    }
+
+    /**
+     * Like {@link #names(Command, Collection, String)}, and also sends the
+     * user who joins the channel its recent messages after the {@code NAMES}
+     * reply.
+     *
+     * @param command    The command issued by the client (Invite or Join)
+     * @param recipients A set of nicknames of the other users in the channel which
+     *                   the user is joining, and to whom the command should be
+     *                   relayed.
+     * @param owner      The nickname of the channel's owner
+     * @param recent     The channel's recent messages, encoded and oldest first,
+     *                   from {@link RecentMessages#get()}
+     * @return A {@code Broadcast} representing the responses to send
+     * @throws IllegalArgumentException if {@code command} is not an instanceof
+     *                                  {@link JoinCommand}
+     *                                  or {@link InviteCommand}
+     */
+    public static Broadcast names(
+            Command command, Collection<String> recipients, String owner,
+            List<ByteBuffer> recent
+    ) {
+        if (!(command instanceof JoinCommand) && !(command instanceof InviteCommand)) {
+            throw new IllegalArgumentException("Invalid command type");
+        }
+        return names(command, recipients, recent, createNamesPayload(owner, recipients));
+    }
+
+    /**
+     * Like {@link #names(Command, Collection, String, List)}, with the
+     * {@code NAMES} payload already built, e.g. kept by the channel between
+     * joins, so that the members need not be sorted again.
+     *
+     * @param command      The command issued by the client (Invite or Join)
+     * @param recipients   A set of nicknames of the other users in the channel
+     *                     which the user is joining
+     * @param recent       The channel's recent messages, encoded and oldest
+     *                     first
+     * @param namesPayload The payload of the {@code NAMES} reply, as built by
+     *                     {@link NamesPayload}
+     * @return A {@code Broadcast} representing the responses to send
+     * @throws IllegalArgumentException if {@code command} is not an instanceof
+     *                                  {@link JoinCommand}
+     *                                  or {@link InviteCommand}
+     */
+    static Broadcast names(
+            Command command, Collection<String> recipients, List<ByteBuffer> recent,
+            String namesPayload
+    ) {
         // Relay JOIN or INVITE normally
         Broadcast broadcast = Broadcast.okay(command, recipients);
 
@@ -163,10 +225,38 @@ public final class Broadcast {
         } else {
             throw new IllegalArgumentException("Invalid command type");
         }
-        String namesPayload = createNamesPayload(owner, recipients);
         String namesResponse = String
                 .format(":%s NAMES %s :%s", userToAdd, channelName, namesPayload);
         broadcast.addResponse(userToAdd, namesResponse);
+        if (!recent.isEmpty()) {
+            broadcast.frames = new TreeMap<>();
+            broadcast.frames.put(userToAdd, recent);
+        }
+        return broadcast;
+    }
+
+    /**
+     * Creates a {@code Broadcast} for a {@link HistoryCommand}: the sender is
+     * told how many messages were found, and then sent the messages as they
+     * were stored.
+     *
+     * @param command  The command issued by the client
+     * @param count    The number of messages found
+     * @param messages The encoded messages, oldest first, as returned by
+     *                 {@link MessageHistory#last(String, int, List)}
+     * @return A {@code Broadcast} representing the responses to send
+     */
+    public static Broadcast history(HistoryCommand command, int count, List<ByteBuffer> messages) {
+        Broadcast broadcast = new Broadcast();
+        String recipient = command.getSender();
+        String response = String.format(
+                ":%s HISTORY %s %d", recipient, command.getChannel(), count
+        );
+        broadcast.addResponse(recipient, response);
+        if (!messages.isEmpty()) {
+            broadcast.frames = new TreeMap<>();
+            broadcast.frames.put(recipient, messages);
+        }
         return broadcast;
     }
 
@@ -195,6 +285,34 @@ public final class Broadcast {
         return userIdResponses;
     }
 
+    /**
+     * @return the number of users the broadcast has responses for, without
+     *         resolving them to user IDs
+     */
+    public int getRecipientCount() {
+        return responses.size();
+    }
+
+    /**
+     * You should not call this method yourself. Associates the stored
+     * pre-encoded frames with the user IDs of their recipients, like
+     * {@link #getResponses(ServerModel)}.
+     *
+     * @param model A data structure representing the state of the server
+     * @return a mapping from user ID to the frames to send after the user's
+     *         responses; empty for most broadcasts
+     */
+    public Map<Integer, List<ByteBuffer>> getFrames(ServerModel model) {
+        if (frames.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, List<ByteBuffer>> userIdFrames = new TreeMap<>();
+        for (Map.Entry<String, List<ByteBuffer>> entry : frames.entrySet()) {
+            userIdFrames.put(model.getUserId(entry.getKey()), entry.getValue());
+        }
+        return userIdFrames;
+    }
+
     // ==========================================================================
     // Private utility methods
     // ==========================================================================
@@ -218,17 +336,9 @@ public final class Broadcast {
             throw new IllegalArgumentException();
         }
 
-        List<String> nicksList = new LinkedList<>(nicks);
+        List<String> nicksList = new ArrayList<>(nicks);
         Collections.sort(nicksList);
-        StringBuilder payload = new StringBuilder();
-        for (String nick : nicksList) {
-            if (nick.equals(owner)) {
-                payload.append('@');
-            }
-            payload.append(nick);
-            payload.append(' ');
-        }
-        return payload.toString().trim();
+        return NamesPayload.build(owner, nicksList);
     }
 
     // ==========================================================================
@@ -244,12 +354,12 @@ public final class Broadcast {
             return false;
         }
         Broadcast that = (Broadcast) o;
-        return this.responses.equals(that.responses);
+        return this.responses.equals(that.responses) && this.frames.equals(that.frames);
     }
 
     @Override
     public int hashCode() {
-        return responses.hashCode();
+        return responses.hashCode() * 31 + frames.hashCode();
     }
 
     @Override
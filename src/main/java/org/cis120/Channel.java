@@ -4,9 +4,27 @@ import java.util.*;
 
 public class Channel implements Comparable {
 
-    private String owner;
-    private Set<String> userList;
+    // members are stored by user ID, not nickname, so that a NICK does not
+    // have to touch any channel. userList holds the IDs in ascending order;
+    // nicknames are resolved by ServerModel. It is copy-on-write: adding or
+    // removing a user replaces it rather than changing it, so a Members view
+    // of it stays a snapshot and can be handed out without copying.
+    private static final int[] NO_USERS = new int[0];
+
+    private int owner;
+    private int[] userList;
+    // the view of userList, made when first asked for
+    private Members members;
+    // the same IDs again, for checking membership in constant time
+    private final MemberTable memberTable;
     private boolean privacyPrivate;
+    // recent messages for users who join, if the server keeps them; not part
+    // of the channel's identity
+    private RecentMessages recentMessages;
+    // the payload of a NAMES reply, kept between joins by ServerModel, which
+    // resolves nicknames; any change to the members or owner made here drops
+    // it, and ServerModel puts back a patched one where it can
+    private String namesPayload;
 
     @Override
     public int compareTo(Object o) {
@@ -23,93 +41,148 @@ public class Channel implements Comparable {
         }
         Channel channel = (Channel) o;
         return privacyPrivate == channel.privacyPrivate
-                && owner.equals(channel.owner)
-                && userList.equals(channel.userList);
+                && owner == channel.owner
+                && Arrays.equals(userList, channel.userList);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(owner, userList, privacyPrivate);
+        return Objects.hash(owner, Arrays.hashCode(userList), privacyPrivate);
     }
 
     /**
      * Constructor for Channel class
      * 
-     * @param ownerName that created the channel
+     * @param ownerId of the user that created the channel
      */
-    public Channel(String ownerName) {
-        owner = ownerName;
-        privacyPrivate = true;
-        userList = new TreeSet<>();
-        userList.add(owner);
+    public Channel(int ownerId) {
+        this(ownerId, true);
     }
 
     /**
      * Constructor for Channel class
      * 
-     * @param ownerName that created the channel, privacyStatus desired by owner
+     * @param ownerId of the user that created the channel, privacyStatus desired
+     *                by owner
      */
-    public Channel(String ownerName, boolean privacyStatus) {
-        owner = ownerName;
+    public Channel(int ownerId, boolean privacyStatus) {
+        owner = ownerId;
         privacyPrivate = privacyStatus;
-        userList = new TreeSet<>();
-        userList.add(owner);
+        userList = NO_USERS;
+        memberTable = new MemberTable();
+        addUser(owner);
     }
 
     /**
-     * This method returns the list of all users in a channel
-     * For encapsulation, return a new collection so the userList in place is NOT
+     * This method returns the IDs of all users in a channel, in ascending order.
+     * For encapsulation, return a new array so the userList in place is NOT
      * changed
      * 
-     * @return list of all users in a channel from userList
+     * @return IDs of all users in a channel from userList
+     */
+    public int[] getUserList() {
+        return userList.clone();
+    }
+
+    /**
+     * Method to get the users in the channel without copying them, e.g. to
+     * send each of them a message. Later changes to the channel do not show
+     * in the view, so it may be kept while the channel changes.
+     *
+     * @return a snapshot of the IDs of all users in the channel
      */
-    public Collection<String> getUserList() {
-        Collection<String> result = new TreeSet<>(userList);
-        return result;
+    public Members getMembers() {
+        if (members == null) {
+            members = new Members(userList);
+        }
+        return members;
+    }
+
+    /**
+     * Method to get the number of users in the channel
+     * 
+     * @return number of users, including the owner
+     */
+    public int getSize() {
+        return userList.length;
     }
 
     /**
      * Method to remove desired user from channel
      * 
-     * @param user to be removed
+     * @param userId of the user to be removed
      */
-    public void removeUser(String user) {
-        userList.remove(user);
+    public void removeUser(int userId) {
+        if (!memberTable.remove(userId)) {
+            return;
+        }
+        int index = Arrays.binarySearch(userList, userId);
+        int[] users = new int[userList.length - 1];
+        System.arraycopy(userList, 0, users, 0, index);
+        System.arraycopy(userList, index + 1, users, index, users.length - index);
+        userList = users;
+        members = null;
+        namesPayload = null;
     }
 
     /**
-     * Method to add desired user from channel
+     * Method to add desired user to channel
      * 
-     * @param user to be removed
+     * @param userId of the user to be added
      */
-    public void addUser(String user) {
-        userList.add(user);
+    public void addUser(int userId) {
+        if (!memberTable.add(userId)) {
+            return;
+        }
+        int index = -(Arrays.binarySearch(userList, userId) + 1);
+        int[] users = new int[userList.length + 1];
+        System.arraycopy(userList, 0, users, 0, index);
+        users[index] = userId;
+        System.arraycopy(userList, index, users, index + 1, userList.length - index);
+        userList = users;
+        members = null;
+        namesPayload = null;
     }
 
     /**
      * Checks to see if user is contained in the channel
      * 
-     * @param username
+     * @param userId of the user
      * @return boolean true or false
      */
-    public boolean contains(String username) {
-        for (String names : userList) {
-            if (names.equals(username)) {
-                return true;
-            }
-        }
-        return userList.contains(username);
+    public boolean contains(int userId) {
+        return memberTable.contains(userId);
+    }
+
+    /**
+     * This method is provided for testing.
+     * 
+     * @return the number of slots in the table used to check membership
+     */
+    int getMemberTableCapacity() {
+        return memberTable.capacity();
     }
 
     /**
-     * Method to obtain owner's name
+     * Method to obtain owner's user ID
      * 
-     * @return owner name
+     * @return owner ID
      */
-    public String getOwner() {
+    public int getOwner() {
         return owner;
     }
 
+    /**
+     * Method to hand the channel to another member, e.g. when a user takes
+     * over an offline owner's nickname
+     *
+     * @param userId of the new owner, who must already be a member
+     */
+    public void setOwner(int userId) {
+        owner = userId;
+        namesPayload = null;
+    }
+
     /**
      * Method to get privacy status
      * 
@@ -129,13 +202,183 @@ public class Channel implements Comparable {
         privacyPrivate = status;
     }
 
-    public void setNickName(String oldname, String newname) {
-        if (oldname.equals(owner)) {
-            owner = newname;
+    /**
+     * Method to get the channel's recent messages
+     *
+     * @return the ring of recent messages, or null if the channel has none
+     */
+    public RecentMessages getRecentMessages() {
+        return recentMessages;
+    }
+
+    /**
+     * Method to attach a ring of recent messages to the channel
+     *
+     * @param recentMessages the ring, or null for none
+     */
+    public void setRecentMessages(RecentMessages recentMessages) {
+        this.recentMessages = recentMessages;
+    }
+
+    /**
+     * Method to get the channel's cached {@code NAMES} payload
+     *
+     * @return the payload, as built by {@link NamesPayload}, or null if it
+     *         has to be built again
+     */
+    public String getNamesPayload() {
+        return namesPayload;
+    }
+
+    /**
+     * Method to cache the channel's {@code NAMES} payload. Adding or removing
+     * a user, or changing the owner, drops it.
+     *
+     * @param namesPayload the payload for the current members, or null to
+     *                     drop it, e.g. when a member changes nickname
+     */
+    public void setNamesPayload(String namesPayload) {
+        this.namesPayload = namesPayload;
+    }
+
+    /**
+     * An unmodifiable snapshot of the IDs of a channel's users, in ascending
+     * order, from {@link Channel#getMembers()}.
+     */
+    public static final class Members {
+        private final int[] ids;
+
+        private Members(int[] ids) {
+            this.ids = ids;
+        }
+
+        /**
+         * @return the number of users, including the owner
+         */
+        public int size() {
+            return ids.length;
+        }
+
+        /**
+         * @param index of the user, from 0 to {@link #size()}, exclusive
+         * @return the ID of the user
+         */
+        public int get(int index) {
+            return ids[index];
+        }
+    }
+
+    /**
+     * A set of user IDs: an open-addressing table with linear probing, so
+     * that checking a user's membership, as every message does, takes the
+     * same time however large the channel. IDs are not dense, and those of
+     * offline users are negative, so they are hashed rather than used as
+     * indexes. Kept at most half full, and, once past its initial size, at
+     * least an eighth full, so that a channel that empties gives back the
+     * space it took when it was large.
+     */
+    private static final class MemberTable {
+        private static final int INITIAL_CAPACITY = 8;
+
+        private int[] ids;
+        private boolean[] used;
+        private int mask;
+        private int count;
+
+        MemberTable() {
+            ids = new int[INITIAL_CAPACITY];
+            used = new boolean[INITIAL_CAPACITY];
+            mask = INITIAL_CAPACITY - 1;
+            count = 0;
+        }
+
+        boolean contains(int userId) {
+            return used[slotOf(userId)];
+        }
+
+        /**
+         * @return true if the ID was not in the table
+         */
+        boolean add(int userId) {
+            int slot = slotOf(userId);
+            if (used[slot]) {
+                return false;
+            }
+            ids[slot] = userId;
+            used[slot] = true;
+            count++;
+            if (count * 2 > ids.length) {
+                resize(ids.length * 2);
+            }
+            return true;
+        }
+
+        /**
+         * Removes an ID, moving back any later IDs in its run that would
+         * otherwise no longer be found from their home slot.
+         *
+         * @return true if the ID was in the table
+         */
+        boolean remove(int userId) {
+            int slot = slotOf(userId);
+            if (!used[slot]) {
+                return false;
+            }
+            used[slot] = false;
+            count--;
+            for (int next = (slot + 1) & mask; used[next]; next = (next + 1) & mask) {
+                int home = homeOf(ids[next]);
+                // move the ID if the emptied slot is between its home and it
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    ids[slot] = ids[next];
+                    used[slot] = true;
+                    used[next] = false;
+                    slot = next;
+                }
+            }
+            if (ids.length > INITIAL_CAPACITY && count * 8 < ids.length) {
+                resize(ids.length / 2);
+            }
+            return true;
         }
-        userList.remove(oldname);
-        userList.add(newname);
 
+        /**
+         * @return the number of slots
+         */
+        int capacity() {
+            return ids.length;
+        }
+
+        private void resize(int capacity) {
+            int[] oldIds = ids;
+            boolean[] oldUsed = used;
+            ids = new int[capacity];
+            used = new boolean[capacity];
+            mask = ids.length - 1;
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = slotOf(oldIds[i]);
+                    ids[slot] = oldIds[i];
+                    used[slot] = true;
+                }
+            }
+        }
+
+        private int homeOf(int userId) {
+            int hash = userId * 0x9e3779b9;
+            return (hash ^ hash >>> 16) & mask;
+        }
+
+        /**
+         * @return the slot holding the ID, or the empty slot it would go in
+         */
+        private int slotOf(int userId) {
+            int slot = homeOf(userId);
+            while (used[slot] && ids[slot] != userId) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
     }
 
     // end of Channel class
@@ -0,0 +1,793 @@
+package org.cis120;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, write-ahead log of the changes to a {@link ServerModel}'s
+ * channels, so that channels, their owners and their members survive a
+ * restart.
+ *
+ * The model reports each change as a {@link ServerModel.Journal}; the log
+ * only queues a small record for it, so the thread applying commands never
+ * waits for the disk. A writer thread takes whatever records have queued up,
+ * writes them with a single write and, depending on the {@link Sync} policy,
+ * forces them to disk: a group commit. While records keep coming, the writer
+ * sleeps for a commit window between group commits instead of being woken
+ * for each record, so that a busy model thread does not pay for a wakeup (and,
+ * on a small machine, a context switch) per change; it is only woken when it
+ * has gone idle. The model does not wait for records
+ * to be written, so a crash can lose the changes of the last group commit or
+ * sync interval even though their responses were sent.
+ *
+ * The file starts with a magic number, version and generation, followed by
+ * records of the form {@code length, CRC-32, type, fields}, where the length
+ * and CRC cover the type and fields and strings are written as an unsigned
+ * short length followed by UTF-8 bytes. {@link #replay(Path, ServerModel)}
+ * stops at the first record that is cut short or fails its checksum, as the
+ * last one does after a crash in the middle of a write, and drops it from the
+ * file.
+ *
+ * So that the log does not grow forever, a {@link ChannelSnapshot} of the
+ * channels can be taken at a {@link Checkpoint}: a position in the log that
+ * the snapshot already includes everything before. Once the snapshot is safely
+ * on disk, {@link #truncate(Checkpoint)} replaces the log with one of the next
+ * generation holding only the records after the checkpoint. Replay starts
+ * from the checkpoint of the snapshot it follows, or from the first record if
+ * the log was truncated, and the generations tell which applies.
+ */
+final class ChannelLog implements ServerModel.Journal {
+
+    /**
+     * When written records are forced to the storage device.
+     */
+    enum Sync {
+        /**
+         * Never; the operating system writes them back in its own time.
+         * Survives the server crashing but not the machine.
+         */
+        NEVER,
+
+        /**
+         * After every group commit, before the next one is written.
+         */
+        BATCH,
+
+        /**
+         * At most once per sync interval, and whenever the writer is idle.
+         */
+        INTERVAL
+    }
+
+    private static final int MAGIC = 0x50504c47;
+    private static final int VERSION = 2;
+    // magic, version and generation
+    private static final int HEADER_SIZE = 16;
+    // length and CRC
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    static final byte CREATE = 1;
+    static final byte JOIN = 2;
+    static final byte INVITE = 3;
+    static final byte KICK = 4;
+    static final byte LEAVE = 5;
+    static final byte RENAME = 6;
+
+    // How long the writer gathers records between group commits while busy
+    private static final long COMMIT_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Markers for the writer, queued in order with the records
+    private static final byte CHECKPOINT = -1;
+    private static final byte TRUNCATE = -2;
+
+    // Tells the writer to write what it has and stop
+    private static final Record STOP = new Record((byte) 0, null);
+
+    private final Path file;
+    private final Sync sync;
+    private final long syncIntervalNanos;
+    private final ServerLog log;
+    private final Queue<Record> queue;
+    // Set while the writer is, or is about to be, parked with nothing to
+    // write; cleared by the first append to wake it
+    private final AtomicReference<Thread> parkedWriter;
+    private final Log2Histogram batchSizes;
+    private final Thread writer;
+    private volatile boolean open;
+    // Only written by the writer thread
+    private volatile long recordsSinceCheckpoint;
+
+    // Only touched by the writer thread once it has started
+    private FileChannel channel;
+    private long generation;
+    private ByteBuffer buffer;
+    private final CRC32 crc;
+
+    /**
+     * Opens a log for appending, creating it if it does not exist. Replay an
+     * existing log first with {@link #replay(Path, ServerModel)}, which also
+     * drops a torn final record.
+     *
+     * @param file               The log file
+     * @param sync               When records are forced to disk
+     * @param syncIntervalMillis The sync interval for {@link Sync#INTERVAL}
+     * @param log                Where to report write failures
+     * @throws IOException if the file cannot be opened or is not a channel
+     *                     log
+     */
+    ChannelLog(Path file, Sync sync, long syncIntervalMillis, ServerLog log) throws IOException {
+        this(file, 0, sync, syncIntervalMillis, log);
+    }
+
+    /**
+     * Opens a log for appending, creating it with the given generation if it
+     * does not exist.
+     *
+     * @param file               The log file
+     * @param firstGeneration    The generation of a new file: 0, or one more
+     *                           than that of the snapshot's checkpoint if
+     *                           there is one
+     * @param sync               When records are forced to disk
+     * @param syncIntervalMillis The sync interval for {@link Sync#INTERVAL}
+     * @param log                Where to report write failures
+     * @throws IOException if the file cannot be opened or is not a channel
+     *                     log
+     */
+    ChannelLog(
+            Path file, long firstGeneration, Sync sync, long syncIntervalMillis, ServerLog log
+    ) throws IOException {
+        this.file = file;
+        this.sync = sync;
+        syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.log = log;
+        queue = new ConcurrentLinkedQueue<>();
+        parkedWriter = new AtomicReference<>();
+        batchSizes = new Log2Histogram();
+        buffer = ByteBuffer.allocateDirect(64 * 1024);
+        crc = new CRC32();
+        channel = FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        try {
+            if (channel.size() == 0) {
+                generation = firstGeneration;
+                writeHeader(channel, generation);
+                channel.force(true);
+            } else {
+                generation = checkHeader(channel, file);
+            }
+            channel.position(channel.size());
+        } catch (IOException iox) {
+            channel.close();
+            throw iox;
+        }
+        open = true;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "Channel log writer");
+        writer.start();
+    }
+
+    /**
+     * Writes and syncs the records queued so far, then closes the file.
+     * Changes reported after this are not logged, so a server that is
+     * stopping does not log the disconnection of all its users.
+     */
+    public void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        queue.add(STOP);
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException ix) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the distribution of the number of records per group commit
+     */
+    Log2Histogram getBatchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * @return roughly how many records have been written since the last
+     *         checkpoint, or since the log was opened
+     */
+    long getRecordsSinceCheckpoint() {
+        return recordsSinceCheckpoint;
+    }
+
+    // ==========================================================================
+    // Checkpoints
+    // ==========================================================================
+
+    /**
+     * Marks the current end of the log. The writer forces everything logged
+     * before the call to disk and then reports where it ended; see
+     * {@link #awaitCheckpoint(Checkpoint)}. Changes must not be reported
+     * concurrently with this call, so that the checkpoint falls exactly
+     * between the changes a snapshot taken at the same time includes and
+     * those it does not.
+     *
+     * @return the checkpoint
+     */
+    Checkpoint checkpoint() {
+        Checkpoint checkpoint = new Checkpoint();
+        append(new Record(CHECKPOINT, checkpoint));
+        return checkpoint;
+    }
+
+    /**
+     * Waits for the writer to reach a checkpoint.
+     *
+     * @param checkpoint A checkpoint from {@link #checkpoint()}
+     * @return false if the log was closed, or failed, first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    boolean awaitCheckpoint(Checkpoint checkpoint) throws InterruptedException {
+        while (!checkpoint.done.await(COMMIT_WINDOW_NANOS, TimeUnit.NANOSECONDS)) {
+            if (!writer.isAlive()) {
+                break;
+            }
+        }
+        return checkpoint.done.getCount() == 0;
+    }
+
+    /**
+     * Drops the records before a checkpoint, which a snapshot on disk now
+     * includes, by replacing the file with a log of the next generation that
+     * holds only the records after it. Done by the writer in its own time;
+     * nothing is done if the log is closed first, or has already moved past
+     * the checkpoint's generation.
+     *
+     * @param checkpoint A checkpoint the writer has reached
+     */
+    void truncate(Checkpoint checkpoint) {
+        append(new Record(TRUNCATE, checkpoint));
+    }
+
+    // ==========================================================================
+    // Journal
+    // ==========================================================================
+
+    @Override
+    public void created(String channel, String owner, boolean inviteOnly) {
+        append(new Record(CREATE, channel, owner, inviteOnly));
+    }
+
+    @Override
+    public void joined(String channel, String user) {
+        append(new Record(JOIN, channel, user, false));
+    }
+
+    @Override
+    public void invited(String channel, String user) {
+        append(new Record(INVITE, channel, user, false));
+    }
+
+    @Override
+    public void kicked(String channel, String user) {
+        append(new Record(KICK, channel, user, false));
+    }
+
+    @Override
+    public void left(String channel, String user) {
+        append(new Record(LEAVE, channel, user, false));
+    }
+
+    @Override
+    public void renamed(String oldNickname, String newNickname) {
+        append(new Record(RENAME, oldNickname, newNickname, false));
+    }
+
+    private void append(Record record) {
+        if (open) {
+            queue.add(record);
+            if (parkedWriter.get() != null) {
+                Thread parked = parkedWriter.getAndSet(null);
+                if (parked != null) {
+                    LockSupport.unpark(parked);
+                }
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Writer thread
+    // ==========================================================================
+
+    private void write() {
+        List<Record> batch = new ArrayList<>();
+        long lastSync = System.nanoTime();
+        boolean unsynced = false;
+        boolean stopping = false;
+        try {
+            while (!stopping) {
+                boolean wrote = false;
+                Record record;
+                while (!stopping && (record = queue.poll()) != null) {
+                    if (record.type > 0) {
+                        batch.add(record);
+                        continue;
+                    }
+                    // everything queued before a marker is written first
+                    if (!batch.isEmpty()) {
+                        commit(batch);
+                        wrote = true;
+                        unsynced = true;
+                    }
+                    if (record == STOP) {
+                        stopping = true;
+                    } else if (record.type == CHECKPOINT) {
+                        if (unsynced) {
+                            channel.force(false);
+                            lastSync = System.nanoTime();
+                            unsynced = false;
+                        }
+                        recordsSinceCheckpoint = 0;
+                        record.checkpoint.reach(generation, channel.position());
+                    } else if (rewriteAfter(record.checkpoint)) {
+                        // the new file was forced as a whole
+                        lastSync = System.nanoTime();
+                        unsynced = false;
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                    wrote = true;
+                    unsynced = true;
+                }
+                boolean due = sync == Sync.INTERVAL
+                        && System.nanoTime() - lastSync >= syncIntervalNanos;
+                if (unsynced && (sync == Sync.BATCH || stopping || due)) {
+                    channel.force(false);
+                    lastSync = System.nanoTime();
+                    unsynced = false;
+                } else if (sync == Sync.NEVER) {
+                    unsynced = false;
+                }
+                if (stopping) {
+                    break;
+                }
+                Thread.interrupted();
+                if (wrote) {
+                    // More are likely on the way; let them gather
+                    LockSupport.parkNanos(this, COMMIT_WINDOW_NANOS);
+                } else {
+                    parkedWriter.set(Thread.currentThread());
+                    // append() reads parkedWriter after queueing its record,
+                    // so either it sees us and unparks, or we see its record
+                    if (queue.isEmpty()) {
+                        if (unsynced) {
+                            long untilSync = lastSync + syncIntervalNanos - System.nanoTime();
+                            LockSupport.parkNanos(this, Math.max(1, untilSync));
+                        } else {
+                            LockSupport.park(this);
+                        }
+                    }
+                    parkedWriter.set(null);
+                }
+            }
+        } catch (IOException iox) {
+            log.error("Could not write the channel log " + file + "; no longer logging", iox);
+            open = false;
+            queue.clear();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException iox) {
+                log.error("Could not close the channel log", iox);
+            }
+            log.info("Channel log batch sizes: %s", batchSizes);
+        }
+    }
+
+    private void commit(List<Record> batch) throws IOException {
+        writeBatch(batch);
+        batchSizes.record(batch.size());
+        recordsSinceCheckpoint += batch.size();
+        batch.clear();
+    }
+
+    /**
+     * Replaces the file with a log of the next generation holding the records
+     * after a checkpoint, unless the log has already moved past it.
+     *
+     * @return true if the file was replaced
+     */
+    private boolean rewriteAfter(Checkpoint checkpoint) throws IOException {
+        if (checkpoint.generation != generation) {
+            return false;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long end = channel.position();
+        try (FileChannel out = FileChannel.open(
+                temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )) {
+            writeHeader(out, generation + 1);
+            long position = checkpoint.offset;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, out);
+            }
+            out.force(true);
+        }
+        // a crash before the move leaves the old log, which replays from the
+        // checkpoint; after it, the new one, which replays from the start
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        generation++;
+        log.info("Truncated the channel log %s to %d bytes", file, channel.size());
+        return true;
+    }
+
+    private void writeBatch(List<Record> batch) throws IOException {
+        buffer.clear();
+        for (Record record : batch) {
+            byte[] first = utf8(record.first);
+            byte[] second = utf8(record.second);
+            int length = 1 + 2 + first.length + 2 + second.length + (record.type == CREATE ? 1 : 0);
+            if (buffer.remaining() < RECORD_HEADER_SIZE + length) {
+                flush();
+                if (buffer.capacity() < RECORD_HEADER_SIZE + length) {
+                    buffer = ByteBuffer.allocateDirect(RECORD_HEADER_SIZE + length);
+                }
+            }
+            int start = buffer.position();
+            buffer.putInt(length);
+            buffer.putInt(0);
+            buffer.put(record.type);
+            buffer.putShort((short) first.length).put(first);
+            buffer.putShort((short) second.length).put(second);
+            if (record.type == CREATE) {
+                buffer.put((byte) (record.flag ? 1 : 0));
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.position(start + RECORD_HEADER_SIZE).limit(buffer.position());
+            crc.reset();
+            crc.update(body);
+            buffer.putInt(start + 4, (int) crc.getValue());
+        }
+        flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            // names are validated as alphanumeric long before this
+            throw new IllegalArgumentException("Name too long to log");
+        }
+        return bytes;
+    }
+
+    // ==========================================================================
+    // Replay
+    // ==========================================================================
+
+    /**
+     * Applies the changes in a log to a model, which should have no users or
+     * channels yet, so that it has the channels it had when the log was last
+     * written. The users in them are restored as offline users. A torn or
+     * corrupt final record is dropped from the file.
+     *
+     * @param file  The log file; nothing is done if it does not exist
+     * @param model The model to apply the changes to
+     * @return the number of records applied
+     * @throws IOException if the file cannot be read or is not a channel log
+     */
+    static long replay(Path file, ServerModel model) throws IOException {
+        return replay(file, model, null);
+    }
+
+    /**
+     * Applies the changes in a log that follow a snapshot to the model the
+     * snapshot was loaded into.
+     *
+     * @param file  The log file; nothing is done if it does not exist
+     * @param model The model to apply the changes to
+     * @param from  The checkpoint the snapshot was taken at, or null if there
+     *              is no snapshot
+     * @return the number of records applied
+     * @throws IOException if the file cannot be read, is not a channel log or
+     *                     does not follow the snapshot
+     */
+    static long replay(Path file, ServerModel model, Checkpoint from) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long count = 0;
+        try (FileChannel in = FileChannel.open(
+                file, StandardOpenOption.READ, StandardOpenOption.WRITE
+        )) {
+            if (in.size() == 0) {
+                return 0;
+            }
+            long generation = checkHeader(in, file);
+            long size = in.size();
+            long position;
+            if (from == null ? generation == 0 : generation == from.generation + 1) {
+                position = HEADER_SIZE;
+            } else if (from != null && generation == from.generation && from.offset <= size) {
+                // the snapshot was written but the log not yet truncated
+                position = from.offset;
+            } else {
+                throw new IOException(
+                        file + " (generation " + generation + ") does not follow the "
+                                + (from == null ? "missing snapshot" : "snapshot at " + from)
+                );
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            CRC32 crc = new CRC32();
+            buffer.limit(0);
+            while (true) {
+                if (!fill(in, buffer, position, RECORD_HEADER_SIZE, size)) {
+                    break;
+                }
+                int recordStart = buffer.position();
+                int length = buffer.getInt(recordStart);
+                int checksum = buffer.getInt(recordStart + 4);
+                if (length < 1 || length > 2 * (2 + 0xffff) + 2) {
+                    break;
+                }
+                if (buffer.capacity() < RECORD_HEADER_SIZE + length) {
+                    ByteBuffer larger = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+                    larger.put(buffer).flip();
+                    buffer = larger;
+                }
+                if (!fill(in, buffer, position, RECORD_HEADER_SIZE + length, size)) {
+                    break;
+                }
+                // filling may have moved the record to the start of the buffer
+                recordStart = buffer.position();
+                crc.reset();
+                crc.update(buffer.array(), recordStart + RECORD_HEADER_SIZE, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                buffer.position(recordStart + RECORD_HEADER_SIZE);
+                byte type = buffer.get();
+                String first = readString(buffer);
+                String second = readString(buffer);
+                boolean flag = type == CREATE && buffer.get() != 0;
+                buffer.position(recordStart + RECORD_HEADER_SIZE + length);
+                apply(model, type, first, second, flag);
+                position += RECORD_HEADER_SIZE + length;
+                count++;
+            }
+            if (position < size) {
+                // what follows the last good record was never completely
+                // written; appending after it would make it unreadable
+                in.truncate(position);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Makes sure the buffer holds at least {@code needed} bytes of the file
+     * from {@code position}, reading more as needed.
+     *
+     * @return false if the file ends first
+     */
+    private static boolean fill(
+            FileChannel in, ByteBuffer buffer, long position, int needed, long size
+    ) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return true;
+        }
+        if (position + needed > size) {
+            return false;
+        }
+        buffer.compact();
+        while (buffer.position() < needed) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        String value = new String(
+                buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8
+        );
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static void writeHeader(FileChannel out, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+    }
+
+    /**
+     * @return the generation of the log
+     */
+    private static long checkHeader(FileChannel in, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (in.read(header, header.position()) < 0) {
+                throw new IOException(file + " is not a channel log");
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException(file + " is not a channel log");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException(file + " has unsupported version " + version);
+        }
+        return header.getLong();
+    }
+
+    /**
+     * Applies one logged change by running the command that made it, on
+     * behalf of the user who sent it.
+     */
+    private static void apply(
+            ServerModel model, byte type, String first, String second, boolean flag
+    ) {
+        String owner;
+        switch (type) {
+            case CREATE:
+                model.createChannel(
+                        new CreateCommand(model.restoreUser(second), second, first, flag)
+                );
+                break;
+            case JOIN:
+                model.joinChannel(new JoinCommand(model.restoreUser(second), second, first));
+                break;
+            case INVITE:
+                owner = model.getOwner(first);
+                if (owner != null) {
+                    model.restoreUser(second);
+                    model.inviteUser(
+                            new InviteCommand(model.getUserId(owner), owner, first, second)
+                    );
+                }
+                break;
+            case KICK:
+                owner = model.getOwner(first);
+                if (owner != null) {
+                    model.kickUser(new KickCommand(model.getUserId(owner), owner, first, second));
+                }
+                break;
+            case LEAVE:
+                if (model.getOwner(first) != null) {
+                    model.leaveChannel(
+                            new LeaveCommand(model.restoreUser(second), second, first)
+                    );
+                }
+                break;
+            case RENAME:
+                // a user no channel record has named was in no channel, and
+                // restoring it would only keep its nickname from others
+                int userId = model.getUserId(first);
+                if (userId != -1) {
+                    model.changeNickname(new NicknameCommand(userId, first, second));
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown channel log record " + type);
+        }
+    }
+
+    // ==========================================================================
+    // Records
+    // ==========================================================================
+
+    /**
+     * A position in a log: the generation of the file and the offset of the
+     * first record after the point it marks.
+     */
+    static final class Checkpoint {
+        private final CountDownLatch done;
+        private long generation;
+        private long offset;
+
+        /**
+         * A checkpoint the writer has yet to reach.
+         */
+        private Checkpoint() {
+            done = new CountDownLatch(1);
+        }
+
+        /**
+         * A checkpoint read back from a snapshot.
+         */
+        Checkpoint(long generation, long offset) {
+            done = new CountDownLatch(0);
+            this.generation = generation;
+            this.offset = offset;
+        }
+
+        private void reach(long generation, long offset) {
+            this.generation = generation;
+            this.offset = offset;
+            done.countDown();
+        }
+
+        long getGeneration() {
+            return generation;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            return "generation " + generation + ", offset " + offset;
+        }
+    }
+
+    /**
+     * A change waiting to be written: a channel and user, or for a rename the
+     * old and new nicknames, and for a creation whether it is invite-only.
+     * Markers for the writer have a type of 0 or less and a checkpoint
+     * instead.
+     */
+    private static final class Record {
+        private final byte type;
+        private final String first;
+        private final String second;
+        private final boolean flag;
+        private final Checkpoint checkpoint;
+
+        Record(byte type, String first, String second, boolean flag) {
+            this.type = type;
+            this.first = first;
+            this.second = second;
+            this.flag = flag;
+            checkpoint = null;
+        }
+
+        Record(byte type, Checkpoint checkpoint) {
+            this.type = type;
+            first = null;
+            second = null;
+            flag = false;
+            this.checkpoint = checkpoint;
+        }
+    }
+}
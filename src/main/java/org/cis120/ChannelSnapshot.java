@@ -0,0 +1,344 @@
+package org.cis120;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A copy of a {@link ServerModel}'s channels (their owners, privacy and
+ * members) and of the nicknames of the users in them, taken at a
+ * {@link ChannelLog.Checkpoint} so that the log before it can be dropped.
+ *
+ * Taking the copy with {@link ServerModel#snapshotChannels()} only copies
+ * each channel's member IDs into arrays, so the model is held up for as
+ * little as possible; the slow part, {@link #write(Path, ChannelLog.Checkpoint)},
+ * can then run on any thread while the model carries on.
+ *
+ * The file holds a header (magic number, version, checkpoint, and the number
+ * of users and channels), the nicknames, the channels, each as its name, an
+ * invite-only flag, its owner and its members, all given as indexes into the
+ * nicknames, and finally a CRC-32 of everything before it. Strings are an
+ * unsigned short length followed by UTF-8 bytes. It is written to a
+ * temporary file that is then moved into place, so it is either complete or
+ * the previous snapshot, and {@link #load(Path, ServerModel)} maps it rather
+ * than reading it through a buffer.
+ */
+final class ChannelSnapshot {
+
+    private static final int MAGIC = 0x50505353;
+    private static final int VERSION = 1;
+    // magic, version, checkpoint generation and offset, users and channels
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // Users in a channel when the copy was taken, in no particular order
+    private int[] userIds;
+    private String[] nicknames;
+    private int users;
+
+    // Channels, in order of name
+    private String[] names;
+    private boolean[] inviteOnly;
+    private int[] owners;
+    private int[][] members;
+    private int channels;
+
+    ChannelSnapshot() {
+        userIds = new int[16];
+        nicknames = new String[16];
+        users = 0;
+        names = new String[16];
+        inviteOnly = new boolean[16];
+        owners = new int[16];
+        members = new int[16][];
+        channels = 0;
+    }
+
+    /**
+     * @param log The write-ahead log the snapshots are taken for
+     * @return the file the snapshots of that log are kept in
+     */
+    static Path pathFor(Path log) {
+        return log.resolveSibling(log.getFileName() + ".snapshot");
+    }
+
+    /**
+     * @return the number of channels in the copy
+     */
+    int getChannelCount() {
+        return channels;
+    }
+
+    // ==========================================================================
+    // Copying, for ServerModel
+    // ==========================================================================
+
+    void addUser(int userId, String nickname) {
+        if (users == userIds.length) {
+            userIds = Arrays.copyOf(userIds, users * 2);
+            nicknames = Arrays.copyOf(nicknames, users * 2);
+        }
+        userIds[users] = userId;
+        nicknames[users] = nickname;
+        users++;
+    }
+
+    /**
+     * @param memberIds The IDs of the members, including the owner, which
+     *                  the snapshot keeps
+     */
+    void addChannel(String name, boolean isInviteOnly, int ownerId, int[] memberIds) {
+        if (channels == names.length) {
+            names = Arrays.copyOf(names, channels * 2);
+            inviteOnly = Arrays.copyOf(inviteOnly, channels * 2);
+            owners = Arrays.copyOf(owners, channels * 2);
+            members = Arrays.copyOf(members, channels * 2);
+        }
+        names[channels] = name;
+        inviteOnly[channels] = isInviteOnly;
+        owners[channels] = ownerId;
+        members[channels] = memberIds;
+        channels++;
+    }
+
+    // ==========================================================================
+    // Writing
+    // ==========================================================================
+
+    /**
+     * Writes the snapshot and forces it to disk, replacing any earlier one.
+     *
+     * @param file       The snapshot file
+     * @param checkpoint The checkpoint the copy was taken at, which the
+     *                   writer of the log must have reached
+     * @throws IOException if the file cannot be written
+     */
+    void write(Path file, ChannelLog.Checkpoint checkpoint) throws IOException {
+        IndexTable indexes = new IndexTable(userIds, users);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(
+                temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE
+        )) {
+            Output out = new Output(channel);
+            out.ensure(HEADER_SIZE);
+            out.buffer.putInt(MAGIC).putInt(VERSION)
+                    .putLong(checkpoint.getGeneration()).putLong(checkpoint.getOffset())
+                    .putInt(users).putInt(channels);
+            for (int i = 0; i < users; i++) {
+                out.putString(nicknames[i]);
+            }
+            for (int c = 0; c < channels; c++) {
+                out.putString(names[c]);
+                out.ensure(1 + 4 + 4);
+                out.buffer.put((byte) (inviteOnly[c] ? 1 : 0));
+                out.buffer.putInt(indexes.indexOf(owners[c]));
+                out.buffer.putInt(members[c].length);
+                for (int member : members[c]) {
+                    out.ensure(4);
+                    out.buffer.putInt(indexes.indexOf(member));
+                }
+            }
+            out.finish();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Finds the index of a user ID in the copy's users: an open-addressing
+     * table, so that looking up every member of every channel does not box
+     * each ID.
+     */
+    private static final class IndexTable {
+        private final int[] ids;
+        // index + 1, or 0 for an empty slot
+        private final int[] indexes;
+        private final int mask;
+
+        IndexTable(int[] userIds, int count) {
+            int capacity = Integer.highestOneBit(Math.max(2, count) * 2 - 1) * 2;
+            ids = new int[capacity];
+            indexes = new int[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < count; i++) {
+                int slot = slotOf(userIds[i]);
+                ids[slot] = userIds[i];
+                indexes[slot] = i + 1;
+            }
+        }
+
+        int indexOf(int userId) {
+            int index = indexes[slotOf(userId)] - 1;
+            if (index < 0) {
+                throw new IllegalStateException("User " + userId + " is not in the copy");
+            }
+            return index;
+        }
+
+        private int slotOf(int userId) {
+            int hash = userId * 0x9e3779b9;
+            int slot = (hash ^ hash >>> 16) & mask;
+            while (indexes[slot] != 0 && ids[slot] != userId) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * Buffers what is written to the file and keeps its checksum.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final CRC32 crc;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            crc = new CRC32();
+        }
+
+        void ensure(int needed) throws IOException {
+            if (buffer.remaining() < needed) {
+                flush();
+            }
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xffff) {
+                // names are validated as alphanumeric long before this
+                throw new IllegalArgumentException("Name too long to snapshot");
+            }
+            ensure(2 + bytes.length);
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    // ==========================================================================
+    // Loading
+    // ==========================================================================
+
+    /**
+     * Restores the channels in a snapshot into a model that has no users or
+     * channels yet. Their users are restored as offline users, as by
+     * {@link ChannelLog#replay(Path, ServerModel)}.
+     *
+     * @param file  The snapshot file
+     * @param model The model to restore the channels into
+     * @return the checkpoint the snapshot was taken at, from which to replay
+     *         the log, or null if there is no snapshot
+     * @throws IOException if the file cannot be read or is not a complete
+     *                     snapshot
+     */
+    static ChannelLog.Checkpoint load(Path file, ServerModel model) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 4) {
+                throw new IOException(file + " is not a channel snapshot");
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (in.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a channel snapshot");
+            }
+            if (in.getInt(4) != VERSION) {
+                throw new IOException(file + " has unsupported version " + in.getInt(4));
+            }
+            ByteBuffer body = in.duplicate();
+            body.limit((int) size - 4);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != in.getInt((int) size - 4)) {
+                throw new IOException(file + " is corrupt");
+            }
+
+            in.position(8);
+            long generation = in.getLong();
+            long offset = in.getLong();
+            ChannelLog.Checkpoint checkpoint = new ChannelLog.Checkpoint(generation, offset);
+            int userCount = in.getInt();
+            int channelCount = in.getInt();
+            String[] userNicknames;
+            String[] channelNames;
+            boolean[] channelInviteOnly;
+            int[] channelOwners;
+            int[][] channelMembers;
+            try {
+                byte[] bytes = new byte[0xffff];
+                userNicknames = new String[userCount];
+                for (int i = 0; i < userCount; i++) {
+                    userNicknames[i] = readString(in, bytes);
+                }
+                channelNames = new String[channelCount];
+                channelInviteOnly = new boolean[channelCount];
+                channelOwners = new int[channelCount];
+                channelMembers = new int[channelCount][];
+                for (int c = 0; c < channelCount; c++) {
+                    channelNames[c] = readString(in, bytes);
+                    channelInviteOnly[c] = in.get() != 0;
+                    channelOwners[c] = checkIndex(in.getInt(), userCount);
+                    int[] memberIndexes = new int[in.getInt()];
+                    for (int m = 0; m < memberIndexes.length; m++) {
+                        memberIndexes[m] = checkIndex(in.getInt(), userCount);
+                    }
+                    channelMembers[c] = memberIndexes;
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException
+                    | NegativeArraySizeException x) {
+                throw new IOException(file + " is corrupt", x);
+            }
+            model.restoreChannels(
+                    userNicknames, channelNames, channelInviteOnly, channelOwners, channelMembers
+            );
+            return checkpoint;
+        }
+    }
+
+    private static int checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("User " + index + " of " + size);
+        }
+        return index;
+    }
+
+    private static String readString(ByteBuffer in, byte[] bytes) {
+        int length = in.getShort() & 0xffff;
+        in.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
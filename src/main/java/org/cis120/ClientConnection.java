@@ -0,0 +1,37 @@
+package org.cis120;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A {@code ClientConnection} is the {@link ServerBackend}'s handle on one
+ * connected client, independent of the network engine the client is served
+ * by. It is used by the model thread, and by the {@link ModelShards} if there
+ * are any, to deliver the responses of a {@link Broadcast}; implementations
+ * must allow concurrent calls.
+ */
+interface ClientConnection {
+
+    /**
+     * Sends encoded response lines to the client, in order. The frames come
+     * from {@link OutboundQueue#encode(String)} and may be shared with other
+     * connections, so they must not be modified; implementations queue
+     * duplicates of them.
+     *
+     * @param frames The encoded responses to send
+     * @throws IOException if the connection cannot be written to
+     */
+    void send(List<ByteBuffer> frames) throws IOException;
+
+    /**
+     * @return the number of bytes written to the client so far
+     */
+    long getBytesWritten();
+
+    /**
+     * Closes the connection. Closing an already closed connection has no
+     * effect.
+     */
+    void close();
+}
@@ -0,0 +1,721 @@
+package org.cis120;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Makes a {@link ServerBackend} one node of a cluster of servers that share a
+ * single user namespace and set of channels, so that clients connected to
+ * different nodes can talk to each other as if they were on one server.
+ *
+ * Every node keeps a full replica of the {@link ServerModel}, and every node
+ * applies every task to it in an order all the nodes agree on. Each node then
+ * sends the responses of a task only to the clients connected to it; the
+ * others get theirs from their own node. The order is agreed on like this:
+ *
+ * <ul>
+ * <li>Registrations, disconnections and {@code NICK} requests touch the whole
+ * user namespace. They are forwarded to node 0, the <em>registry</em>, which
+ * numbers them and sends them to every node as global operations. The number
+ * of global operations a node has seen is its <em>epoch</em>.</li>
+ * <li>Channel-scoped requests are forwarded to the node that owns the channel
+ * on a {@link ConsistentHashRing}. The owner stamps each with its epoch and
+ * sends it to every node, so commands on one channel are applied everywhere in
+ * the owner's order.</li>
+ * <li>On seeing global operation {@code n}, every node sends every node a mark
+ * for epoch {@code n} after all the channel commands it stamped before. A node
+ * applies the operation only once it has applied those commands from every
+ * node and has their marks.</li>
+ * </ul>
+ *
+ * Within an epoch the user namespace does not change and commands on
+ * different channels commute (see {@link ModelShards}), so every replica ends
+ * each epoch in the same state however it interleaved the channels.
+ *
+ * Nodes are connected in a full mesh of TCP links on the addresses in
+ * {@link ServerConfig#getClusterNodes()}, carrying the length-prefixed binary
+ * messages in {@link Message}. Each node sends on its own outgoing link to
+ * each other node, so messages from one node arrive in the order they were
+ * sent.
+ *
+ * A node that loses its link from another node stops waiting for it, and the
+ * registry disconnects that node's users everywhere. This does not make the
+ * cluster fault tolerant: commands a failed node had sent only part of the
+ * cluster may leave replicas disagreeing, and the cluster cannot register,
+ * disconnect or rename users without node 0.
+ */
+final class ClusterNode {
+
+    /**
+     * Applies tasks to this node's model in cluster order.
+     */
+    interface Applier {
+        /**
+         * @param kind   {@link TaskRing#REGISTRATION},
+         *               {@link TaskRing#DISCONNECTION} or
+         *               {@link TaskRing#REQUEST}
+         * @param userId The user the task is for
+         * @param line   The request line, or null if the task is not a request
+         * @param start  The index in {@code line} at which the command starts
+         */
+        void apply(int kind, int userId, String line, int start);
+    }
+
+    // The node that numbers global operations
+    static final int REGISTRY = 0;
+
+    // A global operation, besides the TaskRing kinds, that disconnects every
+    // user of the failed node given as the user ID
+    private static final int NODE_DOWN = 3;
+
+    // How long to wait between attempts to connect to a node that is not up
+    private static final long CONNECT_RETRY_MILLIS = 200;
+
+    private final int self;
+    private final List<InetSocketAddress> nodes;
+    private final Applier applier;
+    private final ServerLog log;
+    private final Peer[] peers;
+    private final List<Socket> inbound;
+    private volatile ServerSocket listener;
+    private volatile boolean open;
+
+    // Everything below is guarded by this
+
+    // Which node owns each channel, without the nodes this node has lost
+    private final ConsistentHashRing ring;
+    private final boolean[] failed;
+    // Registry only: the number of global operations handed out
+    private long lastGlobal;
+    // The number of global operations received, and applied
+    private long receivedEpoch;
+    private long appliedEpoch;
+    // Global operations received but not yet applied, by number
+    private final Map<Long, Message> globals;
+    // Stamped channel commands and marks from each node, in the order sent
+    private final List<ArrayDeque<Message>> streams;
+    // Channel commands forwarded to this node before it reached their epoch
+    private final List<Message> pendingForwards;
+    // This node's users with global operations not yet seen back from the
+    // registry, and the tasks they sent since, which wait for them
+    private final Map<Integer, Integer> awaiting;
+    private final Map<Integer, ArrayDeque<Message>> held;
+    // The registered users of each node, as applied
+    private final List<SortedSet<Integer>> users;
+
+    /**
+     * @param config  The cluster's nodes and this node's index among them
+     * @param applier Receives the tasks to apply to this node's model
+     * @param log     Where to log link failures
+     * @throws IllegalArgumentException if the node index is not in the list
+     *                                  of nodes
+     */
+    ClusterNode(ServerConfig config, Applier applier, ServerLog log) {
+        nodes = config.getClusterNodes();
+        self = config.getNodeIndex();
+        if (self >= nodes.size()) {
+            throw new IllegalArgumentException(
+                    "nodeIndex " + self + " is not one of the " + nodes.size() + " cluster nodes"
+            );
+        }
+        this.applier = applier;
+        this.log = log;
+        peers = new Peer[nodes.size()];
+        inbound = new ArrayList<>();
+        ring = new ConsistentHashRing(nodes.size(), ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        failed = new boolean[nodes.size()];
+        globals = new HashMap<>();
+        streams = new ArrayList<>();
+        users = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            streams.add(new ArrayDeque<Message>());
+            users.add(new TreeSet<Integer>());
+        }
+        pendingForwards = new ArrayList<>();
+        awaiting = new HashMap<>();
+        held = new HashMap<>();
+    }
+
+    /**
+     * @return the number of nodes in the cluster
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Makes a user ID unique across the cluster.
+     *
+     * @param localId An ID unique on this node
+     * @return an ID no other node assigns, from which {@link #homeOf(int)}
+     *         recovers this node's index
+     */
+    public int clusterUserId(int localId) {
+        return localId * nodes.size() + self;
+    }
+
+    private int homeOf(int userId) {
+        return userId % nodes.size();
+    }
+
+    /**
+     * Listens for the other nodes and starts connecting to them. The other
+     * nodes need not be up yet; messages for them are queued until they are.
+     *
+     * @return false if the inter-node address could not be bound
+     */
+    public boolean start() {
+        try {
+            ServerSocket socket = new ServerSocket();
+            socket.setReuseAddress(true);
+            socket.bind(nodes.get(self), nodes.size());
+            listener = socket;
+        } catch (IOException iox) {
+            log.error("Could not listen for cluster nodes on " + nodes.get(self), iox);
+            return false;
+        }
+        open = true;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i != self) {
+                peers[i] = new Peer(i);
+                new Thread(peers[i], "Cluster link to node " + i).start();
+            }
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLinks();
+            }
+        }, "Cluster acceptor").start();
+        log.info("Cluster node %d of %d listening on %s", self, nodes.size(), nodes.get(self));
+        return true;
+    }
+
+    /**
+     * Closes every link. Safe to call more than once.
+     */
+    public void close() {
+        open = false;
+        ServerSocket socket = listener;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException iox) {
+                log.error("Could not close the cluster listener", iox);
+            }
+        }
+        for (Peer peer : peers) {
+            if (peer != null) {
+                peer.close();
+            }
+        }
+        synchronized (inbound) {
+            for (Socket link : inbound) {
+                closeQuietly(link);
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Tasks from this node's clients
+    // ==========================================================================
+
+    /**
+     * Sends a task from one of this node's clients into the cluster, to be
+     * applied on every node once its turn comes. May be called from any
+     * thread.
+     *
+     * @param kind   The kind of task
+     * @param userId The user the task is for, from {@link #clusterUserId(int)}
+     * @param line   The request line, or null
+     * @param start  The index in {@code line} at which the command starts
+     */
+    public synchronized void submit(int kind, int userId, String line, int start) {
+        Message task = new Message(Message.FORWARD, 0, kind, userId, line, start);
+        ArrayDeque<Message> waiting = held.get(userId);
+        if (waiting != null) {
+            waiting.add(task);
+        } else {
+            route(task);
+        }
+        applyReady();
+    }
+
+    /**
+     * Forwards a task to the node that orders it: global operations to the
+     * registry, channel commands to the channel's owner.
+     */
+    private void route(Message task) {
+        if (task.kind == TaskRing.REQUEST) {
+            // The sender's nickname is not needed to find the channel
+            Command command = CommandParser.parse(
+                    task.userId, "", task.line, task.start, task.line.length()
+            );
+            if (command == null) {
+                // Has no effect on any model; let the model thread report it
+                applier.apply(task.kind, task.userId, task.line, task.start);
+                return;
+            }
+            String channel = ModelShards.channelOf(command);
+            if (channel != null) {
+                task.epoch = receivedEpoch;
+                send(ring.ownerOf(channel), task.withType(Message.FORWARD_CHANNEL));
+                return;
+            }
+        }
+        // Later tasks of this user wait until this one has been ordered
+        Integer count = awaiting.get(task.userId);
+        awaiting.put(task.userId, count == null ? 1 : count + 1);
+        if (!held.containsKey(task.userId)) {
+            held.put(task.userId, new ArrayDeque<Message>());
+        }
+        send(REGISTRY, task.withType(Message.FORWARD_GLOBAL));
+    }
+
+    /**
+     * Called when a global operation of one of this node's users comes back
+     * from the registry; routes the tasks that were waiting for it.
+     */
+    private void release(int userId) {
+        Integer count = awaiting.get(userId);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            awaiting.put(userId, count - 1);
+            return;
+        }
+        awaiting.remove(userId);
+        ArrayDeque<Message> waiting = held.remove(userId);
+        while (waiting != null && !waiting.isEmpty()) {
+            route(waiting.poll());
+            if (held.containsKey(userId)) {
+                // a global operation again; the rest wait behind it
+                held.get(userId).addAll(waiting);
+                return;
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Ordering
+    // ==========================================================================
+
+    private synchronized void receive(int from, Message message) {
+        accept(from, message);
+        applyReady();
+    }
+
+    private void accept(int from, Message message) {
+        switch (message.type) {
+            case Message.FORWARD_GLOBAL:
+                sequence(message);
+                break;
+            case Message.FORWARD_CHANNEL:
+                pendingForwards.add(message);
+                stampReady();
+                break;
+            case Message.GLOBAL:
+                globals.put(message.epoch, message);
+                receivedEpoch = message.epoch;
+                broadcast(new Message(Message.MARK, message.epoch, 0, 0, null, 0));
+                if (message.kind != NODE_DOWN && homeOf(message.userId) == self) {
+                    release(message.userId);
+                }
+                stampReady();
+                break;
+            case Message.CHANNEL:
+            case Message.MARK:
+                if (!failed[from]) {
+                    streams.get(from).add(message);
+                }
+                break;
+            default:
+                log.warn("Unexpected message %d from cluster node %d", message.type, from);
+                break;
+        }
+    }
+
+    /**
+     * Registry only: numbers a global operation and sends it to every node.
+     */
+    private void sequence(Message operation) {
+        if (self != REGISTRY) {
+            log.warn("Global operation sent to cluster node %d, not the registry", self);
+            return;
+        }
+        operation.epoch = ++lastGlobal;
+        broadcast(operation.withType(Message.GLOBAL));
+    }
+
+    /**
+     * Stamps and sends the channel commands forwarded to this node whose
+     * senders had seen no more global operations than this node has.
+     */
+    private void stampReady() {
+        Iterator<Message> iterator = pendingForwards.iterator();
+        while (iterator.hasNext()) {
+            Message command = iterator.next();
+            if (command.epoch <= receivedEpoch) {
+                iterator.remove();
+                command.epoch = receivedEpoch;
+                broadcast(command.withType(Message.CHANNEL));
+            }
+        }
+    }
+
+    /**
+     * Hands every task whose turn has come to the applier.
+     */
+    private void applyReady() {
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (ArrayDeque<Message> stream : streams) {
+                Message head;
+                while ((head = stream.peek()) != null
+                        && head.type == Message.CHANNEL && head.epoch == appliedEpoch) {
+                    stream.poll();
+                    applier.apply(TaskRing.REQUEST, head.userId, head.line, head.start);
+                    progress = true;
+                }
+            }
+            long next = appliedEpoch + 1;
+            Message operation = globals.get(next);
+            if (operation != null && marked(next)) {
+                for (ArrayDeque<Message> stream : streams) {
+                    if (!stream.isEmpty() && stream.peek().type == Message.MARK) {
+                        stream.poll();
+                    }
+                }
+                globals.remove(next);
+                appliedEpoch = next;
+                applyGlobal(operation);
+                progress = true;
+            }
+        }
+    }
+
+    /**
+     * @return true if every live node has sent the mark for an epoch after
+     *         all of its earlier channel commands, and those have been applied
+     */
+    private boolean marked(long epoch) {
+        for (int i = 0; i < streams.size(); i++) {
+            if (failed[i]) {
+                continue;
+            }
+            Message head = streams.get(i).peek();
+            if (head == null || head.type != Message.MARK || head.epoch != epoch) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void applyGlobal(Message operation) {
+        int home;
+        switch (operation.kind) {
+            case NODE_DOWN:
+                int node = operation.userId;
+                nodeLost(node);
+                for (int userId : new ArrayList<>(users.get(node))) {
+                    applier.apply(TaskRing.DISCONNECTION, userId, null, 0);
+                }
+                users.get(node).clear();
+                break;
+            case TaskRing.REGISTRATION:
+                home = homeOf(operation.userId);
+                if (!failed[home]) {
+                    users.get(home).add(operation.userId);
+                    applier.apply(operation.kind, operation.userId, null, 0);
+                }
+                break;
+            case TaskRing.DISCONNECTION:
+                home = homeOf(operation.userId);
+                if (users.get(home).remove(operation.userId)) {
+                    applier.apply(operation.kind, operation.userId, null, 0);
+                }
+                break;
+            default:
+                applier.apply(operation.kind, operation.userId, operation.line, operation.start);
+                break;
+        }
+    }
+
+    /**
+     * Stops waiting for a node and takes it off the ring, so that its
+     * channels are owned by the nodes still up.
+     */
+    private void nodeLost(int node) {
+        if (failed[node]) {
+            return;
+        }
+        failed[node] = true;
+        streams.get(node).clear();
+        ring.remove(node);
+        if (peers[node] != null) {
+            peers[node].close();
+        }
+    }
+
+    private synchronized void linkLost(int node) {
+        if (!open || failed[node]) {
+            return;
+        }
+        log.warn("Lost the link from cluster node %d", node);
+        if (node == REGISTRY) {
+            log.error("The cluster registry is down; users can no longer join or leave", null);
+        }
+        nodeLost(node);
+        if (self == REGISTRY) {
+            sequence(new Message(Message.FORWARD_GLOBAL, 0, NODE_DOWN, node, null, 0));
+        }
+        applyReady();
+    }
+
+    // ==========================================================================
+    // Links
+    // ==========================================================================
+
+    /**
+     * Sends a message to every live node, this one included.
+     */
+    private void broadcast(Message message) {
+        for (int i = 0; i < nodes.size(); i++) {
+            send(i, message);
+        }
+    }
+
+    private void send(int node, Message message) {
+        if (node == self) {
+            accept(self, message);
+        } else if (!failed[node]) {
+            peers[node].queue.add(message);
+        }
+    }
+
+    private void acceptLinks() {
+        try {
+            while (open) {
+                final Socket link = listener.accept();
+                synchronized (inbound) {
+                    inbound.add(link);
+                }
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        readLink(link);
+                    }
+                }, "Cluster link from " + link.getRemoteSocketAddress()).start();
+            }
+        } catch (IOException iox) {
+            if (open) {
+                log.error("Could not accept cluster links", iox);
+            }
+        }
+    }
+
+    private void readLink(Socket link) {
+        int from = -1;
+        try {
+            link.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(link.getInputStream())
+            );
+            Message hello = Message.read(in);
+            if (hello.type != Message.HELLO || hello.userId < 0
+                    || hello.userId >= nodes.size() || hello.userId == self) {
+                log.warn("Unexpected cluster link from %s", link.getRemoteSocketAddress());
+                return;
+            }
+            from = hello.userId;
+            while (true) {
+                receive(from, Message.read(in));
+            }
+        } catch (EOFException | SocketException x) {
+            // the other node stopped or the link was closed
+        } catch (IOException iox) {
+            log.error("Could not read from cluster node " + from, iox);
+        } finally {
+            closeQuietly(link);
+            if (from >= 0) {
+                linkLost(from);
+            }
+        }
+    }
+
+    private void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException iox) {
+            log.error("Could not close a cluster link", iox);
+        }
+    }
+
+    /**
+     * This node's outgoing link to another node. Messages are queued without
+     * blocking and written by the link's own thread, which keeps trying to
+     * connect until the other node is up.
+     */
+    private final class Peer implements Runnable {
+        private final int node;
+        private final BlockingQueue<Message> queue;
+        private volatile Thread thread;
+        private volatile Socket socket;
+        private volatile boolean closed;
+
+        Peer(int node) {
+            this.node = node;
+            queue = new LinkedBlockingQueue<>();
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                DataOutputStream out = connect();
+                if (out == null) {
+                    return;
+                }
+                new Message(Message.HELLO, 0, 0, self, null, 0).write(out);
+                while (!closed) {
+                    Message message = queue.take();
+                    message.write(out);
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (InterruptedException ix) {
+                // closed
+            } catch (IOException iox) {
+                if (!closed && open) {
+                    log.warn("Lost the link to cluster node %d: %s", node, iox);
+                }
+            } finally {
+                Socket current = socket;
+                if (current != null) {
+                    closeQuietly(current);
+                }
+            }
+        }
+
+        private DataOutputStream connect() throws InterruptedException {
+            while (!closed) {
+                Socket attempt = new Socket();
+                try {
+                    attempt.connect(nodes.get(node));
+                    attempt.setTcpNoDelay(true);
+                    socket = attempt;
+                    if (closed) {
+                        return null;
+                    }
+                    return new DataOutputStream(
+                            new BufferedOutputStream(attempt.getOutputStream())
+                    );
+                } catch (IOException iox) {
+                    closeQuietly(attempt);
+                    Thread.sleep(CONNECT_RETRY_MILLIS);
+                }
+            }
+            return null;
+        }
+
+        void close() {
+            closed = true;
+            Thread current = thread;
+            if (current != null) {
+                current.interrupt();
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Messages
+    // ==========================================================================
+
+    /**
+     * A message between nodes. Every message has the same fields, written in
+     * order: the type (a byte), the epoch (a long), then the kind, user ID and
+     * start index (ints), and the line as an int length followed by UTF-8
+     * bytes, or a length of -1 for none. Only some fields mean something for
+     * each type.
+     */
+    static final class Message {
+        // First on every link: the sending node's index, as the user ID
+        static final byte HELLO = 0;
+        // A task from a node's client, before it is routed
+        static final byte FORWARD = 1;
+        // A task for the registry to number
+        static final byte FORWARD_GLOBAL = 2;
+        // A channel command for the channel's owner to stamp, with the
+        // sender's epoch
+        static final byte FORWARD_CHANNEL = 3;
+        // A global operation and its number
+        static final byte GLOBAL = 4;
+        // A channel command and the epoch its owner stamped it with
+        static final byte CHANNEL = 5;
+        // The end of a node's channel commands before an epoch
+        static final byte MARK = 6;
+
+        final byte type;
+        long epoch;
+        final int kind;
+        final int userId;
+        final String line;
+        final int start;
+
+        Message(byte type, long epoch, int kind, int userId, String line, int start) {
+            this.type = type;
+            this.epoch = epoch;
+            this.kind = kind;
+            this.userId = userId;
+            this.line = line;
+            this.start = start;
+        }
+
+        Message withType(byte type) {
+            return new Message(type, epoch, kind, userId, line, start);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(type);
+            out.writeLong(epoch);
+            out.writeInt(kind);
+            out.writeInt(userId);
+            out.writeInt(start);
+            if (line == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        static Message read(DataInputStream in) throws IOException {
+            byte type = in.readByte();
+            long epoch = in.readLong();
+            int kind = in.readInt();
+            int userId = in.readInt();
+            int start = in.readInt();
+            int length = in.readInt();
+            String line = null;
+            if (length > NioEngine.MAX_LINE_LENGTH * 4) {
+                throw new IOException("Line of " + length + " bytes from cluster node");
+            } else if (length >= 0) {
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                line = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return new Message(type, epoch, kind, userId, line, start);
+        }
+    }
+}
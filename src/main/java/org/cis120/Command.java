@@ -179,6 +179,9 @@ class JoinCommand extends Command {
 class MessageCommand extends Command {
     private final String channel;
     private final String message;
+    // the formatted command, which is sent to every member of the channel
+    // and may be kept in its history; made once, when first needed
+    private String line;
 
     public MessageCommand(
             int senderId, String sender,
@@ -204,7 +207,12 @@ class MessageCommand extends Command {
 
     @Override
     public String toString() {
-        return String.format(":%s MESG %s :%s", getSender(), channel, message);
+        String formatted = line;
+        if (formatted == null) {
+            formatted = String.format(":%s MESG %s :%s", getSender(), channel, message);
+            line = formatted;
+        }
+        return formatted;
     }
 }
 
@@ -301,3 +309,37 @@ class KickCommand extends Command {
         return String.format(":%s KICK %s %s", getSender(), channel, userToKick);
     }
 }
+
+/**
+ * Represents a {@link Command} issued by a client to fetch the most recent
+ * messages sent to a channel it is in. Only the sender is sent the messages,
+ * and only if the server keeps a {@link MessageHistory}.
+ */
+class HistoryCommand extends Command {
+    private final String channel;
+    private final int count;
+
+    public HistoryCommand(int senderId, String sender, String channel, int count) {
+        super(senderId, sender);
+        this.channel = channel;
+        this.count = count;
+    }
+
+    @Override
+    public Broadcast updateServerModel(ServerModel model) {
+        return model.fetchHistory(this);
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(":%s HISTORY %s %d", getSender(), channel, count);
+    }
+}
@@ -1,14 +1,17 @@
 package org.cis120;
 
-import java.util.List;
-import java.util.LinkedList;
-
 /**
- * The {@code CommandParser} class includes a single static method that can
- * convert a
+ * The {@code CommandParser} class includes static methods that can convert a
  * string into the appropriate {@link Command} object that it represents.
  *
- * You do not need to modify this file.
+ * A command is a verb followed by up to two space-separated parameters and,
+ * for {@code MESG}, a final payload introduced by {@code ':'} which runs to
+ * the end of the line. The parser works on offsets into the line it is given
+ * and only creates strings for the fields the resulting {@link Command}
+ * holds.
+ *
+ * {@code HISTORY} takes a channel and the number of messages to fetch, which
+ * must be a positive decimal of at most nine digits.
  */
 public final class CommandParser {
 
@@ -20,7 +23,8 @@ public final class CommandParser {
      * @param senderId      The backend-generated ID for the sender of the command
      * @param sender        The current username of the sender
      * @param commandString The command string to parse
-     * @return a subclass of {@link Command} corresponding to the string
+     * @return a subclass of {@link Command} corresponding to the string, or
+     *         null for a {@code CREATE} whose flag is missing or not 0 or 1
      * @throws IllegalArgumentException if the commandString is syntactically
      *                                  invalid, meaning that
      *                                  it is of an unrecognized type or its
@@ -28,76 +32,285 @@ public final class CommandParser {
      *
      */
     public static Command parse(int senderId, String sender, String commandString) {
-        CommandType commandType = null;
-        List<String> parameters = new LinkedList<>();
-        String payload = null;
-        int index;
+        Command command = parse(senderId, sender, commandString, 0, commandString.length());
+        if (command == null && !isCreateWithBadFlag(commandString)) {
+            throw new IllegalArgumentException("Malformed command: " + commandString);
+        }
+        return command;
+    }
 
-        while ((index = commandString.indexOf(' ')) > 0) {
-            if (commandString.startsWith(":")) {
-                payload = commandString.substring(1);
-                commandString = "";
-                break;
-            } else {
-                String token = commandString.substring(0, index);
-                if (commandType == null) {
-                    commandType = CommandType.valueOf(token);
-                } else {
-                    parameters.add(token);
-                }
-                commandString = commandString.substring(index + 1);
-            }
+    /**
+     * Parses the region {@code [start, end)} of a line received from a client
+     * into a {@link Command}, without throwing on malformed input.
+     *
+     * @param senderId The backend-generated ID for the sender of the command
+     * @param sender   The current username of the sender
+     * @param line     The characters containing the command
+     * @param start    The index of the first character of the command
+     * @param end      The index after the last character of the command
+     * @return a subclass of {@link Command} corresponding to the region, or
+     *         null if the region is not a well-formed command: the verb is
+     *         unknown, a parameter is missing or empty, there are too many
+     *         parameters, a payload is given to a command other than
+     *         {@code MESG}, or the {@code CREATE} flag is not 0 or 1
+     */
+    public static Command parse(
+            int senderId, String sender, CharSequence line, int start, int end
+    ) {
+        int verbEnd = indexOfSpace(line, start, end);
+        CommandType commandType = commandType(line, start, verbEnd);
+        if (commandType == null) {
+            return null;
         }
 
-        if (!commandString.isEmpty()) {
-            if (commandString.startsWith(":")) {
-                payload = commandString.substring(1);
-            } else if (commandType == null) {
-                commandType = CommandType.valueOf(commandString);
+        // Offsets of the parameters and the payload; -1 if absent
+        int param0Start = -1;
+        int param0End = -1;
+        int param1Start = -1;
+        int param1End = -1;
+        int payloadStart = -1;
+
+        int index = verbEnd;
+        while (index < end) {
+            index++; // skip the separating space
+            if (index == end) {
+                break; // tolerate a trailing space
+            }
+            if (line.charAt(index) == ':') {
+                payloadStart = index + 1;
+                break;
+            }
+            int tokenEnd = indexOfSpace(line, index, end);
+            if (tokenEnd == index) {
+                return null; // empty parameter
+            } else if (param0Start < 0) {
+                param0Start = index;
+                param0End = tokenEnd;
+            } else if (param1Start < 0) {
+                param1Start = index;
+                param1End = tokenEnd;
             } else {
-                parameters.add(commandString);
+                return null; // too many parameters
             }
+            index = tokenEnd;
         }
 
-        if (commandType == null) {
-            throw new IllegalArgumentException("Unknown command type");
-        } else if (parameters.size() > 2) {
-            throw new IllegalArgumentException("Too many parameters");
+        int parameters = param0Start < 0 ? 0 : param1Start < 0 ? 1 : 2;
+        if (payloadStart >= 0 && commandType != CommandType.MESG) {
+            return null;
         }
 
-        String param0 = parameters.size() >= 1 ? parameters.get(0) : null;
-        String param1 = parameters.size() >= 2 ? parameters.get(1) : null;
-
         switch (commandType) {
             case CREATE:
-                boolean isInviteOnly;
-                if ("1".equals(param1)) {
-                    isInviteOnly = true;
-                } else if ("0".equals(param1)) {
-                    isInviteOnly = false;
-                } else {
+                if (parameters != 2 || param1End - param1Start != 1) {
+                    return null;
+                }
+                char flag = line.charAt(param1Start);
+                if (flag != '0' && flag != '1') {
                     return null;
                 }
-                return new CreateCommand(senderId, sender, param0, isInviteOnly);
+                return new CreateCommand(
+                        senderId, sender, text(line, param0Start, param0End), flag == '1'
+                );
+            case HISTORY:
+                if (parameters != 2) {
+                    return null;
+                }
+                int count = positiveInt(line, param1Start, param1End);
+                if (count <= 0) {
+                    return null;
+                }
+                return new HistoryCommand(
+                        senderId, sender, text(line, param0Start, param0End), count
+                );
             case INVITE:
-                return new InviteCommand(senderId, sender, param0, param1);
+                if (parameters != 2) {
+                    return null;
+                }
+                return new InviteCommand(
+                        senderId, sender, text(line, param0Start, param0End),
+                        text(line, param1Start, param1End)
+                );
             case JOIN:
-                return new JoinCommand(senderId, sender, param0);
+                if (parameters != 1) {
+                    return null;
+                }
+                return new JoinCommand(senderId, sender, text(line, param0Start, param0End));
             case KICK:
-                return new KickCommand(senderId, sender, param0, param1);
+                if (parameters != 2) {
+                    return null;
+                }
+                return new KickCommand(
+                        senderId, sender, text(line, param0Start, param0End),
+                        text(line, param1Start, param1End)
+                );
             case LEAVE:
-                return new LeaveCommand(senderId, sender, param0);
+                if (parameters != 1) {
+                    return null;
+                }
+                return new LeaveCommand(senderId, sender, text(line, param0Start, param0End));
             case MESG:
-                return new MessageCommand(senderId, sender, param0, payload);
+                if (parameters != 1 || payloadStart < 0) {
+                    return null;
+                }
+                return new MessageCommand(
+                        senderId, sender, text(line, param0Start, param0End),
+                        text(line, payloadStart, end)
+                );
             case NICK:
-                return new NicknameCommand(senderId, sender, param0);
+                if (parameters != 1) {
+                    return null;
+                }
+                return new NicknameCommand(senderId, sender, text(line, param0Start, param0End));
             default:
                 return null;
         }
     }
 
+    /**
+     * @param command A command
+     * @return the verb a client sends for the command, e.g. {@code "MESG"}
+     */
+    static String verbOf(Command command) {
+        if (command instanceof MessageCommand) {
+            return "MESG";
+        } else if (command instanceof JoinCommand) {
+            return "JOIN";
+        } else if (command instanceof LeaveCommand) {
+            return "LEAVE";
+        } else if (command instanceof CreateCommand) {
+            return "CREATE";
+        } else if (command instanceof InviteCommand) {
+            return "INVITE";
+        } else if (command instanceof KickCommand) {
+            return "KICK";
+        } else if (command instanceof HistoryCommand) {
+            return "HISTORY";
+        } else if (command instanceof NicknameCommand) {
+            return "NICK";
+        } else {
+            return command.getClass().getSimpleName();
+        }
+    }
+
     private enum CommandType {
-        CREATE, INVITE, JOIN, KICK, LEAVE, MESG, NICK
+        CREATE, HISTORY, INVITE, JOIN, KICK, LEAVE, MESG, NICK
+    }
+
+    /**
+     * Recognizes a verb by its length and first character, then checks the
+     * remaining characters, so no string is created for it.
+     *
+     * @return the command type, or null if the verb is not recognized
+     */
+    private static CommandType commandType(CharSequence line, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+        CommandType candidate;
+        char first = line.charAt(start);
+        switch (end - start) {
+            case 4:
+                if (first == 'J') {
+                    candidate = CommandType.JOIN;
+                } else if (first == 'K') {
+                    candidate = CommandType.KICK;
+                } else if (first == 'M') {
+                    candidate = CommandType.MESG;
+                } else if (first == 'N') {
+                    candidate = CommandType.NICK;
+                } else {
+                    return null;
+                }
+                break;
+            case 5:
+                candidate = first == 'L' ? CommandType.LEAVE : null;
+                break;
+            case 6:
+                if (first == 'C') {
+                    candidate = CommandType.CREATE;
+                } else if (first == 'I') {
+                    candidate = CommandType.INVITE;
+                } else {
+                    return null;
+                }
+                break;
+            case 7:
+                candidate = first == 'H' ? CommandType.HISTORY : null;
+                break;
+            default:
+                return null;
+        }
+        if (candidate == null) {
+            return null;
+        }
+        String name = candidate.name();
+        for (int i = 1; i < name.length(); i++) {
+            if (line.charAt(start + i) != name.charAt(i)) {
+                return null;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * Called for a line that did not parse. A {@code CREATE} with a channel
+     * and at most one more parameter can only have failed on its flag, for
+     * which {@link #parse(int, String, String)} has always returned null
+     * rather than throwing.
+     */
+    private static boolean isCreateWithBadFlag(String line) {
+        int end = line.length();
+        int index = indexOfSpace(line, 0, end);
+        if (commandType(line, 0, index) != CommandType.CREATE) {
+            return false;
+        }
+        int parameters = 0;
+        while (index < end) {
+            index++; // skip the separating space
+            int tokenEnd = indexOfSpace(line, index, end);
+            if (tokenEnd == index) {
+                return false; // empty parameter
+            }
+            parameters++;
+            index = tokenEnd;
+        }
+        return parameters <= 2;
+    }
+
+    private static int indexOfSpace(CharSequence line, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) == ' ') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return the value of the decimal digits in the region, or -1 if it is
+     *         not all digits or has more than nine of them
+     */
+    private static int positiveInt(CharSequence line, int start, int end) {
+        if (end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static String text(CharSequence line, int start, int end) {
+        if (line instanceof String) {
+            return ((String) line).substring(start, end);
+        }
+        return line.subSequence(start, end).toString();
     }
 
     // Prevents the instantiation of any CommandParser objects,
@@ -0,0 +1,84 @@
+package org.cis120;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assigns channels to cluster nodes by consistent hashing. Every node is
+ * placed on a ring of 32-bit hashes at several points ("virtual nodes"), and
+ * a channel belongs to the first node at or after the hash of its name. When
+ * a node is removed only the channels it owned move, each to the next node
+ * along the ring.
+ */
+final class ConsistentHashRing {
+
+    static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    private final TreeMap<Integer, Integer> ring;
+    private final int virtualNodes;
+
+    /**
+     * @param nodes        The number of nodes; they are numbered from 0
+     * @param virtualNodes The number of points each node has on the ring
+     */
+    ConsistentHashRing(int nodes, int virtualNodes) {
+        if (nodes < 1 || virtualNodes < 1) {
+            throw new IllegalArgumentException("nodes and virtualNodes must be positive");
+        }
+        ring = new TreeMap<>();
+        this.virtualNodes = virtualNodes;
+        for (int node = 0; node < nodes; node++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash("node-" + node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * @param channel A channel name
+     * @return the node that owns the channel
+     * @throws IllegalStateException if every node has been removed
+     */
+    public int ownerOf(String channel) {
+        if (ring.isEmpty()) {
+            throw new IllegalStateException("No nodes left");
+        }
+        Map.Entry<Integer, Integer> entry = ring.ceilingEntry(hash(channel));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Takes a node off the ring, handing its channels to the next nodes.
+     *
+     * @param node The node to remove
+     */
+    public void remove(int node) {
+        for (int i = 0; i < virtualNodes; i++) {
+            Integer point = hash("node-" + node + "#" + i);
+            if (ring.get(point) != null && ring.get(point) == node) {
+                ring.remove(point);
+            }
+        }
+    }
+
+    /**
+     * A 32-bit FNV-1a hash of the UTF-8 bytes of a string, with a final mix
+     * so that similar names spread around the ring. Unlike
+     * {@link String#hashCode()} it is the same on every node by definition.
+     */
+    static int hash(String key) {
+        int hash = 0x811c9dc5;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
@@ -0,0 +1,225 @@
+package org.cis120;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Custom Java Flight Recorder events, so that a recording shows what the
+ * server was doing next to the GC pauses, lock contention and safepoints the
+ * JVM records. They are off until a recording that includes them starts, e.g.
+ * with {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start}, and
+ * by default only events lasting 1 ms or more are recorded; a recording's
+ * settings can lower the threshold, e.g. {@code org.cis120.Command#threshold=0 ms}.
+ *
+ * The server is compiled for Java 8, and {@code jdk.jfr} is only in Java 11
+ * and later (and 8u262 and later), so callers check {@link #AVAILABLE} before
+ * calling anything else here, which keeps the event classes from being loaded
+ * on a JVM without it. While no recording wants an event, each method costs
+ * a check of whether the event is enabled.
+ */
+final class FlightEvents {
+
+    /**
+     * True if the running JVM has the Flight Recorder API.
+     */
+    static final boolean AVAILABLE = findFlightRecorder();
+
+    private static boolean findFlightRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError x) {
+            return false;
+        }
+    }
+
+    /**
+     * Applies a command to the model, recording it if enabled.
+     *
+     * @param command The command
+     * @param model   The model
+     * @return the command's broadcast
+     */
+    static Broadcast command(Command command, ServerModel model) {
+        CommandEvent event = new CommandEvent();
+        if (!event.isEnabled()) {
+            return command.updateServerModel(model);
+        }
+        event.begin();
+        Broadcast broadcast = command.updateServerModel(model);
+        event.end();
+        if (event.shouldCommit()) {
+            event.command = CommandParser.verbOf(command);
+            event.channel = ModelShards.channelOf(command);
+            event.sender = command.getSender();
+            event.recipients = broadcast == null ? 0 : broadcast.getRecipientCount();
+            event.commit();
+        }
+        return broadcast;
+    }
+
+    /**
+     * @return a started event for a task taken by the model thread, or null
+     *         if it is not enabled
+     */
+    static TaskDequeuedEvent taskDequeued() {
+        TaskDequeuedEvent event = new TaskDequeuedEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends and, if it lasted long enough, records a task event.
+     *
+     * @param event  The event from {@link #taskDequeued()}
+     * @param kind   The kind of task, as given to {@link TaskRing.Handler}
+     * @param userId The user the task is for
+     */
+    static void taskHandled(TaskDequeuedEvent event, int kind, int userId) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = kind == TaskRing.REGISTRATION ? "REGISTRATION"
+                    : kind == TaskRing.DISCONNECTION ? "DISCONNECTION" : "REQUEST";
+            event.userId = userId;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return a started event for the sending of a batch of responses, or
+     *         null if it is not enabled
+     */
+    static BroadcastDispatchedEvent broadcastDispatching() {
+        BroadcastDispatchedEvent event = new BroadcastDispatchedEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends and, if it lasted long enough, records a dispatch event.
+     *
+     * @param event      The event from {@link #broadcastDispatching()}
+     * @param recipients The number of connections sent to
+     * @param frames     The number of frames sent
+     */
+    static void broadcastDispatched(BroadcastDispatchedEvent event, int recipients, int frames) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.recipients = recipients;
+            event.frames = frames;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return a started event for a socket that cannot take all of a
+     *         connection's queued frames, or null if it is not enabled
+     */
+    static SocketWriteStalledEvent writeStalled() {
+        SocketWriteStalledEvent event = new SocketWriteStalledEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends and, if it lasted long enough, records a stall.
+     *
+     * @param event  The event from {@link #writeStalled()}
+     * @param userId The user the connection is for
+     * @param bytes  The bytes written while the event lasted
+     */
+    static void writeResumed(SocketWriteStalledEvent event, int userId, long bytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.userId = userId;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    private FlightEvents() {
+    }
+
+    // ==========================================================================
+    // Events
+    // ==========================================================================
+
+    @Name("org.cis120.Command")
+    @Label("Command")
+    @Category({ "PennPals", "Model" })
+    @Description("A client command applied to the server model")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Channel")
+        String channel;
+
+        @Label("Sender")
+        String sender;
+
+        @Label("Recipients")
+        @Description("Users the command's broadcast has responses for")
+        int recipients;
+    }
+
+    @Name("org.cis120.TaskDequeued")
+    @Label("Task Dequeued")
+    @Category({ "PennPals", "Model" })
+    @Description("A connection, disconnection or request taken and handled by the model thread")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class TaskDequeuedEvent extends Event {
+        @Label("Kind")
+        String kind;
+
+        @Label("User ID")
+        int userId;
+    }
+
+    @Name("org.cis120.BroadcastDispatched")
+    @Label("Broadcast Dispatched")
+    @Category({ "PennPals", "Network" })
+    @Description("A batch of responses handed to the connections of their recipients")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class BroadcastDispatchedEvent extends Event {
+        @Label("Recipients")
+        int recipients;
+
+        @Label("Frames")
+        int frames;
+    }
+
+    @Name("org.cis120.SocketWriteStalled")
+    @Label("Socket Write Stalled")
+    @Category({ "PennPals", "Network" })
+    @Description("A connection writing its queued responses without the socket keeping up")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class SocketWriteStalledEvent extends Event {
+        @Label("User ID")
+        int userId;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+    }
+}
@@ -0,0 +1,73 @@
+package org.cis120;
+
+/**
+ * Runs a {@link ServerBackend} without any user interface, for servers and
+ * containers where there is no display. Unlike {@link ServerMain} it loads
+ * no AWT or Swing classes; the server runs until the JVM is asked to exit
+ * (e.g. by Ctrl-C or {@code SIGTERM}), at which point a shutdown hook stops
+ * it and lets queued responses go out.
+ *
+ * The configuration comes from command line options, environment variables
+ * and system properties; see {@link ServerConfig#fromLauncher}. For example:
+ *
+ * <pre>
+ * java -cp target/classes org.cis120.HeadlessServer --engine nio --port 6667
+ * PENNPALS_BIND_ADDRESS=127.0.0.1 java -cp target/classes org.cis120.HeadlessServer
+ * </pre>
+ *
+ * A local cluster (see {@link ClusterNode}) is one JVM per node, each given
+ * the same list of inter-node addresses and its own index and client port:
+ *
+ * <pre>
+ * java -cp target/classes org.cis120.HeadlessServer \
+ *     --cluster-nodes 127.0.0.1:7000,127.0.0.1:7001 --node-index 0
+ * java -cp target/classes org.cis120.HeadlessServer \
+ *     --cluster-nodes 127.0.0.1:7000,127.0.0.1:7001 --node-index 1 --port 21213
+ * </pre>
+ */
+public final class HeadlessServer {
+
+    // How long the shutdown hook waits for the server to finish stopping
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    public static void main(String[] args) {
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromLauncher(args, System.getenv());
+        } catch (IllegalArgumentException iax) {
+            System.err.println(iax.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        final ServerBackend server = new ServerBackend(new ServerModel(), config);
+        final Thread acceptor = new Thread(server, "Connection acceptor");
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.stop();
+                try {
+                    acceptor.join(SHUTDOWN_TIMEOUT_MILLIS);
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "Shutdown"));
+        acceptor.start();
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: HeadlessServer [--option value | --option=value]...");
+        System.err.println("Options, with their environment variables:");
+        for (String name : ServerConfig.SETTINGS) {
+            System.err.printf(
+                    "  %-22s %s%n", ServerConfig.optionName(name), ServerConfig.envName(name)
+            );
+        }
+    }
+
+    // Prevents the instantiation of HeadlessServer objects
+    private HeadlessServer() {
+    }
+}
@@ -0,0 +1,106 @@
+package org.cis120;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values counted in power-of-two buckets: bucket
+ * 0 holds the value 0, and bucket {@code i > 0} holds the values from
+ * {@code 2^(i-1)} to {@code 2^i - 1}. Recording is an atomic increment of
+ * the bucket and an add to a striped sum of the values, so values can be
+ * recorded and read from any thread.
+ */
+final class Log2Histogram {
+
+    static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts;
+    private final LongAdder sum;
+
+    Log2Histogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        sum = new LongAdder();
+    }
+
+    /**
+     * @param value A non-negative value; negative values count as 0
+     */
+    public void record(long value) {
+        counts.incrementAndGet(bucketOf(value));
+        sum.add(Math.max(0, value));
+    }
+
+    /**
+     * @param value A value
+     * @return the bucket the value is counted in
+     */
+    static int bucketOf(long value) {
+        return value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * @param bucket A bucket index
+     * @return the smallest value counted in the bucket
+     */
+    static long lowerBound(int bucket) {
+        return bucket == 0 ? 0 : 1L << (bucket - 1);
+    }
+
+    /**
+     * @param bucket A bucket index
+     * @return the largest value counted in the bucket
+     */
+    static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    /**
+     * @param bucket A bucket index
+     * @return the number of values recorded in the bucket
+     */
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return the sum of the values recorded, with negative values as 0
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return the non-empty buckets as {@code low-high:count}, e.g.
+     *         {@code "1:12 2-3:40 4-7:3"}
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count == 0) {
+                continue;
+            }
+            if (result.length() > 0) {
+                result.append(' ');
+            }
+            result.append(lowerBound(i));
+            if (upperBound(i) != lowerBound(i)) {
+                result.append('-').append(upperBound(i));
+            }
+            result.append(':').append(count);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,356 @@
+package org.cis120;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the most recent messages sent to each channel on disk, so that a
+ * {@link HistoryCommand} can fetch them after the fact.
+ *
+ * Each channel's messages are appended to a directory of segment files named
+ * after the sequence number of their first message. A segment is created at
+ * its full size and mapped into memory; a message is copied into the
+ * mapping as the UTF-8 response line the channel's members received, and the
+ * page cache writes it out, so appending makes no system call. The offset
+ * index, the end of each message, grows down from the end of the segment as
+ * the messages grow up from its header, and the segment is full when the two
+ * meet. Only the newest few segments of a channel are kept.
+ *
+ * Fetching the last messages finds their start in the index and returns
+ * read-only slices of the mappings, one per segment, which are queued on the
+ * client's connection and written from the mapping straight to its socket.
+ * Messages are never moved or overwritten, and a mapping is only released
+ * once nothing refers to it, so a slice stays valid even if its segment is
+ * deleted.
+ *
+ * Each channel's history must only be used by the thread that runs the
+ * channel's commands (see {@link ModelShards}); different channels may be
+ * used concurrently. Every mapped segment counts against the operating
+ * system's limit on mappings per process, so the history suits servers with
+ * thousands of active channels rather than millions.
+ */
+final class MessageHistory {
+
+    private static final int MAGIC = 0x5050484d;
+    private static final int VERSION = 1;
+    // magic and version
+    private static final int HEADER_SIZE = 8;
+    private static final String SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int segmentsKept;
+    private final ServerLog log;
+    private final Map<String, ChannelHistory> histories;
+
+    /**
+     * @param dir          The directory to keep the channels' histories in,
+     *                     created if it does not exist
+     * @param segmentSize  The size of each segment file, in bytes
+     * @param segmentsKept The number of segments kept per channel
+     * @param log          Where to report files that cannot be used
+     * @throws IOException if the directory cannot be created
+     */
+    MessageHistory(Path dir, int segmentSize, int segmentsKept, ServerLog log) throws IOException {
+        if (segmentSize < HEADER_SIZE + 64 || segmentsKept < 1) {
+            throw new IllegalArgumentException();
+        }
+        Files.createDirectories(dir);
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.segmentsKept = segmentsKept;
+        this.log = log;
+        histories = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Appends a message to a channel's history. A message that cannot be
+     * stored is logged and left out of the history, since the channel has
+     * already received it.
+     *
+     * @param channel  The channel the message was sent to
+     * @param response The response line the channel's members received,
+     *                 without its newline
+     */
+    void append(String channel, String response) {
+        try {
+            ChannelHistory history = historyOf(channel);
+            if (!history.append(response)) {
+                log.warn("Message to %s is too long for its history", channel);
+            }
+        } catch (IOException iox) {
+            log.error("Could not append to the history of " + channel, iox);
+        }
+    }
+
+    /**
+     * Finds the most recent messages sent to a channel.
+     *
+     * @param channel The channel
+     * @param count   The most messages to find
+     * @param frames  The list to add the messages to, oldest first, as
+     *                read-only frames that may each hold several messages
+     * @return the number of messages found
+     */
+    int last(String channel, int count, List<ByteBuffer> frames) {
+        try {
+            return historyOf(channel).last(count, frames);
+        } catch (IOException iox) {
+            log.error("Could not read the history of " + channel, iox);
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes a channel's history, when the channel is deleted or a new
+     * channel takes its name.
+     *
+     * @param channel The channel
+     */
+    void clear(String channel) {
+        ChannelHistory history = histories.remove(channel);
+        Path channelDir = dir.resolve(channel);
+        if (history == null && !Files.isDirectory(channelDir)) {
+            return;
+        }
+        try {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(channelDir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.deleteIfExists(channelDir);
+        } catch (IOException iox) {
+            log.error("Could not delete the history of " + channel, iox);
+        }
+    }
+
+    /**
+     * Forces the channels' newest segments to disk. Must be called once every
+     * thread has stopped using the history.
+     */
+    void close() {
+        for (ChannelHistory history : histories.values()) {
+            if (!history.segments.isEmpty()) {
+                history.segments.getLast().buffer.force();
+            }
+        }
+        histories.clear();
+    }
+
+    private ChannelHistory historyOf(String channel) throws IOException {
+        ChannelHistory history = histories.get(channel);
+        if (history == null) {
+            history = new ChannelHistory(dir.resolve(channel));
+            histories.put(channel, history);
+        }
+        return history;
+    }
+
+    // ==========================================================================
+    // Segments
+    // ==========================================================================
+
+    /**
+     * The segments of one channel, oldest first.
+     */
+    private final class ChannelHistory {
+        private final Path dir;
+        private final ArrayDeque<Segment> segments;
+
+        /**
+         * Maps the segments already in a channel's directory, if it has one.
+         */
+        ChannelHistory(Path dir) throws IOException {
+            this.dir = dir;
+            segments = new ArrayDeque<>();
+            if (!Files.isDirectory(dir)) {
+                return;
+            }
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+                for (Path file : stream) {
+                    files.add(file);
+                }
+            }
+            // names are zero-padded, so this is the order they were written in
+            Collections.sort(files);
+            for (Path file : files) {
+                try {
+                    segments.add(Segment.open(file));
+                } catch (IOException iox) {
+                    log.warn("Skipping history segment %s: %s", file, iox.getMessage());
+                }
+            }
+            dropOldSegments();
+        }
+
+        boolean append(String response) throws IOException {
+            // Encoding to an array and copying that in bulk is several times
+            // faster than encoding each character into the mapping
+            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+            int length = bytes.length + 1;
+            if (HEADER_SIZE + length + 4 > segmentSize) {
+                return false;
+            }
+            Segment last = segments.peekLast();
+            if (last == null || !last.hasRoomFor(length)) {
+                long first;
+                if (last == null) {
+                    first = 0;
+                    Files.createDirectories(dir);
+                } else {
+                    first = last.firstSequence + last.count;
+                }
+                last = Segment.create(
+                        dir.resolve(String.format("%020d%s", first, SUFFIX)), first, segmentSize
+                );
+                segments.add(last);
+                dropOldSegments();
+            }
+            last.append(bytes);
+            return true;
+        }
+
+        int last(int count, List<ByteBuffer> frames) {
+            int found = 0;
+            int insertAt = frames.size();
+            Iterator<Segment> newestFirst = segments.descendingIterator();
+            while (found < count && newestFirst.hasNext()) {
+                Segment segment = newestFirst.next();
+                int taken = Math.min(count - found, segment.count);
+                if (taken > 0) {
+                    frames.add(insertAt, segment.slice(segment.count - taken));
+                    found += taken;
+                }
+            }
+            return found;
+        }
+
+        private void dropOldSegments() throws IOException {
+            while (segments.size() > segmentsKept) {
+                // its mapping stays valid for any slices still being written
+                Files.deleteIfExists(segments.removeFirst().file);
+            }
+        }
+    }
+
+    /**
+     * One mapped segment file: a header, the messages, free space, and the
+     * index of the messages' end offsets, the first at the very end.
+     */
+    private static final class Segment {
+        private final Path file;
+        private final long firstSequence;
+        private final MappedByteBuffer buffer;
+        private int count;
+        // the offset after the last message
+        private int end;
+
+        private Segment(Path file, long firstSequence, MappedByteBuffer buffer) {
+            this.file = file;
+            this.firstSequence = firstSequence;
+            this.buffer = buffer;
+            count = 0;
+            end = HEADER_SIZE;
+        }
+
+        static Segment create(Path file, long firstSequence, int size) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(
+                    file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE
+            )) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            return new Segment(file, firstSequence, buffer);
+        }
+
+        /**
+         * Maps an existing segment and finds its messages from the index. An
+         * index entry that is zero or out of order ends the index, since the
+         * message it was written after may not have reached the file.
+         */
+        static Segment open(Path file) throws IOException {
+            String name = file.getFileName().toString();
+            long firstSequence;
+            try {
+                firstSequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            } catch (NumberFormatException nfx) {
+                throw new IOException("not a history segment name");
+            }
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(
+                    file, StandardOpenOption.READ, StandardOpenOption.WRITE
+            )) {
+                long size = channel.size();
+                if (size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE) {
+                    throw new IOException("bad size " + size);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("not a history segment");
+            }
+            Segment segment = new Segment(file, firstSequence, buffer);
+            while (true) {
+                int index = segment.indexAt(segment.count);
+                if (index - 4 < segment.end) {
+                    break;
+                }
+                int next = buffer.getInt(index - 4);
+                if (next <= segment.end || next > index - 4) {
+                    break;
+                }
+                segment.end = next;
+                segment.count++;
+            }
+            return segment;
+        }
+
+        /**
+         * @return the offset just past index entry {@code i}
+         */
+        private int indexAt(int i) {
+            return buffer.capacity() - 4 * i;
+        }
+
+        boolean hasRoomFor(int length) {
+            return end + length <= indexAt(count + 1);
+        }
+
+        /**
+         * Writes a message and then its index entry, so that the index never
+         * covers a message that is not in the mapping.
+         */
+        void append(byte[] response) {
+            buffer.position(end);
+            buffer.put(response).put((byte) '\n');
+            end = buffer.position();
+            buffer.putInt(indexAt(count + 1), end);
+            count++;
+        }
+
+        /**
+         * @param from The index of the first message to include
+         * @return a read-only view of the messages from {@code from} on
+         */
+        ByteBuffer slice(int from) {
+            int start = from == 0 ? HEADER_SIZE : buffer.getInt(indexAt(from));
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(end).position(start);
+            return slice.slice().asReadOnlyBuffer();
+        }
+    }
+}
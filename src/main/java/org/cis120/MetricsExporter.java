@@ -0,0 +1,171 @@
+package org.cis120;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Makes the {@link ServerMetrics} of a server available in the Prometheus
+ * text format: served at {@code /metrics} over HTTP on a port of the loopback
+ * address, written to a file every so often, or both, as configured.
+ *
+ * Metrics are formatted when they are asked for, on the HTTP server's thread
+ * or the file writer's, so exporting never touches the threads that record
+ * them. The file is written next to itself and moved into place, so that a
+ * reader never sees it half written.
+ */
+final class MetricsExporter {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ServerMetrics metrics;
+    private final ServerConfig config;
+    private final ServerLog log;
+
+    private HttpServer server;
+    private Thread writer;
+    private volatile boolean running;
+
+    /**
+     * @param metrics The metrics to export
+     * @param config  The configuration naming the port and file to export to
+     * @param log     Where to log failures
+     */
+    MetricsExporter(ServerMetrics metrics, ServerConfig config, ServerLog log) {
+        this.metrics = metrics;
+        this.config = config;
+        this.log = log;
+        server = null;
+        writer = null;
+        running = false;
+    }
+
+    /**
+     * Starts serving the metrics, and writing them, if configured.
+     *
+     * @throws IOException if the HTTP port could not be bound
+     */
+    public void start() throws IOException {
+        running = true;
+        if (config.getMetricsPort() != 0) {
+            InetSocketAddress address = new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), config.getMetricsPort()
+            );
+            server = HttpServer.create(address, 0);
+            server.createContext("/metrics", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    serve(exchange);
+                }
+            });
+            server.start();
+            log.info("Serving metrics on port %d", getLocalPort());
+        }
+        if (config.getMetricsFile() != null) {
+            writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writePeriodically();
+                }
+            }, "Metrics writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * @return the port metrics are served on, or 0 if they are not
+     */
+    public int getLocalPort() {
+        return server == null ? 0 : server.getAddress().getPort();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.format().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Writes the file every interval until closed, then once more. Waits on
+     * the exporter rather than sleeping, so that closing wakes it without an
+     * interrupt, which would also abort a write in progress.
+     */
+    private void writePeriodically() {
+        while (true) {
+            boolean last;
+            synchronized (this) {
+                if (running) {
+                    try {
+                        wait(config.getMetricsInterval());
+                    } catch (InterruptedException ix) {
+                        running = false;
+                    }
+                }
+                last = !running;
+            }
+            write();
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the metrics file once.
+     */
+    void write() {
+        Path file = config.getMetricsFile();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, metrics.format().getBytes(StandardCharsets.UTF_8));
+            Files.move(
+                    temp, file,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE
+            );
+        } catch (IOException iox) {
+            log.error("Could not write metrics to " + file, iox);
+        }
+    }
+
+    /**
+     * Stops serving metrics and writes the file a last time.
+     */
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+        Thread current = writer;
+        if (current != null) {
+            try {
+                current.join();
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.cis120;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs channel-scoped commands on a fixed set of shard threads so that
+ * independent channels are handled in parallel. Each channel belongs to the
+ * shard chosen by the hash of its name, and each shard applies its commands
+ * in the order they were routed, so commands on one channel keep their order.
+ *
+ * Everything else (registration, deregistration and {@code NICK}) reads or
+ * writes state shared by all channels. The model thread runs those itself
+ * after calling {@link #quiesce()}, which waits until every shard has applied
+ * and sent the responses of all the commands routed to it so far. See
+ * {@link ServerModel} for what this requires of the model.
+ */
+final class ModelShards {
+
+    // Tells a shard thread to send what it has and stop
+    private static final Object STOP = new Object();
+
+    private final ServerModel model;
+    private final ServerLog log;
+    private final int maxBatch;
+    // Null unless metrics are enabled
+    private final ServerMetrics metrics;
+    private final Shard[] shards;
+    private final Thread[] threads;
+
+    /**
+     * @param count       The number of shard threads
+     * @param model       The model the commands are applied to
+     * @param connections The open connections, by user ID
+     * @param log         Where to log failed commands
+     * @param maxBatch    The most commands a shard applies before sending
+     *                    their responses
+     */
+    ModelShards(
+            int count, ServerModel model, Map<Integer, ClientConnection> connections,
+            ServerLog log, int maxBatch
+    ) {
+        this(count, model, connections, log, maxBatch, null);
+    }
+
+    /**
+     * @param count       The number of shard threads
+     * @param model       The model the commands are applied to
+     * @param connections The open connections, by user ID
+     * @param log         Where to log failed commands
+     * @param maxBatch    The most commands a shard applies before sending
+     *                    their responses
+     * @param metrics     Where to record the time each command takes and
+     *                    the recipients of its broadcast, or null not to
+     */
+    ModelShards(
+            int count, ServerModel model, Map<Integer, ClientConnection> connections,
+            ServerLog log, int maxBatch, ServerMetrics metrics
+    ) {
+        this.model = model;
+        this.log = log;
+        this.maxBatch = maxBatch;
+        this.metrics = metrics;
+        shards = new Shard[count];
+        threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(new ResponseBatch(model, connections, log, metrics));
+            threads[i] = new Thread(shards[i], "Model shard " + i);
+        }
+    }
+
+    /**
+     * @param command A command received from a client
+     * @return the name of the channel the command is scoped to, or null if
+     *         the command is not channel-scoped and must not be routed
+     */
+    static String channelOf(Command command) {
+        if (command instanceof MessageCommand) {
+            return ((MessageCommand) command).getChannel();
+        } else if (command instanceof JoinCommand) {
+            return ((JoinCommand) command).getChannel();
+        } else if (command instanceof LeaveCommand) {
+            return ((LeaveCommand) command).getChannel();
+        } else if (command instanceof CreateCommand) {
+            return ((CreateCommand) command).getChannel();
+        } else if (command instanceof InviteCommand) {
+            return ((InviteCommand) command).getChannel();
+        } else if (command instanceof KickCommand) {
+            return ((KickCommand) command).getChannel();
+        } else if (command instanceof HistoryCommand) {
+            return ((HistoryCommand) command).getChannel();
+        } else {
+            return null;
+        }
+    }
+
+    public void start() {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues a channel-scoped command on the shard that owns its channel.
+     *
+     * @param channel The channel from {@link #channelOf(Command)}
+     * @param command The command
+     */
+    public void route(String channel, Command command) {
+        shards[Math.floorMod(channel.hashCode(), shards.length)].queue.add(command);
+    }
+
+    /**
+     * Waits until every shard has applied all commands routed to it and sent
+     * their responses. Must be called from the thread routing commands.
+     */
+    public void quiesce() {
+        CountDownLatch latch = new CountDownLatch(shards.length);
+        for (Shard shard : shards) {
+            shard.queue.add(latch);
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException ix) {
+                // the shards must finish regardless; stopping is handled by
+                // the caller once the model is consistent again
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lets the shards apply everything routed to them, then stops them.
+     */
+    public void close() {
+        for (Shard shard : shards) {
+            shard.queue.add(STOP);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private final class Shard implements Runnable {
+        // Commands, quiesce latches and STOP, in the order they were queued
+        private final BlockingQueue<Object> queue;
+        private final ResponseBatch responses;
+
+        Shard(ResponseBatch responses) {
+            this.responses = responses;
+            queue = new LinkedBlockingQueue<>();
+        }
+
+        @Override
+        public void run() {
+            List<Object> batch = new ArrayList<>(maxBatch);
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException ix) {
+                    continue;
+                }
+                queue.drainTo(batch, maxBatch - 1);
+                for (Object item : batch) {
+                    if (item instanceof Command) {
+                        Command command = (Command) item;
+                        try {
+                            responses.collect(metrics == null
+                                    ? model.apply(command)
+                                    : metrics.apply(command, model));
+                        } catch (RuntimeException rx) {
+                            log.error("Task failed", rx);
+                        }
+                    } else {
+                        responses.send();
+                        if (item == STOP) {
+                            return;
+                        }
+                        ((CountDownLatch) item).countDown();
+                    }
+                }
+                responses.send();
+                batch.clear();
+            }
+        }
+    }
+}
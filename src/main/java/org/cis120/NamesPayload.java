@@ -0,0 +1,151 @@
+package org.cis120;
+
+import java.util.Collection;
+
+/**
+ * Builds and patches the payload of a {@code NAMES} response: the nicknames
+ * of a channel's members in ascending order, separated by single spaces,
+ * with the owner's marked by a leading {@code '@'}, e.g.
+ * {@code "@User0 User1 User2"}.
+ *
+ * A {@link Channel} keeps its payload between joins, and the
+ * {@link ServerModel} patches it as members come and go instead of sorting
+ * the members again. A patch finds its place with a binary search over the
+ * payload's nicknames and copies the payload once around the change.
+ */
+final class NamesPayload {
+
+    /**
+     * @param owner The nickname of the channel's owner
+     * @param nicks The nicknames of the channel's members, including the
+     *              owner, in ascending order
+     * @return the payload
+     */
+    static String build(String owner, Collection<String> nicks) {
+        int length = 1;
+        for (String nick : nicks) {
+            length += nick.length() + 1;
+        }
+        StringBuilder payload = new StringBuilder(length);
+        for (String nick : nicks) {
+            if (payload.length() > 0) {
+                payload.append(' ');
+            }
+            if (nick.equals(owner)) {
+                payload.append('@');
+            }
+            payload.append(nick);
+        }
+        return payload.toString();
+    }
+
+    /**
+     * @param payload A payload
+     * @param nick    The nickname of a member joining the channel, who is not
+     *                its owner
+     * @return the payload with the nickname in its place, or the payload
+     *         itself if it already has it
+     */
+    static String insert(String payload, String nick) {
+        int at = search(payload, nick);
+        if (at >= 0) {
+            return payload;
+        }
+        at = -(at + 1);
+        if (payload.isEmpty()) {
+            return nick;
+        }
+        StringBuilder patched = new StringBuilder(payload.length() + nick.length() + 1);
+        if (at > payload.length()) {
+            return patched.append(payload).append(' ').append(nick).toString();
+        }
+        return patched.append(payload, 0, at).append(nick).append(' ')
+                .append(payload, at, payload.length()).toString();
+    }
+
+    /**
+     * @param payload A payload
+     * @param nick    The nickname of a member leaving the channel
+     * @return the payload without the nickname, or the payload itself if it
+     *         does not have it
+     */
+    static String remove(String payload, String nick) {
+        int at = search(payload, nick);
+        if (at < 0) {
+            return payload;
+        }
+        int end = tokenEnd(payload, at);
+        if (end == payload.length()) {
+            // the last nickname; drop the space before it, if any
+            return payload.substring(0, Math.max(0, at - 1));
+        }
+        return new StringBuilder(payload.length() - (end - at) - 1)
+                .append(payload, 0, at).append(payload, end + 1, payload.length()).toString();
+    }
+
+    /**
+     * Binary search over the nicknames in a payload. Positions are the
+     * offsets at which nicknames start, including any {@code '@'}; the offset
+     * one past the end of the payload stands for the end of the list.
+     *
+     * The range searched, {@code [low, high)}, always runs from the start of
+     * a nickname to the start of another or the end of the list, so the
+     * nicknames in it take up {@code [low, high - 1)}, less the separators.
+     * Each pass looks at the nickname covering the middle of those
+     * characters and drops it from the range with everything on one side.
+     *
+     * @return the offset of the nickname if the payload has it, otherwise
+     *         {@code -(offset + 1)} for the offset at which it would be
+     *         inserted
+     */
+    private static int search(String payload, String nick) {
+        int low = 0;
+        int high = payload.isEmpty() ? 0 : payload.length() + 1;
+        while (low < high) {
+            // the last character of the range's last nickname is high - 2
+            int middle = (low + high - 2) >>> 1;
+            int start = payload.lastIndexOf(' ', middle) + 1;
+            if (start < low) {
+                start = low;
+            }
+            int end = tokenEnd(payload, start);
+            int cmp = compare(nick, payload, start, end);
+            if (cmp < 0) {
+                high = start;
+            } else if (cmp > 0) {
+                low = end + 1;
+            } else {
+                return start;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int tokenEnd(String payload, int start) {
+        int end = payload.indexOf(' ', start);
+        return end < 0 ? payload.length() : end;
+    }
+
+    /**
+     * Compares a nickname with the nickname in {@code payload[start, end)},
+     * ignoring an owner's {@code '@'}, as {@link String#compareTo(String)}
+     * would.
+     */
+    private static int compare(String nick, String payload, int start, int end) {
+        if (start < end && payload.charAt(start) == '@') {
+            start++;
+        }
+        int length = Math.min(nick.length(), end - start);
+        for (int i = 0; i < length; i++) {
+            char a = nick.charAt(i);
+            char b = payload.charAt(start + i);
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return nick.length() - (end - start);
+    }
+
+    private NamesPayload() {
+    }
+}
@@ -0,0 +1,111 @@
+package org.cis120;
+
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * Hands out the default nicknames of users who connect: {@code "UserX"},
+ * where X is the smallest non-negative integer whose nickname is not taken.
+ *
+ * Suffixes up to a high-water mark are tracked in a bitmap of those that
+ * have been given up since they were handed out, together with a lower
+ * bound on the smallest of them, and the mark counts up from there. So a
+ * nickname is found without copying or probing the registered ones, in
+ * constant amortized time. Users may also take nicknames of this form with a
+ * NICK, so every candidate is checked against the nicknames in use, and one
+ * that is taken is skipped until it is given up again.
+ */
+final class NicknameAllocator {
+
+    static final String PREFIX = "User";
+
+    // suffixes of up to this many digits fit in an int
+    private static final int MAX_DIGITS = 9;
+
+    private final Set<String> taken;
+    // suffixes below next given up since they were handed out; some may
+    // have been taken again with a NICK since
+    private final BitSet released;
+    private int releasedCount;
+    // no suffix below this is set in released
+    private int lowest;
+    private int next;
+
+    /**
+     * @param taken The nicknames in use, as a live view that the allocator
+     *              only reads
+     */
+    NicknameAllocator(Set<String> taken) {
+        this.taken = taken;
+        released = new BitSet();
+        releasedCount = 0;
+        lowest = 0;
+        next = 0;
+    }
+
+    /**
+     * Finds the smallest default nickname not in use. It is not reserved:
+     * the caller takes it by adding it to the nicknames in use.
+     *
+     * @return the nickname
+     */
+    String allocate() {
+        while (releasedCount > 0) {
+            int suffix = released.nextSetBit(lowest);
+            released.clear(suffix);
+            releasedCount--;
+            lowest = suffix + 1;
+            String nickname = PREFIX + suffix;
+            if (!taken.contains(nickname)) {
+                return nickname;
+            }
+        }
+        lowest = next;
+        while (true) {
+            String nickname = PREFIX + next++;
+            if (!taken.contains(nickname)) {
+                return nickname;
+            }
+        }
+    }
+
+    /**
+     * Tells the allocator that a nickname is no longer in use, so that it
+     * can be handed out again if it is a default one.
+     *
+     * @param nickname The nickname given up
+     */
+    void release(String nickname) {
+        int suffix = suffixOf(nickname);
+        if (suffix < 0 || suffix >= next || released.get(suffix)) {
+            // the high-water mark reaches anything above it by itself
+            return;
+        }
+        released.set(suffix);
+        releasedCount++;
+        if (suffix < lowest) {
+            lowest = suffix;
+        }
+    }
+
+    /**
+     * @return the X of a nickname {@code "UserX"} as it would be handed out,
+     *         without leading zeros, or -1 if it is not one
+     */
+    static int suffixOf(String nickname) {
+        int digits = nickname.length() - PREFIX.length();
+        if (digits < 1 || digits > MAX_DIGITS || !nickname.startsWith(PREFIX)
+                || (digits > 1 && nickname.charAt(PREFIX.length()) == '0')) {
+            return -1;
+        }
+        int suffix = 0;
+        for (int i = PREFIX.length(); i < nickname.length(); i++) {
+            char c = nickname.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            suffix = suffix * 10 + (c - '0');
+        }
+        return suffix;
+    }
+}
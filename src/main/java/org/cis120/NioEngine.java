@@ -0,0 +1,452 @@
+package org.cis120;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@code NioEngine} serves client connections for a {@link ServerBackend}
+ * with non-blocking {@link SocketChannel}s multiplexed over a small, fixed
+ * number of selector threads, instead of one blocked thread per connection.
+ *
+ * Connections are accepted on the thread calling {@link #run()} and assigned
+ * round-robin to an {@link IoLoop}. The loop frames incoming bytes into lines
+ * and hands them to the backend, which queues them for the model thread just
+ * like the blocking engine does. Responses produced on the model thread are
+ * queued on the connection's bounded {@link OutboundQueue} and written out by
+ * its loop, so the model thread never blocks on a client's socket.
+ */
+final class NioEngine implements Runnable {
+
+    // Size of the direct buffer each IoLoop reads into.
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Most queued frames handed to one gathering write
+    private static final int WRITE_BATCH_SIZE = 64;
+
+    // Longest request line accepted; clients sending longer lines are
+    // disconnected rather than buffered without bound.
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final ServerBackend backend;
+    private final ServerConfig config;
+    private final ServerLog log;
+    // Null unless metrics are enabled
+    private final ServerMetrics metrics;
+    private final ServerSocketChannel serverChannel;
+    private final IoLoop[] loops;
+    private volatile boolean open;
+
+    /**
+     * Binds the server channel. No connections are accepted until
+     * {@link #run()} is called.
+     *
+     * @param backend The backend to report connections and requests to
+     * @param config  The port and number of I/O threads to use
+     * @throws IOException if the port cannot be bound or a selector cannot be
+     *                     opened
+     */
+    NioEngine(ServerBackend backend, ServerConfig config) throws IOException {
+        this.backend = backend;
+        this.config = config;
+        log = backend.getLog();
+        metrics = backend.getMetrics();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(
+                    new InetSocketAddress(config.getBindAddress(), config.getPort()),
+                    config.getBacklog()
+            );
+            loops = new IoLoop[config.getIoThreads()];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new IoLoop();
+            }
+        } catch (IOException iox) {
+            serverChannel.close();
+            throw iox;
+        }
+        open = true;
+    }
+
+    /**
+     * Starts the I/O threads and accepts connections on the current thread
+     * until the engine is closed.
+     */
+    @Override
+    public void run() {
+        for (int i = 0; i < loops.length; i++) {
+            new Thread(loops[i], "NIO loop " + i).start();
+        }
+
+        int nextLoop = 0;
+        try {
+            while (open && backend.isRunning()) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                IoLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+
+                int userId = backend.allocateUserId();
+                NioConnection connection = new NioConnection(userId, channel, loop);
+                backend.connectionOpened(userId, connection);
+                loop.register(connection);
+            }
+        } catch (ClosedChannelException ccx) {
+            // closed by close(); nothing to report
+        } catch (IOException iox) {
+            log.error("Could not accept connections", iox);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * @return the port the engine is listening on
+     */
+    int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and stops the I/O threads, closing every
+     * connection they serve.
+     */
+    public void close() {
+        open = false;
+        try {
+            serverChannel.close();
+        } catch (IOException iox) {
+            log.error("Could not close the server channel", iox);
+        }
+        for (IoLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    // ==========================================================================
+    // IoLoop
+    // ==========================================================================
+
+    /**
+     * A selector thread serving reads and writes for a share of the
+     * connections.
+     */
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer readBuffer;
+        private final Queue<NioConnection> pendingRegistrations;
+        private final Queue<NioConnection> pendingWrites;
+        private final Queue<NioConnection> pendingDisconnections;
+
+        IoLoop() throws IOException {
+            selector = Selector.open();
+            readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            pendingRegistrations = new ConcurrentLinkedQueue<>();
+            pendingWrites = new ConcurrentLinkedQueue<>();
+            pendingDisconnections = new ConcurrentLinkedQueue<>();
+        }
+
+        void register(NioConnection connection) {
+            pendingRegistrations.add(connection);
+            selector.wakeup();
+        }
+
+        void scheduleWrite(NioConnection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Has the loop report a connection closed on another thread. The
+         * thread sending responses may be the one that takes tasks off the
+         * backend's queue, and reporting a disconnection puts a task on it,
+         * which would wait forever for that thread if the queue were full.
+         */
+        void scheduleDisconnection(NioConnection connection) {
+            pendingDisconnections.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (open) {
+                    selector.select();
+
+                    NioConnection connection;
+                    while ((connection = pendingRegistrations.poll()) != null) {
+                        try {
+                            connection.key = connection.channel
+                                    .register(selector, SelectionKey.OP_READ, connection);
+                            // responses may have been queued before the
+                            // connection reached this loop
+                            write(connection);
+                        } catch (ClosedChannelException ccx) {
+                            disconnect(connection);
+                        }
+                    }
+                    while ((connection = pendingWrites.poll()) != null) {
+                        connection.writeRequested.set(false);
+                        if (connection.key != null) {
+                            write(connection);
+                        }
+                    }
+                    while ((connection = pendingDisconnections.poll()) != null) {
+                        disconnect(connection);
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        connection = (NioConnection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    }
+                }
+            } catch (IOException iox) {
+                log.error("Selector failed", iox);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((NioConnection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException iox) {
+                    log.error("Could not close selector", iox);
+                }
+            }
+        }
+
+        private void read(NioConnection connection) {
+            int count;
+            try {
+                readBuffer.clear();
+                count = connection.channel.read(readBuffer);
+            } catch (IOException iox) {
+                disconnect(connection);
+                return;
+            }
+            if (count < 0) {
+                // a final line without a newline is still a request, as it is
+                // for BufferedReader.readLine in the blocking engine
+                if (connection.lineLength > 0) {
+                    connection.emitLine();
+                }
+                disconnect(connection);
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    connection.emitLine();
+                } else if (!connection.append(b)) {
+                    log.warn("User %d sent an over-long line", connection.userId);
+                    disconnect(connection);
+                    return;
+                }
+            }
+        }
+
+        private void write(NioConnection connection) {
+            try {
+                ByteBuffer[] batch = connection.batch;
+                while (true) {
+                    if (connection.batchStart == connection.batchEnd) {
+                        connection.batchStart = 0;
+                        connection.batchEnd = connection.outbound.drainTo(batch);
+                        if (connection.batchEnd == 0) {
+                            break;
+                        }
+                    }
+                    long written = connection.channel.write(
+                            batch, connection.batchStart,
+                            connection.batchEnd - connection.batchStart
+                    );
+                    connection.bytesWritten += written;
+                    if (metrics != null) {
+                        metrics.bytesWritten(written);
+                    }
+                    while (connection.batchStart < connection.batchEnd
+                            && !batch[connection.batchStart].hasRemaining()) {
+                        batch[connection.batchStart++] = null;
+                    }
+                    if (connection.batchStart < connection.batchEnd) {
+                        if (connection.stall == null && FlightEvents.AVAILABLE) {
+                            connection.stall = FlightEvents.writeStalled();
+                            connection.stalledAt = connection.bytesWritten;
+                        }
+                        // socket send buffer is full; continue when writable
+                        connection.key.interestOps(
+                                SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                        );
+                        return;
+                    }
+                }
+                connection.key.interestOps(SelectionKey.OP_READ);
+                if (connection.stall != null) {
+                    FlightEvents.writeResumed(
+                            connection.stall, connection.userId,
+                            connection.bytesWritten - connection.stalledAt
+                    );
+                    connection.stall = null;
+                }
+            } catch (IOException | CancelledKeyException x) {
+                disconnect(connection);
+            }
+        }
+    }
+
+    /**
+     * Closes a connection and reports it to the backend, unless it was
+     * already closed. Safe to call from any thread.
+     */
+    private void disconnect(NioConnection connection) {
+        if (connection.closed.compareAndSet(false, true)) {
+            closeQuietly(connection);
+            backend.connectionClosed(connection.userId);
+        }
+    }
+
+    private void closeQuietly(NioConnection connection) {
+        if (connection.key != null) {
+            connection.key.cancel();
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException iox) {
+            log.error("Could not close connection to user " + connection.userId, iox);
+        }
+    }
+
+    // ==========================================================================
+    // NioConnection
+    // ==========================================================================
+
+    /**
+     * A client connection served by an {@link IoLoop}. The line buffer and
+     * the batch of frames being written are only touched by the loop's
+     * thread; the outbound queue is filled by the model thread.
+     */
+    private final class NioConnection implements ClientConnection {
+        private final int userId;
+        private final SocketChannel channel;
+        private final IoLoop loop;
+        private final OutboundQueue outbound;
+        private final AtomicBoolean writeRequested;
+        private final AtomicBoolean closed;
+        // Set by a send that found the outbound queue full; the loop reports
+        // the disconnection
+        private final AtomicBoolean overflowed;
+        private volatile SelectionKey key;
+        private final ByteBuffer[] batch;
+        private int batchStart;
+        private int batchEnd;
+        // Only written by the loop's thread
+        private volatile long bytesWritten;
+        // Set while the socket cannot take the queued frames, if recorded
+        private FlightEvents.SocketWriteStalledEvent stall;
+        private long stalledAt;
+        private byte[] line;
+        private int lineLength;
+
+        NioConnection(int userId, SocketChannel channel, IoLoop loop) {
+            this.userId = userId;
+            this.channel = channel;
+            this.loop = loop;
+            outbound = new OutboundQueue(
+                    config.getOutboundCapacity(), config.getOverflowPolicy()
+            );
+            writeRequested = new AtomicBoolean(false);
+            closed = new AtomicBoolean(false);
+            overflowed = new AtomicBoolean(false);
+            batch = new ByteBuffer[WRITE_BATCH_SIZE];
+            batchStart = 0;
+            batchEnd = 0;
+            bytesWritten = 0;
+            stall = null;
+            stalledAt = 0;
+            line = new byte[128];
+            lineLength = 0;
+        }
+
+        /**
+         * Appends a byte to the line being framed.
+         *
+         * @return false if the line has grown past {@link #MAX_LINE_LENGTH}
+         */
+        boolean append(byte b) {
+            if (lineLength == line.length) {
+                if (line.length >= MAX_LINE_LENGTH) {
+                    return false;
+                }
+                line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE_LENGTH));
+            }
+            line[lineLength++] = b;
+            return true;
+        }
+
+        /**
+         * Passes the framed line to the backend, without the carriage return
+         * of a CRLF, and starts a new one. Empty lines are passed on too, as
+         * BufferedReader.readLine does in the blocking engine.
+         */
+        void emitLine() {
+            int length = lineLength;
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            backend.lineReceived(userId, new String(line, 0, length, StandardCharsets.UTF_8));
+            lineLength = 0;
+        }
+
+        @Override
+        public void send(List<ByteBuffer> frames) throws IOException {
+            if (closed.get() || overflowed.get()) {
+                // the disconnection has been or will be reported; nothing to do
+                return;
+            }
+            for (ByteBuffer frame : frames) {
+                if (!outbound.offer(frame.duplicate())) {
+                    if (overflowed.compareAndSet(false, true)) {
+                        // closing the channel stops the client's requests;
+                        // the loop reports the disconnection
+                        log.warn("Disconnecting slow client %d", userId);
+                        try {
+                            channel.close();
+                        } catch (IOException iox) {
+                            log.error("Could not close connection to user " + userId, iox);
+                        }
+                        loop.scheduleDisconnection(this);
+                    }
+                    return;
+                }
+            }
+            if (writeRequested.compareAndSet(false, true)) {
+                loop.scheduleWrite(this);
+            }
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                closeQuietly(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.cis120;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * An {@code OutboundQueue} holds the encoded response lines waiting to be
+ * written to one client. The model thread adds frames and a writer takes them off, so
+ * the model thread never waits on a client's socket.
+ *
+ * The queue is bounded; what happens when a client reads too slowly to keep
+ * it below its capacity is decided by its {@link OverflowPolicy}.
+ */
+final class OutboundQueue {
+
+    /**
+     * What to do when a frame is offered to a full queue.
+     */
+    enum OverflowPolicy {
+        /**
+         * Discard the oldest queued frame to make room for the new one.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Refuse the frame; the client should be disconnected.
+         */
+        DISCONNECT
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<ByteBuffer> frames;
+    private long dropped;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity The number of frames the queue can hold
+     * @param policy   What to do when a frame is offered to a full queue
+     * @throws IllegalArgumentException if {@code capacity} is not positive
+     */
+    OutboundQueue(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (policy == null) {
+            throw new NullPointerException();
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        frames = new ArrayDeque<>();
+        dropped = 0;
+    }
+
+    /**
+     * Encodes a response line as a frame terminated by a newline. The frame is
+     * read-only so that one encoding can be shared by every recipient of a
+     * broadcast.
+     *
+     * @param response The response line
+     * @return a read-only buffer ready to be written
+     */
+    static ByteBuffer encode(String response) {
+        byte[] bytes = (response + '\n').getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Adds a frame to the back of the queue, applying the overflow policy if
+     * the queue is full. Frames shared with other connections must be
+     * {@link ByteBuffer#duplicate() duplicated} first so that each connection
+     * has its own write position.
+     *
+     * @param frame The frame to add
+     * @return false if the queue is full and its policy is
+     *         {@link OverflowPolicy#DISCONNECT}, in which case the frame was
+     *         not added
+     */
+    synchronized boolean offer(ByteBuffer frame) {
+        if (frames.size() >= capacity) {
+            if (policy == OverflowPolicy.DISCONNECT) {
+                return false;
+            }
+            frames.poll();
+            dropped++;
+        }
+        frames.add(frame);
+        return true;
+    }
+
+    /**
+     * Removes the frame at the front of the queue. A frame is only ever handed
+     * out once, so a writer can finish a partially written frame without the
+     * overflow policy dropping it.
+     *
+     * @return the oldest frame, or null if the queue is empty
+     */
+    synchronized ByteBuffer poll() {
+        return frames.poll();
+    }
+
+    /**
+     * Removes frames from the front of the queue into an array, for writing
+     * them out together.
+     *
+     * @param batch The array to fill from index 0
+     * @return the number of frames removed
+     */
+    synchronized int drainTo(ByteBuffer[] batch) {
+        int count = 0;
+        while (count < batch.length && !frames.isEmpty()) {
+            batch[count++] = frames.poll();
+        }
+        return count;
+    }
+
+    synchronized boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    /**
+     * @return the number of frames discarded by
+     *         {@link OverflowPolicy#DROP_OLDEST} so far
+     */
+    synchronized long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,233 @@
+package org.cis120;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The last few {@code MESG} lines sent to a public {@link Channel}, encoded
+ * as they were sent, so that a user joining the channel can be sent them
+ * right after its {@code NAMES} reply.
+ *
+ * A ring holds at most a fixed number of messages, and only allocates room
+ * for them as the channel's messages arrive. Every ring of a server draws on
+ * one {@link Budget}, which bounds the memory they take together: once it is
+ * exceeded, the rings that have gone longest without a message or a join
+ * are emptied until the total is comfortably below the budget again. An
+ * emptied ring fills up again with the channel's next messages.
+ *
+ * A ring is only added to by the thread running its channel's commands, but
+ * may be emptied by any thread that takes the total over the budget, so its
+ * methods synchronize on it; other threads only touch it when evicting.
+ */
+final class RecentMessages {
+
+    // Rough heap cost of a frame beyond its bytes (the ByteBuffer and the
+    // array header), and of a ring's array beyond its slots
+    private static final int FRAME_OVERHEAD = 64;
+    private static final int ARRAY_OVERHEAD = 16;
+    // slots a ring starts with; most channels never fill a large ring
+    private static final int INITIAL_SLOTS = 4;
+
+    private final Budget budget;
+    private ByteBuffer[] frames;
+    // index of the oldest message, and the number of messages
+    private int head;
+    private int count;
+    // what this ring is charged to the budget for, in bytes
+    private long bytes;
+    private volatile long lastUsed;
+
+    private RecentMessages(Budget budget) {
+        this.budget = budget;
+        frames = null;
+        head = 0;
+        count = 0;
+        bytes = 0;
+        lastUsed = 0;
+    }
+
+    /**
+     * Adds a message, replacing the oldest if the ring is full.
+     *
+     * @param frame The encoded line, from {@link OutboundQueue#encode(String)}
+     */
+    void add(ByteBuffer frame) {
+        long charge = frame.capacity() + FRAME_OVERHEAD;
+        boolean over;
+        synchronized (this) {
+            if (frames == null) {
+                frames = new ByteBuffer[Math.min(INITIAL_SLOTS, budget.capacity)];
+                charge += ARRAY_OVERHEAD + 8L * frames.length;
+                budget.rings.add(this);
+            } else if (count == frames.length && count < budget.capacity) {
+                // not yet full, so it has not wrapped and head is 0
+                int slots = Math.min(count * 2, budget.capacity);
+                charge += 8L * (slots - frames.length);
+                frames = Arrays.copyOf(frames, slots);
+            }
+            int slot = (head + count) % frames.length;
+            if (count == frames.length) {
+                charge -= frames[head].capacity() + FRAME_OVERHEAD;
+                head = (head + 1) % frames.length;
+            } else {
+                count++;
+            }
+            frames[slot] = frame;
+            bytes += charge;
+            lastUsed = budget.clock.incrementAndGet();
+            // charged under the lock, so that a concurrent clear() releases
+            // exactly what was charged
+            over = budget.used.addAndGet(charge) > budget.maxBytes;
+        }
+        if (over) {
+            budget.evict();
+        }
+    }
+
+    /**
+     * @return the messages, oldest first, as frames shared with the ring and
+     *         every earlier recipient; empty if there are none
+     */
+    List<ByteBuffer> get() {
+        synchronized (this) {
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+            List<ByteBuffer> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                messages.add(frames[(head + i) % frames.length]);
+            }
+            lastUsed = budget.clock.incrementAndGet();
+            return messages;
+        }
+    }
+
+    /**
+     * @return the number of messages in the ring
+     */
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Empties the ring and returns its memory to the budget, when its channel
+     * is deleted or it is evicted.
+     */
+    void clear() {
+        long released;
+        synchronized (this) {
+            if (frames == null) {
+                return;
+            }
+            released = bytes;
+            frames = null;
+            head = 0;
+            count = 0;
+            bytes = 0;
+            budget.rings.remove(this);
+        }
+        budget.used.addAndGet(-released);
+    }
+
+    /**
+     * The memory shared by the rings of a server, and the number of messages
+     * each of them holds.
+     */
+    static final class Budget {
+        private final int capacity;
+        private final long maxBytes;
+        private final long lowWater;
+        private final AtomicLong used;
+        // counts adds and gets, to order the rings by when they were used
+        private final AtomicLong clock;
+        // the rings holding messages
+        private final Set<RecentMessages> rings;
+        private final ReentrantLock evicting;
+
+        /**
+         * @param capacity The number of messages each ring holds
+         * @param maxBytes The most memory the rings may take together, in
+         *                 bytes, counting the frames and their arrays
+         */
+        Budget(int capacity, long maxBytes) {
+            if (capacity < 1 || maxBytes < 1) {
+                throw new IllegalArgumentException();
+            }
+            this.capacity = capacity;
+            this.maxBytes = maxBytes;
+            lowWater = maxBytes - maxBytes / 4;
+            used = new AtomicLong();
+            clock = new AtomicLong();
+            rings = Collections.newSetFromMap(new ConcurrentHashMap<RecentMessages, Boolean>());
+            evicting = new ReentrantLock();
+        }
+
+        /**
+         * @return a new, empty ring drawing on this budget
+         */
+        RecentMessages newRing() {
+            return new RecentMessages(this);
+        }
+
+        /**
+         * @return the memory the rings take, in bytes
+         */
+        long getUsed() {
+            return used.get();
+        }
+
+        /**
+         * @return the number of rings holding messages
+         */
+        int getRingCount() {
+            return rings.size();
+        }
+
+        /**
+         * Empties the least recently used rings until the rings take at most
+         * three quarters of the budget, so that evictions, which look at every
+         * ring, are rare. A thread finding another already evicting leaves
+         * it to that thread.
+         *
+         * Rather than sorting the rings themselves, which mostly costs cache
+         * misses, each round copies their last use into an array, sorts that,
+         * and empties every ring used no later than the ring that, at the
+         * average size, would bring the total down far enough.
+         */
+        private void evict() {
+            if (!evicting.tryLock()) {
+                return;
+            }
+            try {
+                while (used.get() > lowWater) {
+                    RecentMessages[] candidates = rings.toArray(new RecentMessages[0]);
+                    if (candidates.length == 0) {
+                        return;
+                    }
+                    long[] stamps = new long[candidates.length];
+                    for (int i = 0; i < candidates.length; i++) {
+                        stamps[i] = candidates[i].lastUsed;
+                    }
+                    long[] sorted = stamps.clone();
+                    Arrays.sort(sorted);
+                    long total = Math.max(1, used.get());
+                    long excess = total - lowWater;
+                    int victims = (int) Math.min(
+                            candidates.length, excess * candidates.length / total + 1
+                    );
+                    long cutoff = sorted[victims - 1];
+                    for (int i = 0; i < candidates.length; i++) {
+                        if (stamps[i] <= cutoff) {
+                            candidates[i].clear();
+                        }
+                    }
+                }
+            } finally {
+                evicting.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.cis120;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Collects the responses of the broadcasts produced by a batch of tasks and
+ * sends them with one {@link ClientConnection#send(List)} per recipient. Each
+ * distinct response is encoded once per batch and its bytes shared by all of
+ * its recipients; frames a broadcast carries already encoded are sent as
+ * they are.
+ *
+ * A {@code ResponseBatch} belongs to the thread applying the tasks to the
+ * model: the model thread, or one of the {@link ModelShards}.
+ */
+final class ResponseBatch {
+
+    private final ServerModel model;
+    private final Map<Integer, ClientConnection> connections;
+    private final ServerLog log;
+    // Null unless metrics are enabled
+    private final ServerMetrics metrics;
+
+    private final Map<String, ByteBuffer> encoded;
+    private final Map<Integer, List<ByteBuffer>> outgoing;
+
+    /**
+     * @param model       The model whose broadcasts are collected, used to
+     *                    resolve recipients to user IDs
+     * @param connections The open connections, by user ID
+     * @param log         Where to log send failures and traced responses
+     */
+    ResponseBatch(ServerModel model, Map<Integer, ClientConnection> connections, ServerLog log) {
+        this(model, connections, log, null);
+    }
+
+    /**
+     * @param model       The model whose broadcasts are collected
+     * @param connections The open connections, by user ID
+     * @param log         Where to log send failures and traced responses
+     * @param metrics     Where to record the number of recipients of each
+     *                    broadcast, or null not to
+     */
+    ResponseBatch(
+            ServerModel model, Map<Integer, ClientConnection> connections, ServerLog log,
+            ServerMetrics metrics
+    ) {
+        this.model = model;
+        this.connections = connections;
+        this.log = log;
+        this.metrics = metrics;
+        encoded = new HashMap<>();
+        outgoing = new HashMap<>();
+    }
+
+    /**
+     * Adds the responses of a broadcast to the frames to send to each
+     * recipient.
+     *
+     * @param broadcast The broadcast, or null if the task produced none
+     */
+    public void collect(Broadcast broadcast) {
+        if (broadcast == null) {
+            return;
+        }
+
+        Map<Integer, List<String>> responses = broadcast.getResponses(model);
+        if (metrics != null) {
+            metrics.broadcastCollected(responses.size());
+        }
+        for (Map.Entry<Integer, List<String>> entry : responses.entrySet()) {
+            int userId = entry.getKey();
+            if (!connections.containsKey(userId)) {
+                // gone, or connected to another node of a cluster
+                continue;
+            }
+            List<ByteBuffer> frames = outgoing.get(userId);
+            if (frames == null) {
+                frames = new ArrayList<>(entry.getValue().size());
+                outgoing.put(userId, frames);
+            }
+            for (String response : entry.getValue()) {
+                ByteBuffer frame = encoded.get(response);
+                if (frame == null) {
+                    frame = OutboundQueue.encode(response);
+                    encoded.put(response, frame);
+                }
+                frames.add(frame);
+            }
+            if (log.isEnabled(ServerLog.Level.TRACE)) {
+                for (String response : entry.getValue()) {
+                    if (log.shouldTrace()) {
+                        log.trace("Response queued for user %d: \"%s\"", userId, response);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Integer, List<ByteBuffer>> entry : broadcast.getFrames(model).entrySet()) {
+            List<ByteBuffer> frames = outgoing.get(entry.getKey());
+            if (frames != null) {
+                // stored frames are only sent to whoever the broadcast also
+                // has a response for, and only if they are connected here
+                frames.addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return true if no responses have been collected since the last send
+     */
+    public boolean isEmpty() {
+        return outgoing.isEmpty();
+    }
+
+    /**
+     * Sends the collected responses and starts a new batch.
+     */
+    public void send() {
+        FlightEvents.BroadcastDispatchedEvent event =
+                FlightEvents.AVAILABLE ? FlightEvents.broadcastDispatching() : null;
+        int frames = 0;
+        for (Map.Entry<Integer, List<ByteBuffer>> entry : outgoing.entrySet()) {
+            int userId = entry.getKey();
+            ClientConnection connection = connections.get(userId);
+            if (connection == null) {
+                // the user has disconnected since the responses were created
+                continue;
+            }
+            try {
+                connection.send(entry.getValue());
+            } catch (IOException iox) {
+                log.error("Could not send to user " + userId, iox);
+            }
+            frames += entry.getValue().size();
+        }
+        if (event != null) {
+            FlightEvents.broadcastDispatched(event, outgoing.size(), frames);
+        }
+        encoded.clear();
+        outgoing.clear();
+    }
+}
@@ -1,43 +1,171 @@
 package org.cis120;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The {@code ServerBackend} handles networking and communication with clients,
  * and is responsible for managing the server state and executing tasks. To
  * run the server, you should see the {@link ServerMain} class.
  *
+ * Client connections are served by the network engine chosen in the
+ * {@link ServerConfig}: either a platform or virtual thread per connection
+ * blocking on reads, or the selector-based {@link NioEngine}. Both feed the same task queue and
+ * model thread. The model thread only queues responses on each connection's
+ * {@link OutboundQueue}; the engines write them to the sockets, so a client
+ * that stops reading cannot stall everyone else.
+ *
+ * Tasks reach the model thread through a {@code LinkedBlockingQueue} or,
+ * if configured, through a preallocated {@link TaskRing}. With more than one
+ * model shard, the model thread parses requests and hands channel-scoped
+ * commands to the {@link ModelShards}, running only the others itself.
+ *
+ * In a cluster, tasks are first sent to the {@link ClusterNode}, which queues
+ * them for the model thread once every node has agreed on their order. The
+ * model then holds every node's users and channels, and responses to users of
+ * other nodes are left for those nodes to send.
+ *
+ * If a write-ahead log is configured, the channels it records are replayed
+ * into the model before the server starts listening, and every later change
+ * to them is appended to the {@link ChannelLog} until the server stops. Every
+ * so many records, the model thread copies the channels and a snapshot thread
+ * writes the copy as a {@link ChannelSnapshot} and truncates the log, so that
+ * a restart loads the snapshot and only replays the records after it.
+ *
+ * If a history directory is configured, the messages sent to each channel
+ * are kept in a {@link MessageHistory} for clients to fetch with
+ * {@code HISTORY}. Public channels can also keep their last few messages in
+ * memory, as {@link RecentMessages}, for the users who join them.
+ *
+ * If a metrics port or file is configured, the backend keeps
+ * {@link ServerMetrics}: how long tasks wait for the model thread and each
+ * type of command takes, how many users each broadcast reaches, and the
+ * connections and bytes written by the engines. The {@link MetricsExporter}
+ * serves or writes them in the Prometheus text format. Tasks, commands,
+ * dispatches and stalled socket writes are also reported as
+ * {@link FlightEvents} to any Flight Recorder recording that enables them.
+ *
+ * Errors and, when enabled, protocol traffic are written to a
+ * {@link ServerLog} rather than directly to the console, so that logging
+ * never holds up request processing.
+ *
  * You do not need to modify this file.
  */
 final class ServerBackend implements Runnable {
 
+    // The smallest limit on the number of tasks the model thread handles at
+    // once; see runModel()
+    static final int MIN_BATCH_LIMIT = 16;
+
     // The ServerModel is NOT thread-safe; it should only be touched on the
     // model thread after being initialized.
     private final ServerModel model;
+    private final ServerConfig config;
+    private final ServerLog log;
 
+    // Exactly one of these carries tasks to the model thread
     private final BlockingQueue<Task> taskQueue;
+    private final TaskRing taskRing;
+    private final Log2Histogram batchSizes;
+    // Null unless metrics are enabled
+    private final ServerMetrics metrics;
+    private volatile MetricsExporter metricsExporter;
+
+    // Only touched by the model thread
+    private final ResponseBatch responses;
+    // Null unless channel-scoped commands are spread over several threads
+    private final ModelShards shards;
+    // Null unless the server is one node of a cluster
+    private final ClusterNode cluster;
+    // Null unless channel changes are logged
+    private volatile ChannelLog channelLog;
+    // Null unless a snapshot is being written; only set by the model thread
+    private volatile Thread snapshotWriter;
+    // Set before the model thread starts
+    private MessageHistory history;
 
     private volatile ServerSocket serverSocket;
-    private final Map<Integer, Socket> openSockets;
+    private volatile NioEngine nioEngine;
+    private final Map<Integer, ClientConnection> connections;
+
+    // Only touched by the thread accepting connections
+    private int nextId;
 
     private volatile boolean running;
     private volatile Thread modelThread;
 
     public ServerBackend(ServerModel model) {
-        if (model == null) {
+        this(model, ServerConfig.defaults());
+    }
+
+    public ServerBackend(ServerModel model, ServerConfig config) {
+        this(model, config, ServerLog.CONSOLE);
+    }
+
+    public ServerBackend(ServerModel model, ServerConfig config, ServerLog.Sink logSink) {
+        if (model == null || config == null || logSink == null) {
             throw new NullPointerException();
         }
         this.model = model;
-        taskQueue = new LinkedBlockingQueue<>();
+        this.config = config;
+        log = new ServerLog(config.getLogLevel(), config.getTraceSampleRate(), logSink);
+        batchSizes = new Log2Histogram();
+        metrics = config.isMetricsEnabled() ? new ServerMetrics(batchSizes) : null;
+        if (config.getTaskChannel() == ServerConfig.TaskChannel.RING) {
+            taskQueue = null;
+            taskRing = new TaskRing(
+                    config.getRingCapacity(), config.getWaitStrategy(),
+                    metrics == null ? null : metrics.getQueueWaits()
+            );
+        } else {
+            taskQueue = new LinkedBlockingQueue<>();
+            taskRing = null;
+        }
         serverSocket = null;
-        openSockets = Collections.synchronizedMap(new HashMap<Integer, Socket>());
+        nioEngine = null;
+        // Concurrent rather than synchronized so that virtual threads
+        // registering connections never block while holding a monitor
+        connections = new ConcurrentHashMap<>();
+        responses = new ResponseBatch(model, connections, log, metrics);
+        if (!config.getClusterNodes().isEmpty()) {
+            cluster = new ClusterNode(config, new ClusterNode.Applier() {
+                @Override
+                public void apply(int kind, int userId, String line, int start) {
+                    submit(kind, userId, line, start);
+                }
+            }, log);
+        } else {
+            cluster = null;
+        }
+        if (config.getModelShards() > 1 && cluster != null) {
+            log.warn("Model shards are not supported in a cluster; using one model thread");
+            shards = null;
+        } else if (config.getModelShards() > 1) {
+            shards = new ModelShards(
+                    config.getModelShards(), model, connections, log,
+                    config.getModelBatchSize(), metrics
+            );
+        } else {
+            shards = null;
+        }
+        if (config.getRecentMessages() > 0) {
+            model.setRecentMessages(new RecentMessages.Budget(
+                    config.getRecentMessages(), (long) config.getRecentMessagesMemory() << 20
+            ));
+        }
+        nextId = 0;
         running = false;
         modelThread = null;
     }
@@ -46,137 +174,698 @@ final class ServerBackend implements Runnable {
         return running;
     }
 
+    ServerLog getLog() {
+        return log;
+    }
+
+    /**
+     * @return the distribution of the number of tasks the model thread has
+     *         handled per batch
+     */
+    Log2Histogram getBatchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * @return the server's metrics, or null if they are not enabled
+     */
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the port metrics are served on, or 0 if they are not
+     */
+    int getMetricsPort() {
+        MetricsExporter exporter = metricsExporter;
+        return exporter == null ? 0 : exporter.getLocalPort();
+    }
+
     @Override
     public void run() {
         running = true;
 
-        // Attempt to open the ServerSocket; abort on failure
-        try {
-            serverSocket = new ServerSocket(21212);
-        } catch (IOException iox) {
-            iox.printStackTrace();
+        // Attempt to open the listening socket; abort on failure
+        if (!openChannelLog() || !openHistory() || !openMetrics() || !openListener()
+                || (cluster != null && !cluster.start())) {
             running = false;
-            serverSocket = null;
         }
 
         // Start the model thread
+        if (shards != null) {
+            shards.start();
+        }
         modelThread = new Thread(new Runnable() {
             @Override
             public void run() {
-                while (running || !taskQueue.isEmpty()) {
-                    Task task;
-                    try {
-                        task = taskQueue.take();
-                    } catch (InterruptedException ix) {
-                        continue;
-                    }
-                    try {
-                        dispatchBroadcast(task.getBroadcast());
-                    } catch (RuntimeException rx) {
-                        rx.printStackTrace();
-                    }
+                runModel();
+                if (shards != null) {
+                    shards.close();
                 }
-
-                try {
-                    if (serverSocket != null && !serverSocket.isClosed()) {
-                        serverSocket.close();
-                    }
-                } catch (IOException iox) {
-                    iox.printStackTrace();
+                closeListener();
+                closeChannelLog();
+                awaitSnapshot();
+                if (history != null) {
+                    history.close();
                 }
+                if (metricsExporter != null) {
+                    metricsExporter.close();
+                }
+                log.info("Model batch sizes: %s", batchSizes);
+                log.close();
             }
         }, "Model thread");
         modelThread.start();
 
         // Await new connections on the current thread
-        ExecutorService workerPool = Executors.newCachedThreadPool();
         try {
-            int nextId = 0;
-            while (running && !serverSocket.isClosed()) {
-                int userId = nextId++;
-                Socket clientSocket = serverSocket.accept();
-                openSockets.put(userId, clientSocket);
-                taskQueue.add(new Registration(userId));
-                workerPool.execute(new ConnectionWorker(userId, clientSocket));
+            if (nioEngine != null) {
+                nioEngine.run();
+            } else if (serverSocket != null) {
+                acceptBlocking();
             }
-        } catch (IOException iox) {
-            iox.printStackTrace();
         } finally {
             running = false;
-            workerPool.shutdown();
-            try {
-                if (serverSocket != null && !serverSocket.isClosed()) {
-                    serverSocket.close();
-                }
-            } catch (IOException iox) {
-                iox.printStackTrace();
-            } finally {
-                serverSocket = null;
+            closeListener();
+            serverSocket = null;
+
+            Iterator<ClientConnection> iterator = connections.values().iterator();
+            while (iterator.hasNext()) {
+                ClientConnection connection = iterator.next();
+                connection.close();
+                iterator.remove();
             }
+        }
+    }
 
-            synchronized (openSockets) {
-                Iterator<Socket> iterator = openSockets.values().iterator();
-                while (iterator.hasNext()) {
-                    Socket clientSocket = iterator.next();
-                    try {
-                        clientSocket.close();
-                    } catch (IOException iox) {
-                        iox.printStackTrace();
-                    } finally {
-                        iterator.remove();
-                    }
+    /**
+     * Loads the snapshot and replays the write-ahead log after it, if a log
+     * is configured, and opens the log to record further changes.
+     *
+     * @return false if the snapshot or log could not be read or opened
+     */
+    private boolean openChannelLog() {
+        Path file = config.getWalFile();
+        if (file == null) {
+            return true;
+        }
+        Path snapshotFile = ChannelSnapshot.pathFor(file);
+        try {
+            long start = System.nanoTime();
+            ChannelLog.Checkpoint checkpoint = ChannelSnapshot.load(snapshotFile, model);
+            if (checkpoint != null) {
+                log.info(
+                        "Loaded channel snapshot %s in %d ms",
+                        snapshotFile, (System.nanoTime() - start) / 1000000
+                );
+                start = System.nanoTime();
+            }
+            long records = ChannelLog.replay(file, model, checkpoint);
+            log.info(
+                    "Replayed %d channel log records from %s in %d ms",
+                    records, file, (System.nanoTime() - start) / 1000000
+            );
+            channelLog = new ChannelLog(
+                    file, checkpoint == null ? 0 : checkpoint.getGeneration() + 1,
+                    config.getWalSync(), config.getWalSyncInterval(), log
+            );
+        } catch (IOException iox) {
+            log.error("Could not open the channel log " + file, iox);
+            return false;
+        }
+        model.setJournal(channelLog);
+        return true;
+    }
+
+    /**
+     * Opens the message history, if one is configured. Called after the log
+     * is replayed, so that the channels it recreates keep their messages.
+     *
+     * @return false if the history directory could not be created
+     */
+    private boolean openHistory() {
+        Path dir = config.getHistoryDir();
+        if (dir == null) {
+            return true;
+        }
+        try {
+            history = new MessageHistory(
+                    dir, config.getHistorySegmentSize(), config.getHistorySegments(), log
+            );
+        } catch (IOException iox) {
+            log.error("Could not open the message history " + dir, iox);
+            return false;
+        }
+        model.setHistory(history);
+        return true;
+    }
+
+    /**
+     * Starts exporting metrics, if they are enabled.
+     *
+     * @return false if the metrics port could not be bound
+     */
+    private boolean openMetrics() {
+        if (metrics == null) {
+            return true;
+        }
+        MetricsExporter exporter = new MetricsExporter(metrics, config, log);
+        try {
+            exporter.start();
+        } catch (IOException iox) {
+            log.error("Could not serve metrics on port " + config.getMetricsPort(), iox);
+            exporter.close();
+            return false;
+        }
+        metricsExporter = exporter;
+        return true;
+    }
+
+    private void closeChannelLog() {
+        ChannelLog current = channelLog;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Starts a snapshot if enough has been logged since the last one and none
+     * is being written. Called on the model thread between batches; the
+     * channels are copied there, with the shards quiet, and written by a
+     * snapshot thread.
+     */
+    private void maybeSnapshot() {
+        final ChannelLog current = channelLog;
+        int limit = config.getWalSnapshotRecords();
+        if (current == null || limit == 0 || snapshotWriter != null
+                || current.getRecordsSinceCheckpoint() < limit) {
+            return;
+        }
+        if (shards != null) {
+            shards.quiesce();
+        }
+        long start = System.nanoTime();
+        final ChannelSnapshot snapshot = model.snapshotChannels();
+        final ChannelLog.Checkpoint checkpoint = current.checkpoint();
+        log.info(
+                "Copied %d channels for a snapshot in %d ms",
+                snapshot.getChannelCount(), (System.nanoTime() - start) / 1000000
+        );
+        snapshotWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(current, snapshot, checkpoint);
+                } finally {
+                    snapshotWriter = null;
                 }
             }
+        }, "Channel snapshot writer");
+        snapshotWriter.start();
+    }
+
+    private void writeSnapshot(
+            ChannelLog current, ChannelSnapshot snapshot, ChannelLog.Checkpoint checkpoint
+    ) {
+        Path file = ChannelSnapshot.pathFor(config.getWalFile());
+        try {
+            if (!current.awaitCheckpoint(checkpoint)) {
+                // the log closed first; the records the snapshot would
+                // replace are all still in it
+                return;
+            }
+            long start = System.nanoTime();
+            snapshot.write(file, checkpoint);
+            log.info(
+                    "Wrote snapshot of %d channels to %s in %d ms",
+                    snapshot.getChannelCount(), file, (System.nanoTime() - start) / 1000000
+            );
+            current.truncate(checkpoint);
+        } catch (IOException iox) {
+            log.error("Could not write the channel snapshot " + file, iox);
+        } catch (InterruptedException ix) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitSnapshot() {
+        Thread writer = snapshotWriter;
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean openListener() {
+        if (config.getEngine() == ServerConfig.Engine.VIRTUAL && !VirtualThreads.isAvailable()) {
+            log.error(
+                    "The virtual engine needs Java 21 or later, running on "
+                            + System.getProperty("java.version"),
+                    null
+            );
+            return false;
+        }
+        try {
+            if (config.getEngine() == ServerConfig.Engine.NIO) {
+                nioEngine = new NioEngine(this, config);
+            } else {
+                serverSocket = new ServerSocket(
+                        config.getPort(), config.getBacklog(), config.getBindAddress()
+                );
+            }
+        } catch (IOException iox) {
+            log.error("Could not listen on port " + config.getPort(), iox);
+            serverSocket = null;
+            nioEngine = null;
+            return false;
         }
+        int localPort = nioEngine != null
+                ? nioEngine.getLocalPort() : serverSocket.getLocalPort();
+        log.info("Listening on port %d (%s)", localPort, config);
+        return true;
     }
 
     public void stop() {
         running = false;
-        if (serverSocket != null && !serverSocket.isClosed()) {
+        // the disconnections of everyone still connected are not logged, so
+        // that their channels are restored on the next start
+        closeChannelLog();
+        closeListener();
+        if (modelThread != null) {
+            modelThread.interrupt();
+        }
+    }
+
+    private void closeListener() {
+        ServerSocket socket = serverSocket;
+        if (socket != null && !socket.isClosed()) {
             try {
-                serverSocket.close();
+                socket.close();
             } catch (IOException iox) {
-                iox.printStackTrace();
+                log.error("Could not close the listening socket", iox);
             }
         }
-        if (modelThread != null) {
-            modelThread.interrupt();
+        NioEngine engine = nioEngine;
+        if (engine != null) {
+            engine.close();
+        }
+        if (cluster != null) {
+            cluster.close();
         }
     }
 
     // ==========================================================================
-    // Broadcast dispatch
+    // Connection events, reported by the network engines
     // ==========================================================================
 
-    private void dispatchBroadcast(Broadcast broadcast) {
-        if (broadcast == null) {
-            return;
+    /**
+     * Assigns the user ID for a newly accepted connection. Must only be called
+     * from the thread accepting connections.
+     *
+     * @return a user ID that has not been used before
+     */
+    int allocateUserId() {
+        int localId = nextId++;
+        return cluster == null ? localId : cluster.clusterUserId(localId);
+    }
+
+    /**
+     * Records a new client connection and queues its registration.
+     *
+     * @param userId     The ID from {@link #allocateUserId()}
+     * @param connection The connection to send the user's responses on
+     */
+    void connectionOpened(int userId, ClientConnection connection) {
+        connections.put(userId, connection);
+        if (metrics != null) {
+            metrics.connectionOpened();
         }
+        dispatch(TaskRing.REGISTRATION, userId, null, 0);
+    }
 
-        Map<Integer, List<String>> responses = broadcast.getResponses(model);
-        for (int userId : responses.keySet()) {
-            try {
-                Socket clientSocket = openSockets.get(userId);
-                PrintWriter pw = new PrintWriter(clientSocket.getOutputStream());
-                for (String response : responses.get(userId)) {
-                    pw.println(response);
-                    pw.flush();
-                    System.out.printf(
-                            "Response sent to user %d: \"%s\"\n",
-                            userId, response
-                    );
+    /**
+     * Queues a line received from a client as a request for the model thread.
+     *
+     * @param userId The ID of the user who sent the line
+     * @param line   The line, without its line terminator
+     */
+    void lineReceived(int userId, String line) {
+        if (log.shouldTrace()) {
+            log.trace("Request received from user %d: \"%s\"", userId, line);
+        }
+        // Skip an optional ":prefix " without copying the rest of the line
+        int start = 0;
+        if (line.startsWith(":")) {
+            start = line.indexOf(' ') + 1;
+        }
+        dispatch(TaskRing.REQUEST, userId, line, start);
+    }
+
+    /**
+     * Forgets a client connection that was closed and queues the user's
+     * disconnection.
+     *
+     * @param userId The ID of the user whose connection closed
+     */
+    void connectionClosed(int userId) {
+        dispatch(TaskRing.DISCONNECTION, userId, null, 0);
+        ClientConnection connection = connections.remove(userId);
+        if (metrics != null && connection != null) {
+            metrics.connectionClosed(connection.getBytesWritten());
+        }
+    }
+
+    private void dispatch(int kind, int userId, String line, int start) {
+        if (cluster != null) {
+            cluster.submit(kind, userId, line, start);
+        } else {
+            submit(kind, userId, line, start);
+        }
+    }
+
+    private void submit(int kind, int userId, String line, int start) {
+        if (taskRing != null) {
+            taskRing.publish(kind, userId, line, start);
+        } else {
+            taskQueue.add(new Task(
+                    kind, userId, line, start, metrics == null ? 0 : System.nanoTime()
+            ));
+        }
+    }
+
+    // ==========================================================================
+    // Model thread
+    // ==========================================================================
+
+    /**
+     * Runs the model thread. Tasks are taken in batches: the thread waits for
+     * one task, then takes whatever else is queued up to the current batch
+     * limit. Every task's broadcast is applied in order, and the responses for
+     * each connection are collected and sent with a single
+     * {@link ClientConnection#send(List)} per batch.
+     *
+     * The limit adapts between {@link #MIN_BATCH_LIMIT} and the configured
+     * maximum: it doubles while batches fill up, since the queue is backing up
+     * and larger batches amortize more, and halves once they are mostly empty,
+     * so that a quiet server sends each response promptly.
+     */
+    private void runModel() {
+        int maxBatch = config.getModelBatchSize();
+        int batchLimit = Math.min(MIN_BATCH_LIMIT, maxBatch);
+        List<Task> batch = new ArrayList<>(maxBatch);
+        TaskRing.Handler handler = new TaskRing.Handler() {
+            @Override
+            public void onTask(int kind, int userId, String line, int start) {
+                handleTask(kind, userId, line, start);
+            }
+        };
+
+        while (running || !isIdle()) {
+            int size;
+            if (taskRing != null) {
+                if (!taskRing.await()) {
+                    continue;
                 }
-                pw.flush();
-            } catch (IOException iox) {
-                iox.printStackTrace();
+                size = taskRing.drain(handler, batchLimit);
+            } else {
+                try {
+                    batch.add(taskQueue.take());
+                } catch (InterruptedException ix) {
+                    continue;
+                }
+                taskQueue.drainTo(batch, batchLimit - 1);
+                for (Task task : batch) {
+                    if (metrics != null) {
+                        metrics.getQueueWaits().record(System.nanoTime() - task.enqueued);
+                    }
+                    handleTask(task.kind, task.userId, task.line, task.start);
+                }
+                size = batch.size();
+                batch.clear();
+            }
+            responses.send();
+            maybeSnapshot();
+
+            batchSizes.record(size);
+            batchLimit = nextBatchLimit(batchLimit, size, maxBatch);
+        }
+    }
+
+    /**
+     * The batch limit policy of {@link #runModel()}: doubles the limit after a
+     * full batch and halves it after one under a quarter full, keeping it
+     * between {@link #MIN_BATCH_LIMIT}, or the maximum if that is smaller, and
+     * the maximum.
+     *
+     * @param limit    The limit the last batch was taken with
+     * @param size     The number of tasks in the last batch
+     * @param maxBatch The configured maximum batch size
+     * @return the limit for the next batch
+     */
+    static int nextBatchLimit(int limit, int size, int maxBatch) {
+        if (size == limit) {
+            return Math.min(maxBatch, limit * 2);
+        } else if (size < limit / 4) {
+            return Math.max(Math.min(MIN_BATCH_LIMIT, maxBatch), limit / 2);
+        }
+        return limit;
+    }
+
+    private boolean isIdle() {
+        return taskRing != null ? taskRing.isEmpty() : taskQueue.isEmpty();
+    }
+
+    /**
+     * Applies a task to the model and collects the responses of its broadcast.
+     *
+     * @param kind   {@link TaskRing#REGISTRATION}, {@link TaskRing#DISCONNECTION}
+     *               or {@link TaskRing#REQUEST}
+     * @param userId The user the task is for
+     * @param line   The request line, for a request
+     * @param start  The index in {@code line} at which the command starts
+     */
+    private void handleTask(int kind, int userId, String line, int start) {
+        FlightEvents.TaskDequeuedEvent event =
+                FlightEvents.AVAILABLE ? FlightEvents.taskDequeued() : null;
+        try {
+            if (shards == null) {
+                responses.collect(updateModel(kind, userId, line, start));
+            } else {
+                handleSharded(kind, userId, line, start);
+            }
+        } catch (RuntimeException rx) {
+            log.error("Task failed", rx);
+        }
+        if (event != null) {
+            FlightEvents.taskHandled(event, kind, userId);
+        }
+    }
+
+    /**
+     * Routes a channel-scoped request to its shard, or runs any other task on
+     * the model thread once the shards are quiet.
+     */
+    private void handleSharded(int kind, int userId, String line, int start) {
+        Command command = null;
+        if (kind == TaskRing.REQUEST) {
+            command = parseRequest(userId, line, start);
+            if (command == null) {
+                return;
+            }
+            String channel = ModelShards.channelOf(command);
+            if (channel != null) {
+                // responses of earlier tasks, e.g. the sender's CONNECT, must
+                // not be overtaken by the shard's
+                if (!responses.isEmpty()) {
+                    responses.send();
+                }
+                shards.route(channel, command);
+                return;
             }
         }
+        shards.quiesce();
+        if (command != null) {
+            responses.collect(apply(command));
+        } else {
+            responses.collect(updateModel(kind, userId, line, start));
+        }
+    }
+
+    private Broadcast updateModel(int kind, int userId, String line, int start) {
+        switch (kind) {
+            case TaskRing.REGISTRATION:
+                return model.registerUser(userId);
+            case TaskRing.DISCONNECTION:
+                return model.deregisterUser(userId);
+            default:
+                Command command = parseRequest(userId, line, start);
+                return command == null ? null : apply(command);
+        }
+    }
+
+    private Broadcast apply(Command command) {
+        return metrics == null ? model.apply(command) : metrics.apply(command, model);
+    }
+
+    /**
+     * @return the command in a request line, or null if the sender is unknown
+     *         or the line is malformed
+     */
+    private Command parseRequest(int userId, String line, int start) {
+        String sender = model.getNickname(userId);
+        if (sender == null) {
+            log.warn("Nickname for user %d not found", userId);
+            return null;
+        }
+        Command command = CommandParser.parse(userId, sender, line, start, line.length());
+        if (command == null) {
+            log.info("Malformed request from user %d: \"%s\"", userId, line);
+        }
+        return command;
     }
 
     // ==========================================================================
-    // ConnectionWorker
+    // Blocking engine
     // ==========================================================================
 
+    private void acceptBlocking() {
+        ExecutorService workerPool;
+        // Writers only occupy a thread while a connection has queued frames
+        ExecutorService writerPool;
+        if (config.getEngine() == ServerConfig.Engine.VIRTUAL) {
+            workerPool = VirtualThreads.newPerTaskExecutor();
+            writerPool = VirtualThreads.newPerTaskExecutor();
+        } else {
+            workerPool = Executors.newCachedThreadPool();
+            writerPool = Executors.newCachedThreadPool();
+        }
+        try {
+            while (running && !serverSocket.isClosed()) {
+                Socket clientSocket = serverSocket.accept();
+                int userId = allocateUserId();
+                connectionOpened(userId, new SocketConnection(userId, clientSocket, writerPool));
+                workerPool.execute(new ConnectionWorker(userId, clientSocket));
+            }
+        } catch (IOException iox) {
+            if (running) {
+                log.error("Could not accept connections", iox);
+            }
+        } finally {
+            workerPool.shutdown();
+            writerPool.shutdown();
+        }
+    }
+
+    /**
+     * A client connection whose queued frames are written to the socket by a
+     * task on the writer pool, at most one at a time per connection.
+     */
+    private final class SocketConnection implements ClientConnection {
+        private final int userId;
+        private final Socket clientSocket;
+        private final Executor writerPool;
+        private final OutboundQueue outbound;
+        private final AtomicBoolean draining;
+        // Created by the first drain; drains never run concurrently
+        private OutputStream out;
+        private WritableByteChannel channel;
+        // Only written by the drain
+        private volatile long bytesWritten;
+
+        SocketConnection(int userId, Socket clientSocket, Executor writerPool) {
+            this.userId = userId;
+            this.clientSocket = clientSocket;
+            this.writerPool = writerPool;
+            outbound = new OutboundQueue(config.getOutboundCapacity(), config.getOverflowPolicy());
+            draining = new AtomicBoolean(false);
+            bytesWritten = 0;
+        }
+
+        @Override
+        public void send(List<ByteBuffer> frames) throws IOException {
+            for (ByteBuffer frame : frames) {
+                if (!outbound.offer(frame.duplicate())) {
+                    // closing the socket makes the ConnectionWorker report the
+                    // disconnection
+                    log.warn("Disconnecting slow client %d", userId);
+                    close();
+                    return;
+                }
+            }
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    writerPool.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            drain();
+                        }
+                    });
+                } catch (RejectedExecutionException rx) {
+                    // the server is shutting down
+                    draining.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            FlightEvents.SocketWriteStalledEvent stall =
+                    FlightEvents.AVAILABLE ? FlightEvents.writeStalled() : null;
+            long before = bytesWritten;
+            try {
+                if (out == null) {
+                    out = new BufferedOutputStream(clientSocket.getOutputStream());
+                    channel = Channels.newChannel(out);
+                }
+                while (true) {
+                    ByteBuffer frame = outbound.poll();
+                    if (frame == null) {
+                        out.flush();
+                        draining.set(false);
+                        // a frame may have been queued after poll() but before
+                        // the flag was cleared, without starting a new drain
+                        if (outbound.isEmpty() || !draining.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    while (frame.hasRemaining()) {
+                        int written = channel.write(frame);
+                        bytesWritten += written;
+                        if (metrics != null) {
+                            metrics.bytesWritten(written);
+                        }
+                    }
+                }
+            } catch (IOException iox) {
+                draining.set(false);
+                close();
+            } finally {
+                // blocking writes; a drain only lasts long enough to be
+                // recorded if the socket held it up
+                if (stall != null) {
+                    FlightEvents.writeResumed(stall, userId, bytesWritten - before);
+                }
+            }
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void close() {
+            try {
+                clientSocket.close();
+            } catch (IOException iox) {
+                log.error("Could not close connection to user " + userId, iox);
+            }
+        }
+    }
+
     private final class ConnectionWorker implements Runnable {
         private final int userId;
         private final Socket clientSocket;
@@ -195,30 +884,19 @@ final class ServerBackend implements Runnable {
                 while (running && !clientSocket.isClosed()) {
                     String line = reader.readLine();
                     if (line != null) {
-                        System.out.printf(
-                                "Request received from user %d: " +
-                                        "\"%s\"\n",
-                                userId, line
-                        );
-                        String payload;
-                        if (line.startsWith(":")) {
-                            int index = line.indexOf(' ');
-                            payload = line.substring(index + 1);
-                        } else {
-                            payload = line;
-                        }
-                        Request request = new Request(userId, payload);
-                        taskQueue.add(request);
+                        lineReceived(userId, line);
                     } else {
                         clientSocket.close();
-                        taskQueue.add(new Disconnection(userId));
+                        connectionClosed(userId);
                     }
                 }
             } catch (IOException iox) {
-                iox.printStackTrace();
-                taskQueue.add(new Disconnection(userId));
+                if (running) {
+                    log.info("Connection to user %d lost: %s", userId, iox);
+                }
+                connectionClosed(userId);
             } finally {
-                openSockets.remove(userId);
+                connections.remove(userId);
             }
         }
     }
@@ -227,63 +905,25 @@ final class ServerBackend implements Runnable {
     // Tasks
     // ==========================================================================
 
-    private interface Task {
-        Broadcast getBroadcast();
-    }
-
     /**
-     * Represents a client's connection to the server.
+     * A task queued for the model thread when the {@link TaskRing} is not in
+     * use: a client's connection, disconnection or request.
      */
-    private final class Registration implements Task {
+    private static final class Task {
+        private final int kind;
         private final int userId;
-
-        public Registration(int userId) {
+        private final String line;
+        private final int start;
+        // When the task was queued, by System.nanoTime(), if metrics are
+        // enabled
+        private final long enqueued;
+
+        Task(int kind, int userId, String line, int start, long enqueued) {
+            this.kind = kind;
             this.userId = userId;
-        }
-
-        @Override
-        public Broadcast getBroadcast() {
-            return model.registerUser(userId);
-        }
-    }
-
-    /**
-     * Represents a client's disconnection from the server.
-     */
-    private final class Disconnection implements Task {
-        private final int userId;
-
-        public Disconnection(int userId) {
-            this.userId = userId;
-        }
-
-        @Override
-        public Broadcast getBroadcast() {
-            return model.deregisterUser(userId);
-        }
-    }
-
-    /**
-     * Represents an incoming command from a connected client.
-     */
-    private final class Request implements Task {
-        private final int userId;
-        private final String payload;
-
-        public Request(int userId, String payload) {
-            this.userId = userId;
-            this.payload = payload;
-        }
-
-        @Override
-        public Broadcast getBroadcast() {
-            String sender = model.getNickname(userId);
-            if (sender == null) {
-                System.err.println("Nickname for given user ID not found");
-                return null;
-            }
-            Command command = CommandParser.parse(userId, sender, payload);
-            return command.updateServerModel(model);
+            this.line = line;
+            this.start = start;
+            this.enqueued = enqueued;
         }
     }
 }
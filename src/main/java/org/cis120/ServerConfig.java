@@ -0,0 +1,1023 @@
+package org.cis120;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@code ServerConfig} holds the startup settings of a {@link ServerBackend}:
+ * which address and port to listen on, which network engine to use for client
+ * connections, how responses are queued for slow clients, what is logged,
+ * where channels are persisted and which cluster, if any, the server is a node
+ * of.
+ *
+ * Configurations are immutable; start from {@link #defaults()} and use the
+ * {@code with} methods to change individual settings. Settings can also be
+ * supplied by name through {@link #withSetting(String, String)}, which is how
+ * system properties ({@code -Dpennpals.engine=nio}), environment variables
+ * ({@code PENNPALS_ENGINE=nio}) and command line options
+ * ({@code --engine=nio}) are read.
+ */
+final class ServerConfig {
+
+    /**
+     * The network engines a {@link ServerBackend} can run client connections
+     * on.
+     */
+    enum Engine {
+        /**
+         * One thread per connection blocking on socket reads.
+         */
+        BLOCKING,
+
+        /**
+         * A few selector threads multiplexing non-blocking socket channels.
+         */
+        NIO,
+
+        /**
+         * Like {@link #BLOCKING}, but on a virtual thread per connection.
+         * Needs a Java 21 or later runtime.
+         */
+        VIRTUAL
+    }
+
+    /**
+     * How the network engines hand tasks to the model thread.
+     */
+    enum TaskChannel {
+        /**
+         * An unbounded {@code LinkedBlockingQueue} of task objects.
+         */
+        QUEUE,
+
+        /**
+         * A bounded, preallocated {@link TaskRing}.
+         */
+        RING
+    }
+
+    public static final int DEFAULT_PORT = 21212;
+    public static final int DEFAULT_BACKLOG = 50;
+    public static final int DEFAULT_OUTBOUND_CAPACITY = 1024;
+    public static final int DEFAULT_MODEL_BATCH_SIZE = 256;
+    public static final int DEFAULT_RING_CAPACITY = 65536;
+    public static final int DEFAULT_WAL_SYNC_INTERVAL = 100;
+    public static final int DEFAULT_WAL_SNAPSHOT_RECORDS = 100000;
+    public static final int DEFAULT_HISTORY_SEGMENT_SIZE = 1 << 20;
+    public static final int DEFAULT_HISTORY_SEGMENTS = 4;
+    public static final int DEFAULT_RECENT_MESSAGES_MEMORY = 64;
+    public static final int DEFAULT_METRICS_INTERVAL = 10000;
+
+    /**
+     * The names accepted by {@link #withSetting(String, String)}, in the order
+     * they are listed in usage messages.
+     */
+    static final String[] SETTINGS = {
+        "bindAddress", "port", "backlog", "engine", "ioThreads", "outboundCapacity",
+        "overflowPolicy", "modelBatchSize", "modelShards", "taskChannel", "ringCapacity",
+        "waitStrategy", "logLevel", "traceSampleRate", "clusterNodes", "nodeIndex", "walFile",
+        "walSync", "walSyncInterval", "walSnapshotRecords", "historyDir", "historySegmentSize",
+        "historySegments", "recentMessages", "recentMessagesMemory", "metricsPort", "metricsFile",
+        "metricsInterval"
+    };
+
+    // Not final so that the with methods can adjust a fresh copy; a
+    // ServerConfig is never modified once it has been returned.
+    private InetAddress bindAddress;
+    private int port;
+    private int backlog;
+    private Engine engine;
+    private int ioThreads;
+    private int outboundCapacity;
+    private OutboundQueue.OverflowPolicy overflowPolicy;
+    private int modelBatchSize;
+    private int modelShards;
+    private TaskChannel taskChannel;
+    private int ringCapacity;
+    private TaskRing.WaitStrategy waitStrategy;
+    private ServerLog.Level logLevel;
+    private int traceSampleRate;
+    private List<InetSocketAddress> clusterNodes;
+    private int nodeIndex;
+    private Path walFile;
+    private ChannelLog.Sync walSync;
+    private int walSyncInterval;
+    private int walSnapshotRecords;
+    private Path historyDir;
+    private int historySegmentSize;
+    private int historySegments;
+    private int recentMessages;
+    private int recentMessagesMemory;
+    private int metricsPort;
+    private Path metricsFile;
+    private int metricsInterval;
+
+    private ServerConfig() {
+    }
+
+    private ServerConfig copy() {
+        ServerConfig copy = new ServerConfig();
+        copy.bindAddress = bindAddress;
+        copy.port = port;
+        copy.backlog = backlog;
+        copy.engine = engine;
+        copy.ioThreads = ioThreads;
+        copy.outboundCapacity = outboundCapacity;
+        copy.overflowPolicy = overflowPolicy;
+        copy.modelBatchSize = modelBatchSize;
+        copy.modelShards = modelShards;
+        copy.taskChannel = taskChannel;
+        copy.ringCapacity = ringCapacity;
+        copy.waitStrategy = waitStrategy;
+        copy.logLevel = logLevel;
+        copy.traceSampleRate = traceSampleRate;
+        copy.clusterNodes = clusterNodes;
+        copy.nodeIndex = nodeIndex;
+        copy.walFile = walFile;
+        copy.walSync = walSync;
+        copy.walSyncInterval = walSyncInterval;
+        copy.walSnapshotRecords = walSnapshotRecords;
+        copy.historyDir = historyDir;
+        copy.historySegmentSize = historySegmentSize;
+        copy.historySegments = historySegments;
+        copy.recentMessages = recentMessages;
+        copy.recentMessagesMemory = recentMessagesMemory;
+        copy.metricsPort = metricsPort;
+        copy.metricsFile = metricsFile;
+        copy.metricsInterval = metricsInterval;
+        return copy;
+    }
+
+    /**
+     * @return the configuration the server has always used: port 21212 on all
+     *         interfaces with a thread per connection. Clients more than 1024 responses behind
+     *         are disconnected, requests and responses are not logged, channels
+     *         and their messages are not persisted, and the server runs on its
+     *         own rather than in a cluster.
+     */
+    public static ServerConfig defaults() {
+        ServerConfig config = new ServerConfig();
+        config.bindAddress = null;
+        config.port = DEFAULT_PORT;
+        config.backlog = DEFAULT_BACKLOG;
+        config.engine = Engine.BLOCKING;
+        config.ioThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        config.outboundCapacity = DEFAULT_OUTBOUND_CAPACITY;
+        config.overflowPolicy = OutboundQueue.OverflowPolicy.DISCONNECT;
+        config.modelBatchSize = DEFAULT_MODEL_BATCH_SIZE;
+        config.modelShards = 1;
+        config.taskChannel = TaskChannel.QUEUE;
+        config.ringCapacity = DEFAULT_RING_CAPACITY;
+        config.waitStrategy = TaskRing.WaitStrategy.PARK;
+        config.logLevel = ServerLog.Level.INFO;
+        config.traceSampleRate = 1;
+        config.clusterNodes = Collections.emptyList();
+        config.nodeIndex = 0;
+        config.walFile = null;
+        config.walSync = ChannelLog.Sync.BATCH;
+        config.walSyncInterval = DEFAULT_WAL_SYNC_INTERVAL;
+        config.walSnapshotRecords = DEFAULT_WAL_SNAPSHOT_RECORDS;
+        config.historyDir = null;
+        config.historySegmentSize = DEFAULT_HISTORY_SEGMENT_SIZE;
+        config.historySegments = DEFAULT_HISTORY_SEGMENTS;
+        config.recentMessages = 0;
+        config.recentMessagesMemory = DEFAULT_RECENT_MESSAGES_MEMORY;
+        config.metricsPort = 0;
+        config.metricsFile = null;
+        config.metricsInterval = DEFAULT_METRICS_INTERVAL;
+        return config;
+    }
+
+    /**
+     * Reads the configuration from system properties named {@code pennpals.}
+     * followed by a setting name, e.g. {@code pennpals.ioThreads}, using the
+     * {@link #defaults()} for any that are not set.
+     *
+     * @return the configuration
+     * @throws IllegalArgumentException if a property has an invalid value
+     * @see #withSetting(String, String)
+     */
+    public static ServerConfig fromSystemProperties() {
+        return defaults().withSystemProperties();
+    }
+
+    /**
+     * Reads the configuration for a launcher. Settings are taken from, in
+     * increasing order of precedence, the {@link #defaults()}, environment
+     * variables such as {@code PENNPALS_IO_THREADS}, system properties such as
+     * {@code pennpals.ioThreads} and command line options such as
+     * {@code --io-threads=4} or {@code --io-threads 4}.
+     *
+     * @param args The command line arguments
+     * @param env  The environment variables
+     * @return the configuration
+     * @throws IllegalArgumentException if an option is not recognized or a
+     *                                  setting has an invalid value
+     * @see #withSetting(String, String)
+     */
+    public static ServerConfig fromLauncher(String[] args, Map<String, String> env) {
+        ServerConfig config = defaults();
+        for (String name : SETTINGS) {
+            String value = env.get(envName(name));
+            if (value != null) {
+                config = config.withSetting(name, value);
+            }
+        }
+        config = config.withSystemProperties();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int equals = arg.indexOf('=');
+            String option = equals < 0 ? arg.substring(2) : arg.substring(2, equals);
+            String value;
+            if (equals >= 0) {
+                value = arg.substring(equals + 1);
+            } else if (i + 1 < args.length) {
+                value = args[++i];
+            } else {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            config = config.withSetting(settingName(option), value);
+        }
+        return config;
+    }
+
+    private ServerConfig withSystemProperties() {
+        ServerConfig config = this;
+        for (String name : SETTINGS) {
+            String value = System.getProperty("pennpals." + name);
+            if (value != null) {
+                config = config.withSetting(name, value);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * @param name A setting name, e.g. {@code ioThreads}
+     * @return the command line option for the setting, e.g.
+     *         {@code --io-threads}
+     */
+    static String optionName(String name) {
+        StringBuilder option = new StringBuilder("--");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c)) {
+                option.append('-').append(Character.toLowerCase(c));
+            } else {
+                option.append(c);
+            }
+        }
+        return option.toString();
+    }
+
+    /**
+     * @param name A setting name, e.g. {@code ioThreads}
+     * @return the environment variable for the setting, e.g.
+     *         {@code PENNPALS_IO_THREADS}
+     */
+    static String envName(String name) {
+        return "PENNPALS_" + optionName(name).substring(2).replace('-', '_').toUpperCase();
+    }
+
+    private static String settingName(String option) {
+        for (String name : SETTINGS) {
+            if (optionName(name).equals("--" + option)) {
+                return name;
+            }
+        }
+        throw new IllegalArgumentException("Unknown option: --" + option);
+    }
+
+    /**
+     * Changes one setting given by name and textual value. Enum values are
+     * case-insensitive, and a bind address of {@code *} means all interfaces.
+     * Cluster nodes are given as a comma-separated list of {@code host:port}
+     * addresses, or an empty string for none, and an empty write-ahead log
+     * file means none.
+     *
+     * @param name  One of the {@link #SETTINGS}
+     * @param value The value of the setting
+     * @return a copy of this configuration with the setting changed
+     * @throws IllegalArgumentException if the name is not a setting or the
+     *                                  value is invalid for it
+     */
+    public ServerConfig withSetting(String name, String value) {
+        if (!Arrays.asList(SETTINGS).contains(name)) {
+            throw new IllegalArgumentException("Unknown setting: " + name);
+        }
+        try {
+            switch (name) {
+                case "bindAddress":
+                    return withBindAddress(
+                            "*".equals(value) ? null : InetAddress.getByName(value)
+                    );
+                case "port":
+                    return withPort(Integer.parseInt(value));
+                case "backlog":
+                    return withBacklog(Integer.parseInt(value));
+                case "engine":
+                    return withEngine(Engine.valueOf(value.toUpperCase()));
+                case "ioThreads":
+                    return withIoThreads(Integer.parseInt(value));
+                case "outboundCapacity":
+                    return withOutboundCapacity(Integer.parseInt(value));
+                case "overflowPolicy":
+                    return withOverflowPolicy(
+                            OutboundQueue.OverflowPolicy.valueOf(value.toUpperCase())
+                    );
+                case "modelBatchSize":
+                    return withModelBatchSize(Integer.parseInt(value));
+                case "modelShards":
+                    return withModelShards(Integer.parseInt(value));
+                case "taskChannel":
+                    return withTaskChannel(TaskChannel.valueOf(value.toUpperCase()));
+                case "ringCapacity":
+                    return withRingCapacity(Integer.parseInt(value));
+                case "waitStrategy":
+                    return withWaitStrategy(TaskRing.WaitStrategy.valueOf(value.toUpperCase()));
+                case "logLevel":
+                    return withLogLevel(ServerLog.Level.valueOf(value.toUpperCase()));
+                case "traceSampleRate":
+                    return withTraceSampleRate(Integer.parseInt(value));
+                case "clusterNodes":
+                    return withClusterNodes(parseNodes(value));
+                case "nodeIndex":
+                    return withNodeIndex(Integer.parseInt(value));
+                case "walFile":
+                    return withWalFile(value.isEmpty() ? null : Paths.get(value));
+                case "walSync":
+                    return withWalSync(ChannelLog.Sync.valueOf(value.toUpperCase()));
+                case "walSyncInterval":
+                    return withWalSyncInterval(Integer.parseInt(value));
+                case "walSnapshotRecords":
+                    return withWalSnapshotRecords(Integer.parseInt(value));
+                case "historyDir":
+                    return withHistoryDir(value.isEmpty() ? null : Paths.get(value));
+                case "historySegmentSize":
+                    return withHistorySegmentSize(Integer.parseInt(value));
+                case "historySegments":
+                    return withHistorySegments(Integer.parseInt(value));
+                case "recentMessages":
+                    return withRecentMessages(Integer.parseInt(value));
+                case "recentMessagesMemory":
+                    return withRecentMessagesMemory(Integer.parseInt(value));
+                case "metricsPort":
+                    return withMetricsPort(Integer.parseInt(value));
+                case "metricsFile":
+                    return withMetricsFile(value.isEmpty() ? null : Paths.get(value));
+                case "metricsInterval":
+                    return withMetricsInterval(Integer.parseInt(value));
+                default:
+                    throw new AssertionError(name);
+            }
+        } catch (UnknownHostException uhx) {
+            throw new IllegalArgumentException("Unknown address in " + name + ": " + value, uhx);
+        } catch (IllegalArgumentException iax) {
+            throw new IllegalArgumentException(
+                    "Invalid value for " + name + ": " + value, iax
+            );
+        }
+    }
+
+    private static List<InetSocketAddress> parseNodes(String value) throws UnknownHostException {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        if (value.trim().isEmpty()) {
+            return nodes;
+        }
+        for (String node : value.split(",")) {
+            node = node.trim();
+            int colon = node.lastIndexOf(':');
+            if (colon < 1) {
+                throw new IllegalArgumentException("Expected host:port but got " + node);
+            }
+            InetAddress host = InetAddress.getByName(node.substring(0, colon));
+            nodes.add(new InetSocketAddress(host, Integer.parseInt(node.substring(colon + 1))));
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the local address to listen on, or null for all interfaces
+     */
+    public InetAddress getBindAddress() {
+        return bindAddress;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    public OutboundQueue.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getModelBatchSize() {
+        return modelBatchSize;
+    }
+
+    public int getModelShards() {
+        return modelShards;
+    }
+
+    public TaskChannel getTaskChannel() {
+        return taskChannel;
+    }
+
+    public int getRingCapacity() {
+        return ringCapacity;
+    }
+
+    public TaskRing.WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public ServerLog.Level getLogLevel() {
+        return logLevel;
+    }
+
+    public int getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    /**
+     * @return the inter-node addresses of every node in the cluster, in node
+     *         index order, or an empty list if the server is not clustered
+     */
+    public List<InetSocketAddress> getClusterNodes() {
+        return clusterNodes;
+    }
+
+    public int getNodeIndex() {
+        return nodeIndex;
+    }
+
+    /**
+     * @return the write-ahead log of channel changes, or null if channels are
+     *         not persisted
+     */
+    public Path getWalFile() {
+        return walFile;
+    }
+
+    public ChannelLog.Sync getWalSync() {
+        return walSync;
+    }
+
+    public int getWalSyncInterval() {
+        return walSyncInterval;
+    }
+
+    /**
+     * @return the number of logged channel changes after which the channels
+     *         are snapshotted and the log truncated, or 0 if they never are
+     */
+    public int getWalSnapshotRecords() {
+        return walSnapshotRecords;
+    }
+
+    /**
+     * @return the directory channel messages are kept in, or null if they
+     *         are not kept
+     */
+    public Path getHistoryDir() {
+        return historyDir;
+    }
+
+    /**
+     * @return the size in bytes of each file of a channel's message history
+     */
+    public int getHistorySegmentSize() {
+        return historySegmentSize;
+    }
+
+    /**
+     * @return the number of files of each channel's message history that are
+     *         kept
+     */
+    public int getHistorySegments() {
+        return historySegments;
+    }
+
+    /**
+     * @return the number of recent messages each public channel keeps for
+     *         the users who join it, or 0 if they keep none
+     */
+    public int getRecentMessages() {
+        return recentMessages;
+    }
+
+    /**
+     * @return the most memory, in MiB, the recent messages of all channels
+     *         may take together
+     */
+    public int getRecentMessagesMemory() {
+        return recentMessagesMemory;
+    }
+
+    /**
+     * @return the local port metrics are served on over HTTP, or 0 if they
+     *         are not
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return the file metrics are written to, or null if they are not
+     */
+    public Path getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return the milliseconds between writes of the metrics file
+     */
+    public int getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    /**
+     * @return true if the server collects metrics, which it only does when
+     *         they are served or written somewhere
+     */
+    public boolean isMetricsEnabled() {
+        return metricsPort != 0 || metricsFile != null;
+    }
+
+    /**
+     * @param port The TCP port to accept client connections on
+     * @return a copy of this configuration with the given port
+     */
+    public ServerConfig withPort(int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("port out of range");
+        }
+        ServerConfig copy = copy();
+        copy.port = port;
+        return copy;
+    }
+
+    /**
+     * @param bindAddress The local address to listen on, or null for all
+     *                    interfaces
+     * @return a copy of this configuration with the given address
+     */
+    public ServerConfig withBindAddress(InetAddress bindAddress) {
+        ServerConfig copy = copy();
+        copy.bindAddress = bindAddress;
+        return copy;
+    }
+
+    /**
+     * @param backlog The number of pending connections the operating system
+     *                may queue before they are accepted
+     * @return a copy of this configuration with the given backlog
+     * @throws IllegalArgumentException if {@code backlog} is not positive
+     */
+    public ServerConfig withBacklog(int backlog) {
+        if (backlog < 1) {
+            throw new IllegalArgumentException("backlog must be positive");
+        }
+        ServerConfig copy = copy();
+        copy.backlog = backlog;
+        return copy;
+    }
+
+    /**
+     * @param engine The network engine to run connections on
+     * @return a copy of this configuration with the given engine
+     */
+    public ServerConfig withEngine(Engine engine) {
+        if (engine == null) {
+            throw new NullPointerException();
+        }
+        ServerConfig copy = copy();
+        copy.engine = engine;
+        return copy;
+    }
+
+    /**
+     * @param ioThreads The number of selector threads used by the
+     *                  {@link Engine#NIO} engine
+     * @return a copy of this configuration with the given thread count
+     * @throws IllegalArgumentException if {@code ioThreads} is not positive
+     */
+    public ServerConfig withIoThreads(int ioThreads) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("ioThreads must be positive");
+        }
+        ServerConfig copy = copy();
+        copy.ioThreads = ioThreads;
+        return copy;
+    }
+
+    /**
+     * @param outboundCapacity The number of responses that may be queued for
+     *                         a client before its overflow policy applies
+     * @return a copy of this configuration with the given capacity
+     * @throws IllegalArgumentException if {@code outboundCapacity} is not
+     *                                  positive
+     */
+    public ServerConfig withOutboundCapacity(int outboundCapacity) {
+        if (outboundCapacity < 1) {
+            throw new IllegalArgumentException("outboundCapacity must be positive");
+        }
+        ServerConfig copy = copy();
+        copy.outboundCapacity = outboundCapacity;
+        return copy;
+    }
+
+    /**
+     * @param overflowPolicy What to do with clients whose outbound queue is
+     *                       full
+     * @return a copy of this configuration with the given policy
+     */
+    public ServerConfig withOverflowPolicy(OutboundQueue.OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new NullPointerException();
+        }
+        ServerConfig copy = copy();
+        copy.overflowPolicy = overflowPolicy;
+        return copy;
+    }
+
+    /**
+     * @param modelBatchSize The most tasks the model thread takes from its
+     *                       queue at once before sending the responses; 1
+     *                       handles and sends one task at a time
+     * @return a copy of this configuration with the given batch size
+     * @throws IllegalArgumentException if {@code modelBatchSize} is not
+     *                                  positive
+     */
+    public ServerConfig withModelBatchSize(int modelBatchSize) {
+        if (modelBatchSize < 1) {
+            throw new IllegalArgumentException("modelBatchSize must be positive");
+        }
+        ServerConfig copy = copy();
+        copy.modelBatchSize = modelBatchSize;
+        return copy;
+    }
+
+    /**
+     * @param modelShards The number of threads channel-scoped commands are
+     *                    spread over by channel; 1 runs every command on the
+     *                    model thread
+     * @return a copy of this configuration with the given shard count
+     * @throws IllegalArgumentException if {@code modelShards} is not positive
+     */
+    public ServerConfig withModelShards(int modelShards) {
+        if (modelShards < 1) {
+            throw new IllegalArgumentException("modelShards must be positive");
+        }
+        ServerConfig copy = copy();
+        copy.modelShards = modelShards;
+        return copy;
+    }
+
+    /**
+     * @param taskChannel How tasks are handed to the model thread
+     * @return a copy of this configuration with the given task channel
+     */
+    public ServerConfig withTaskChannel(TaskChannel taskChannel) {
+        if (taskChannel == null) {
+            throw new NullPointerException();
+        }
+        ServerConfig copy = copy();
+        copy.taskChannel = taskChannel;
+        return copy;
+    }
+
+    /**
+     * @param ringCapacity The number of tasks the {@link TaskChannel#RING}
+     *                     holds before the network threads wait for the model
+     *                     thread; a power of two of at least
+     *                     {@link TaskRing#MIN_CAPACITY}
+     * @return a copy of this configuration with the given capacity
+     * @throws IllegalArgumentException if {@code ringCapacity} is not a
+     *                                  power of two of at least
+     *                                  {@link TaskRing#MIN_CAPACITY}
+     */
+    public ServerConfig withRingCapacity(int ringCapacity) {
+        if (ringCapacity < TaskRing.MIN_CAPACITY || Integer.bitCount(ringCapacity) != 1) {
+            throw new IllegalArgumentException(
+                    "ringCapacity must be a power of two of at least " + TaskRing.MIN_CAPACITY
+            );
+        }
+        ServerConfig copy = copy();
+        copy.ringCapacity = ringCapacity;
+        return copy;
+    }
+
+    /**
+     * @param waitStrategy How the model thread waits on an empty
+     *                     {@link TaskChannel#RING}
+     * @return a copy of this configuration with the given strategy
+     */
+    public ServerConfig withWaitStrategy(TaskRing.WaitStrategy waitStrategy) {
+        if (waitStrategy == null) {
+            throw new NullPointerException();
+        }
+        ServerConfig copy = copy();
+        copy.waitStrategy = waitStrategy;
+        return copy;
+    }
+
+    /**
+     * @param logLevel The least severe level written to the {@link ServerLog};
+     *                 {@link ServerLog.Level#TRACE} logs protocol traffic
+     * @return a copy of this configuration with the given level
+     */
+    public ServerConfig withLogLevel(ServerLog.Level logLevel) {
+        if (logLevel == null) {
+            throw new NullPointerException();
+        }
+        ServerConfig copy = copy();
+        copy.logLevel = logLevel;
+        return copy;
+    }
+
+    /**
+     * @param traceSampleRate Log only one in every this many requests and
+     *                        responses when tracing
+     * @return a copy of this configuration with the given rate
+     * @throws IllegalArgumentException if {@code traceSampleRate} is not
+     *                                  positive
+     */
+    public ServerConfig withTraceSampleRate(int traceSampleRate) {
+        if (traceSampleRate < 1) {
+            throw new IllegalArgumentException("traceSampleRate must be positive");
+        }
+        ServerConfig copy = copy();
+        copy.traceSampleRate = traceSampleRate;
+        return copy;
+    }
+
+    /**
+     * @param clusterNodes The inter-node address of every node in the
+     *                     cluster, in node index order; the same list must be
+     *                     given to every node. Empty for a standalone server.
+     * @return a copy of this configuration with the given nodes
+     */
+    public ServerConfig withClusterNodes(List<InetSocketAddress> clusterNodes) {
+        if (clusterNodes == null) {
+            throw new NullPointerException();
+        }
+        ServerConfig copy = copy();
+        copy.clusterNodes = Collections.unmodifiableList(new ArrayList<>(clusterNodes));
+        return copy;
+    }
+
+    /**
+     * @param nodeIndex This server's position in the list of
+     *                  {@link #getClusterNodes() cluster nodes}
+     * @return a copy of this configuration with the given index
+     * @throws IllegalArgumentException if {@code nodeIndex} is negative
+     */
+    public ServerConfig withNodeIndex(int nodeIndex) {
+        if (nodeIndex < 0) {
+            throw new IllegalArgumentException("nodeIndex must not be negative");
+        }
+        ServerConfig copy = copy();
+        copy.nodeIndex = nodeIndex;
+        return copy;
+    }
+
+    /**
+     * @param walFile The file to log channel changes to and replay them from
+     *                at startup, or null to keep channels in memory only
+     * @return a copy of this configuration with the given file
+     */
+    public ServerConfig withWalFile(Path walFile) {
+        ServerConfig copy = copy();
+        copy.walFile = walFile;
+        return copy;
+    }
+
+    /**
+     * @param walSync When logged channel changes are forced to disk
+     * @return a copy of this configuration with the given policy
+     */
+    public ServerConfig withWalSync(ChannelLog.Sync walSync) {
+        if (walSync == null) {
+            throw new NullPointerException();
+        }
+        ServerConfig copy = copy();
+        copy.walSync = walSync;
+        return copy;
+    }
+
+    /**
+     * @param walSyncInterval The most milliseconds between syncs of the log
+     *                        with {@link ChannelLog.Sync#INTERVAL}
+     * @return a copy of this configuration with the given interval
+     * @throws IllegalArgumentException if {@code walSyncInterval} is not
+     *                                  positive
+     */
+    public ServerConfig withWalSyncInterval(int walSyncInterval) {
+        if (walSyncInterval < 1) {
+            throw new IllegalArgumentException("walSyncInterval must be positive");
+        }
+        ServerConfig copy = copy();
+        copy.walSyncInterval = walSyncInterval;
+        return copy;
+    }
+
+    /**
+     * @param walSnapshotRecords The number of logged channel changes after
+     *                           which the channels are snapshotted and the
+     *                           log truncated, or 0 to let the log grow
+     * @return a copy of this configuration with the given number
+     * @throws IllegalArgumentException if {@code walSnapshotRecords} is
+     *                                  negative
+     */
+    public ServerConfig withWalSnapshotRecords(int walSnapshotRecords) {
+        if (walSnapshotRecords < 0) {
+            throw new IllegalArgumentException("walSnapshotRecords must not be negative");
+        }
+        ServerConfig copy = copy();
+        copy.walSnapshotRecords = walSnapshotRecords;
+        return copy;
+    }
+
+    /**
+     * @param historyDir The directory to keep the messages sent to each
+     *                   channel in, for {@code HISTORY}, or null to keep none
+     * @return a copy of this configuration with the given directory
+     */
+    public ServerConfig withHistoryDir(Path historyDir) {
+        ServerConfig copy = copy();
+        copy.historyDir = historyDir;
+        return copy;
+    }
+
+    /**
+     * @param historySegmentSize The size in bytes of each file of a channel's
+     *                           message history, which bounds the length of
+     *                           a kept message
+     * @return a copy of this configuration with the given size
+     * @throws IllegalArgumentException if {@code historySegmentSize} is less
+     *                                  than 4096
+     */
+    public ServerConfig withHistorySegmentSize(int historySegmentSize) {
+        if (historySegmentSize < 4096) {
+            throw new IllegalArgumentException("historySegmentSize must be at least 4096");
+        }
+        ServerConfig copy = copy();
+        copy.historySegmentSize = historySegmentSize;
+        return copy;
+    }
+
+    /**
+     * @param historySegments The number of files of each channel's message
+     *                        history to keep; older ones are deleted
+     * @return a copy of this configuration with the given number
+     * @throws IllegalArgumentException if {@code historySegments} is not
+     *                                  positive
+     */
+    public ServerConfig withHistorySegments(int historySegments) {
+        if (historySegments < 1) {
+            throw new IllegalArgumentException("historySegments must be positive");
+        }
+        ServerConfig copy = copy();
+        copy.historySegments = historySegments;
+        return copy;
+    }
+
+    /**
+     * @param recentMessages The number of recent messages each public channel
+     *                       keeps and sends to the users who join it, or 0
+     *                       to keep none
+     * @return a copy of this configuration with the given number
+     * @throws IllegalArgumentException if {@code recentMessages} is negative
+     */
+    public ServerConfig withRecentMessages(int recentMessages) {
+        if (recentMessages < 0) {
+            throw new IllegalArgumentException("recentMessages must not be negative");
+        }
+        ServerConfig copy = copy();
+        copy.recentMessages = recentMessages;
+        return copy;
+    }
+
+    /**
+     * @param recentMessagesMemory The most memory, in MiB, the recent
+     *                             messages of all channels may take together;
+     *                             the least recently used channels lose
+     *                             theirs first
+     * @return a copy of this configuration with the given limit
+     * @throws IllegalArgumentException if {@code recentMessagesMemory} is not
+     *                                  positive
+     */
+    public ServerConfig withRecentMessagesMemory(int recentMessagesMemory) {
+        if (recentMessagesMemory < 1) {
+            throw new IllegalArgumentException("recentMessagesMemory must be positive");
+        }
+        ServerConfig copy = copy();
+        copy.recentMessagesMemory = recentMessagesMemory;
+        return copy;
+    }
+
+    /**
+     * @param metricsPort The port on the loopback address to serve metrics
+     *                    on, in the Prometheus text format, or 0 to serve
+     *                    none
+     * @return a copy of this configuration with the given port
+     */
+    public ServerConfig withMetricsPort(int metricsPort) {
+        if (metricsPort < 0 || metricsPort > 65535) {
+            throw new IllegalArgumentException("metricsPort out of range");
+        }
+        ServerConfig copy = copy();
+        copy.metricsPort = metricsPort;
+        return copy;
+    }
+
+    /**
+     * @param metricsFile The file to write metrics to periodically, in the
+     *                    Prometheus text format, or null to write none
+     * @return a copy of this configuration with the given file
+     */
+    public ServerConfig withMetricsFile(Path metricsFile) {
+        ServerConfig copy = copy();
+        copy.metricsFile = metricsFile;
+        return copy;
+    }
+
+    /**
+     * @param metricsInterval The milliseconds between writes of the metrics
+     *                        file
+     * @return a copy of this configuration with the given interval
+     * @throws IllegalArgumentException if {@code metricsInterval} is not
+     *                                  positive
+     */
+    public ServerConfig withMetricsInterval(int metricsInterval) {
+        if (metricsInterval < 1) {
+            throw new IllegalArgumentException("metricsInterval must be positive");
+        }
+        ServerConfig copy = copy();
+        copy.metricsInterval = metricsInterval;
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "bindAddress=%s port=%d backlog=%d engine=%s ioThreads=%d "
+                        + "outboundCapacity=%d overflowPolicy=%s modelBatchSize=%d "
+                        + "modelShards=%d taskChannel=%s ringCapacity=%d waitStrategy=%s "
+                        + "logLevel=%s traceSampleRate=%d clusterNodes=%s nodeIndex=%d "
+                        + "walFile=%s walSync=%s walSyncInterval=%d walSnapshotRecords=%d "
+                        + "historyDir=%s historySegmentSize=%d historySegments=%d "
+                        + "recentMessages=%d recentMessagesMemory=%d metricsPort=%d "
+                        + "metricsFile=%s metricsInterval=%d",
+                bindAddress == null ? "*" : bindAddress.getHostAddress(), port, backlog,
+                engine, ioThreads, outboundCapacity, overflowPolicy, modelBatchSize,
+                modelShards, taskChannel, ringCapacity, waitStrategy, logLevel, traceSampleRate,
+                formatNodes(), nodeIndex, walFile == null ? "none" : walFile, walSync,
+                walSyncInterval, walSnapshotRecords, historyDir == null ? "none" : historyDir,
+                historySegmentSize, historySegments, recentMessages, recentMessagesMemory,
+                metricsPort, metricsFile == null ? "none" : metricsFile, metricsInterval
+        );
+    }
+
+    private String formatNodes() {
+        if (clusterNodes.isEmpty()) {
+            return "none";
+        }
+        StringBuilder nodes = new StringBuilder();
+        for (InetSocketAddress node : clusterNodes) {
+            if (nodes.length() > 0) {
+                nodes.append(',');
+            }
+            nodes.append(node.getAddress().getHostAddress()).append(':').append(node.getPort());
+        }
+        return nodes.toString();
+    }
+}
@@ -0,0 +1,225 @@
+package org.cis120;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code ServerLog} is the log used by the {@link ServerBackend} and its
+ * network engines. Messages below the configured {@link Level} are discarded
+ * before any formatting happens, so protocol traffic is only logged when
+ * {@link Level#TRACE} is explicitly enabled.
+ *
+ * Logging never blocks the calling thread on output: messages are put into a
+ * bounded ring and formatted and written by a background thread. If the ring
+ * is full the message is dropped and counted instead. Trace messages can
+ * additionally be sampled, keeping only one in every N.
+ */
+final class ServerLog {
+
+    /**
+     * Log levels, from most to least severe.
+     */
+    enum Level {
+        ERROR, WARN, INFO,
+
+        /**
+         * Every request received and response sent.
+         */
+        TRACE
+    }
+
+    /**
+     * Where formatted log lines are written. Called only from the log's
+     * background thread.
+     */
+    interface Sink {
+        void write(Level level, String line);
+    }
+
+    /**
+     * Writes errors and warnings to {@code System.err} and everything else to
+     * {@code System.out}.
+     */
+    static final Sink CONSOLE = new Sink() {
+        @Override
+        public void write(Level level, String line) {
+            if (level.compareTo(Level.WARN) <= 0) {
+                System.err.println(line);
+            } else {
+                System.out.println(line);
+            }
+        }
+    };
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private final Level level;
+    private final int traceSampleRate;
+    private final Sink sink;
+    private final BlockingQueue<Entry> ring;
+    private final AtomicLong traceCount;
+    private final AtomicLong dropped;
+    private final Thread writer;
+    private volatile boolean open;
+
+    /**
+     * Creates a log and starts its background thread.
+     *
+     * @param level           The least severe level that is logged
+     * @param traceSampleRate Log only one in every this many trace messages
+     * @param sink            Where to write log lines
+     * @throws IllegalArgumentException if {@code traceSampleRate} is not
+     *                                  positive
+     */
+    ServerLog(Level level, int traceSampleRate, Sink sink) {
+        this(level, traceSampleRate, sink, DEFAULT_CAPACITY);
+    }
+
+    ServerLog(Level level, int traceSampleRate, Sink sink, int capacity) {
+        if (level == null || sink == null) {
+            throw new NullPointerException();
+        }
+        if (traceSampleRate < 1) {
+            throw new IllegalArgumentException("traceSampleRate must be positive");
+        }
+        this.level = level;
+        this.traceSampleRate = traceSampleRate;
+        this.sink = sink;
+        ring = new ArrayBlockingQueue<>(capacity);
+        traceCount = new AtomicLong();
+        dropped = new AtomicLong();
+        open = true;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "Log writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @param level A log level
+     * @return true if messages at the given level are logged
+     */
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) <= 0;
+    }
+
+    /**
+     * Decides whether the next trace message should be logged, taking
+     * sampling into account. Call sites should check this before building the
+     * arguments of a {@link #trace(String, Object...)} call.
+     *
+     * @return true if a trace message should be logged now
+     */
+    public boolean shouldTrace() {
+        if (level != Level.TRACE) {
+            return false;
+        }
+        return traceSampleRate == 1 || traceCount.getAndIncrement() % traceSampleRate == 0;
+    }
+
+    /**
+     * Logs a trace message. Sampling is decided by {@link #shouldTrace()},
+     * which the caller is expected to have checked.
+     */
+    public void trace(String format, Object... args) {
+        enqueue(Level.TRACE, format, args, null);
+    }
+
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, args, null);
+    }
+
+    public void warn(String format, Object... args) {
+        log(Level.WARN, format, args, null);
+    }
+
+    public void error(String message, Throwable cause) {
+        log(Level.ERROR, "%s", new Object[] { message }, cause);
+    }
+
+    /**
+     * @return the number of messages dropped because the ring was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes out the messages still in the ring and stops the background
+     * thread, waiting at most one second.
+     */
+    public void close() {
+        open = false;
+        writer.interrupt();
+        try {
+            writer.join(1000);
+        } catch (InterruptedException ix) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void log(Level level, String format, Object[] args, Throwable cause) {
+        if (isEnabled(level)) {
+            enqueue(level, format, args, cause);
+        }
+    }
+
+    private void enqueue(Level level, String format, Object[] args, Throwable cause) {
+        if (!ring.offer(new Entry(level, format, args, cause))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void drain() {
+        while (open || !ring.isEmpty()) {
+            Entry entry;
+            try {
+                entry = ring.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ix) {
+                continue;
+            }
+            if (entry != null) {
+                try {
+                    sink.write(entry.level, entry.format());
+                } catch (RuntimeException rx) {
+                    rx.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * A message waiting in the ring, formatted only once it is written.
+     */
+    private static final class Entry {
+        private final Level level;
+        private final String format;
+        private final Object[] args;
+        private final Throwable cause;
+
+        Entry(Level level, String format, Object[] args, Throwable cause) {
+            this.level = level;
+            this.format = format;
+            this.args = args;
+            this.cause = cause;
+        }
+
+        String format() {
+            String line = String.format(format, args);
+            if (cause == null) {
+                return line;
+            }
+            StringWriter trace = new StringWriter();
+            cause.printStackTrace(new PrintWriter(trace));
+            return line + System.lineSeparator() + trace;
+        }
+    }
+}
@@ -11,6 +11,10 @@ import java.awt.event.ActionListener;
  * UI is closed, using the standard operating system "X" control, the
  * server is shut down.
  *
+ * The network engine and port can be chosen with system properties; see
+ * {@link ServerConfig#fromSystemProperties()}. To run the server without a
+ * display, use {@link HeadlessServer} instead.
+ *
  * You do not need to modify this file.
  */
 
@@ -31,7 +35,9 @@ public final class ServerMain {
         frame.setSize(new Dimension(250, 150));
 
         final ServerModel state = new ServerModel();
-        final ServerBackend server = new ServerBackend(state);
+        final ServerBackend server = new ServerBackend(
+                state, ServerConfig.fromSystemProperties()
+        );
         final Timer timer = new Timer(100, null);
 
         timer.addActionListener(new ActionListener() {
@@ -0,0 +1,261 @@
+package org.cis120;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and histograms a {@link ServerBackend} keeps about itself
+ * when metrics are enabled, and their rendering in the Prometheus text
+ * exposition format for the {@link MetricsExporter}.
+ *
+ * Everything is recorded from whichever thread observes it: the network
+ * engines count connections and bytes written, and the model thread and
+ * {@link ModelShards} time tasks and commands. Each record is an atomic
+ * increment or two, on a {@link Log2Histogram} or a {@code LongAdder}, so
+ * the threads never wait on one another and nothing is allocated. Times are
+ * recorded in nanoseconds and exported in seconds.
+ */
+final class ServerMetrics {
+
+    private static final String PREFIX = "pennpals_";
+
+    // Buckets exported for times, from about 1 microsecond to about a minute
+    // in nanoseconds, for sizes, and for bytes
+    private static final int FIRST_TIME_BUCKET = 10;
+    private static final int LAST_TIME_BUCKET = 36;
+    private static final int LAST_SIZE_BUCKET = 20;
+    private static final int LAST_BYTES_BUCKET = 40;
+
+    private final Log2Histogram queueWaits;
+    private final Log2Histogram batchSizes;
+    // The execution time of each type of command, by command class; only
+    // read once constructed
+    private final Map<Class<?>, Log2Histogram> commandTimes;
+    private final Map<Class<?>, String> commandNames;
+    private final Log2Histogram fanOuts;
+    private final Log2Histogram connectionBytes;
+    private final LongAdder bytesWritten;
+    private final LongAdder connectionsOpened;
+    private final LongAdder connectionsClosed;
+
+    /**
+     * @param batchSizes The model thread's batch sizes, to export with the
+     *                   rest
+     */
+    ServerMetrics(Log2Histogram batchSizes) {
+        this.batchSizes = batchSizes;
+        queueWaits = new Log2Histogram();
+        commandTimes = new HashMap<>();
+        commandNames = new LinkedHashMap<>();
+        addCommand(NicknameCommand.class, "NICK");
+        addCommand(CreateCommand.class, "CREATE");
+        addCommand(JoinCommand.class, "JOIN");
+        addCommand(MessageCommand.class, "MESG");
+        addCommand(LeaveCommand.class, "LEAVE");
+        addCommand(InviteCommand.class, "INVITE");
+        addCommand(KickCommand.class, "KICK");
+        addCommand(HistoryCommand.class, "HISTORY");
+        fanOuts = new Log2Histogram();
+        connectionBytes = new Log2Histogram();
+        bytesWritten = new LongAdder();
+        connectionsOpened = new LongAdder();
+        connectionsClosed = new LongAdder();
+    }
+
+    private void addCommand(Class<? extends Command> type, String name) {
+        commandTimes.put(type, new Log2Histogram());
+        commandNames.put(type, name);
+    }
+
+    // ==========================================================================
+    // Recording
+    // ==========================================================================
+
+    /**
+     * @return the histogram of the nanoseconds tasks wait between being
+     *         queued for the model thread and being taken
+     */
+    Log2Histogram getQueueWaits() {
+        return queueWaits;
+    }
+
+    /**
+     * Applies a command to the model, timing it by its type.
+     *
+     * @param command The command
+     * @param model   The model
+     * @return the command's broadcast
+     */
+    Broadcast apply(Command command, ServerModel model) {
+        long start = System.nanoTime();
+        try {
+            return model.apply(command);
+        } finally {
+            Log2Histogram times = commandTimes.get(command.getClass());
+            if (times != null) {
+                times.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * @param type A command class
+     * @return the histogram of the nanoseconds commands of that class take,
+     *         or null if they are not timed
+     */
+    Log2Histogram getCommandTimes(Class<? extends Command> type) {
+        return commandTimes.get(type);
+    }
+
+    /**
+     * @param recipients The number of users a broadcast has responses for
+     */
+    void broadcastCollected(int recipients) {
+        fanOuts.record(recipients);
+    }
+
+    Log2Histogram getFanOuts() {
+        return fanOuts;
+    }
+
+    /**
+     * @param bytes The number of bytes a connection just wrote to its socket
+     */
+    void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    /**
+     * @param bytes The number of bytes the connection wrote over its life
+     */
+    void connectionClosed(long bytes) {
+        connectionsClosed.increment();
+        connectionBytes.record(bytes);
+    }
+
+    /**
+     * @return the number of connections opened and not yet closed
+     */
+    long getOpenConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    // ==========================================================================
+    // Export
+    // ==========================================================================
+
+    /**
+     * @return every metric in the Prometheus text exposition format, version
+     *         0.0.4
+     */
+    String format() {
+        StringBuilder out = new StringBuilder(8192);
+        header(out, "connections_opened_total", "counter", "Client connections accepted");
+        sample(out, "connections_opened_total", "", connectionsOpened.sum());
+        header(out, "connections_open", "gauge", "Client connections currently open");
+        sample(out, "connections_open", "", getOpenConnections());
+        header(out, "bytes_written_total", "counter", "Bytes written to client sockets");
+        sample(out, "bytes_written_total", "", bytesWritten.sum());
+        header(out, "connection_bytes_written", "histogram",
+                "Bytes written to each client over its connection, once closed");
+        counts(out, "connection_bytes_written", "", connectionBytes, LAST_BYTES_BUCKET);
+
+        header(out, "task_queue_wait_seconds", "histogram",
+                "Time tasks wait to be taken by the model thread");
+        times(out, "task_queue_wait_seconds", "", queueWaits);
+        header(out, "model_batch_size", "histogram", "Tasks taken by the model thread at once");
+        counts(out, "model_batch_size", "", batchSizes, LAST_SIZE_BUCKET);
+        header(out, "command_duration_seconds", "histogram",
+                "Time taken to apply each type of command to the model");
+        for (Map.Entry<Class<?>, String> entry : commandNames.entrySet()) {
+            times(out, "command_duration_seconds", "command=\"" + entry.getValue() + "\",",
+                    commandTimes.get(entry.getKey()));
+        }
+        header(out, "broadcast_recipients", "histogram", "Users each broadcast has responses for");
+        counts(out, "broadcast_recipients", "", fanOuts, LAST_SIZE_BUCKET);
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(PREFIX).append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Writes a histogram of nanoseconds with buckets in seconds. Bucket
+     * {@code i} holds times below {@code 2^i} nanoseconds.
+     *
+     * @param labels The series' labels, each followed by a comma
+     */
+    private static void times(
+            StringBuilder out, String name, String labels, Log2Histogram histogram
+    ) {
+        long cumulative = 0;
+        for (int i = 0; i <= LAST_TIME_BUCKET; i++) {
+            cumulative += histogram.getCount(i);
+            if (i >= FIRST_TIME_BUCKET) {
+                bucket(out, name, labels, Double.toString((1L << i) / 1e9), cumulative);
+            }
+        }
+        summarize(out, name, labels, histogram, cumulative, LAST_TIME_BUCKET,
+                Double.toString(histogram.getSum() / 1e9));
+    }
+
+    /**
+     * Writes a histogram of counts, with a bucket for each power of two up
+     * to {@code 2^last - 1}.
+     */
+    private static void counts(
+            StringBuilder out, String name, String labels, Log2Histogram histogram, int last
+    ) {
+        long cumulative = 0;
+        for (int i = 0; i <= last; i++) {
+            cumulative += histogram.getCount(i);
+            bucket(out, name, labels, Long.toString(Log2Histogram.upperBound(i)), cumulative);
+        }
+        summarize(out, name, labels, histogram, cumulative, last,
+                Long.toString(histogram.getSum()));
+    }
+
+    private static void bucket(
+            StringBuilder out, String name, String labels, String le, long count
+    ) {
+        out.append(PREFIX).append(name).append("_bucket{").append(labels)
+                .append("le=\"").append(le).append("\"} ").append(count).append('\n');
+    }
+
+    private static void summarize(
+            StringBuilder out, String name, String labels, Log2Histogram histogram,
+            long cumulative, int last, String sum
+    ) {
+        for (int i = last + 1; i < Log2Histogram.BUCKETS; i++) {
+            cumulative += histogram.getCount(i);
+        }
+        bucket(out, name, labels, "+Inf", cumulative);
+        String series = labels.isEmpty() ? "" : labels.substring(0, labels.length() - 1);
+        out.append(PREFIX).append(name).append("_sum");
+        if (!series.isEmpty()) {
+            out.append('{').append(series).append('}');
+        }
+        out.append(' ').append(sum).append('\n');
+        sample(out, name + "_count", series, cumulative);
+    }
+}
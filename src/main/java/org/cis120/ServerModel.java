@@ -1,6 +1,9 @@
 package org.cis120;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /*
  * Make sure to write your own tests in ServerModelTest.java.
@@ -15,19 +18,230 @@ import java.util.*;
  * 1. handle commands from clients, and
  * 2. handle commands from {@link ServerBackend} to coordinate
  * client connection/disconnection.
+ *
+ * The model is not generally thread-safe, but it supports the backend's
+ * sharded mode (see {@link ModelShards}): commands on different channels
+ * ({@code CREATE}, {@code JOIN}, {@code MESG}, {@code LEAVE},
+ * {@code INVITE}, {@code KICK} and {@code HISTORY}) may run concurrently on different
+ * threads, as long as commands on the same channel run on the same thread
+ * and registration, deregistration and {@code NICK} run while no other
+ * command is running. Those commands only write the channel they name and
+ * the membership sets of the users involved, which are concurrent; the user
+ * tables are only written by the exclusive operations.
+ *
+ * Successful channel mutations are reported to a {@link Journal}, if one is
+ * set, so that they can be logged and replayed after a restart. Users
+ * restored by a replay are <em>offline</em>: they keep their nicknames,
+ * channels and invitations but have no connection, and a connected user
+ * takes one over by changing to its nickname. The channels can also be
+ * copied into, and restored from, a {@link ChannelSnapshot}.
+ *
+ * If a {@link MessageHistory} is set, every message sent to a channel is
+ * appended to it, and a channel's history is deleted along with the channel.
+ * If a {@link RecentMessages.Budget} is set, public channels also keep their
+ * last few messages in memory for the users who join them.
  */
 public final class ServerModel {
 
+    /**
+     * Receives every successful change to the channels and their members, in
+     * the order each channel saw them. Users are given by nickname, since user
+     * IDs do not outlive a connection. Called on the thread applying the
+     * change, which may be a model shard, so implementations must be
+     * thread-safe.
+     */
+    interface Journal {
+        void created(String channel, String owner, boolean inviteOnly);
+
+        void joined(String channel, String user);
+
+        void invited(String channel, String user);
+
+        /**
+         * Kicking the owner deletes the channel.
+         */
+        void kicked(String channel, String user);
+
+        /**
+         * The owner leaving, which includes disconnecting, deletes the
+         * channel.
+         */
+        void left(String channel, String user);
+
+        void renamed(String oldNickname, String newNickname);
+    }
+
+    // IDs handed out by restoreUser count down from here; the backend's are
+    // never negative, and -1 means "no such user"
+    private static final int FIRST_OFFLINE_ID = -2;
+
     /**
      * Constructs a {@code ServerModel}. Make sure to initialize any collections
      * used to model the server state here.
      */
     private Map<String, Channel> channels;
     private Map<Integer, String> users;
+    // reverse index of users so that nickname -> id lookups do not have to
+    // scan every registered user. Must be kept in sync with users.
+    private Map<String, Integer> userIds;
+    // default nicknames for users who connect, kept in step with userIds:
+    // every nickname removed from it is released
+    private NicknameAllocator nicknames;
+    // names of the channels each user is a member of, so that disconnects and
+    // nickname changes only visit those channels instead of every channel.
+    private Map<Integer, Set<String>> memberships;
+    private Journal journal;
+    private MessageHistory history;
+    private RecentMessages.Budget recentMessages;
+    private int nextOfflineId;
 
     public ServerModel() {
-        users = new TreeMap<>();
-        channels = new TreeMap<>();
+        users = new HashMap<>();
+        userIds = new HashMap<>();
+        nicknames = new NicknameAllocator(userIds.keySet());
+        memberships = new ConcurrentHashMap<>();
+        channels = new ConcurrentSkipListMap<>();
+        journal = null;
+        history = null;
+        recentMessages = null;
+        nextOfflineId = FIRST_OFFLINE_ID;
+    }
+
+    /**
+     * Sets where channel changes are reported from now on. Must be called
+     * before the model is shared with other threads.
+     *
+     * @param journal The journal, or null for none
+     */
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets where messages are kept from now on. Must be called before the
+     * model is shared with other threads, and after any replay, so that the
+     * channels it recreates keep their histories.
+     *
+     * @param history The history, or null to keep none
+     */
+    void setHistory(MessageHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * Makes public channels keep their recent messages from now on. Must be
+     * called before the model is shared with other threads.
+     *
+     * @param budget The memory the channels' rings share, or null to keep
+     *               no recent messages
+     */
+    void setRecentMessages(RecentMessages.Budget budget) {
+        this.recentMessages = budget;
+    }
+
+    /**
+     * Finds a user by nickname, or registers an offline user with that
+     * nickname if there is none. Used to replay a {@link Journal}.
+     *
+     * @param nickname The user's nickname
+     * @return the user's ID
+     */
+    int restoreUser(String nickname) {
+        int userId = getUserId(nickname);
+        if (userId != -1) {
+            return userId;
+        }
+        return addOfflineUser(nickname, newMembershipSet());
+    }
+
+    private int addOfflineUser(String nickname, Set<String> userChannels) {
+        int userId = nextOfflineId--;
+        users.put(userId, nickname);
+        userIds.put(nickname, userId);
+        memberships.put(userId, userChannels);
+        return userId;
+    }
+
+    /**
+     * Adds channels and their members, as offline users, to a model that has
+     * no users or channels yet. Used to load a {@link ChannelSnapshot}; the
+     * changes are not journaled.
+     *
+     * Rather than joining each member to each channel in turn, the channels
+     * of each user are counted first, so that every membership set is made
+     * once at its final size and filled while it is in the cache; a restart
+     * with a million channels spends most of its time on those sets.
+     *
+     * @param nicknames  The nicknames of the members
+     * @param names      The channels' names
+     * @param inviteOnly Whether each channel is invite-only
+     * @param owners     The owner of each channel, as an index into
+     *                   {@code nicknames}
+     * @param members    The members of each channel, including the owner, as
+     *                   indexes into {@code nicknames}; overwritten
+     */
+    void restoreChannels(
+            String[] nicknames, String[] names, boolean[] inviteOnly, int[] owners, int[][] members
+    ) {
+        int[] counts = new int[nicknames.length];
+        for (int[] channelMembers : members) {
+            for (int member : channelMembers) {
+                counts[member]++;
+            }
+        }
+        int[] ids = new int[nicknames.length];
+        String[][] channelsByUser = new String[nicknames.length][];
+        for (int i = 0; i < nicknames.length; i++) {
+            ids[i] = addOfflineUser(nicknames[i], newMembershipSet(counts[i]));
+            channelsByUser[i] = new String[counts[i]];
+            counts[i] = 0;
+        }
+
+        for (int c = 0; c < names.length; c++) {
+            int[] channelMembers = members[c];
+            for (int m = 0; m < channelMembers.length; m++) {
+                int member = channelMembers[m];
+                channelsByUser[member][counts[member]++] = names[c];
+                channelMembers[m] = ids[member];
+            }
+            Channel channel = new Channel(ids[owners[c]], inviteOnly[c]);
+            // in ascending order every member is added at the end
+            Arrays.sort(channelMembers);
+            for (int member : channelMembers) {
+                channel.addUser(member);
+            }
+            channels.put(names[c], channel);
+        }
+
+        for (int i = 0; i < nicknames.length; i++) {
+            Collections.addAll(memberships.get(ids[i]), channelsByUser[i]);
+        }
+    }
+
+    /**
+     * Copies the channels and the nicknames of their members. Must be called
+     * while no command is running, so that the copy is consistent.
+     *
+     * @return the copy, which no longer refers to the model
+     */
+    ChannelSnapshot snapshotChannels() {
+        ChannelSnapshot snapshot = new ChannelSnapshot();
+        for (Map.Entry<Integer, Set<String>> entry : memberships.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                snapshot.addUser(entry.getKey(), users.get(entry.getKey()));
+            }
+        }
+        for (Map.Entry<String, Channel> entry : channels.entrySet()) {
+            Channel channel = entry.getValue();
+            snapshot.addChannel(
+                    entry.getKey(), channel.getPrivacy(), channel.getOwner(), channel.getUserList()
+            );
+        }
+        return snapshot;
+    }
+
+    private static boolean isOffline(int userId) {
+        return userId <= FIRST_OFFLINE_ID;
     }
 
     // =========================================================================
@@ -46,15 +260,12 @@ public final class ServerModel {
      *         such a user exists, otherwise -1
      */
     public int getUserId(String nickname) {
-
-        for (Map.Entry<Integer, String> entry : users.entrySet()) {
-            // if nickname matches the value then return its key
-            if (nickname.equals(entry.getValue())) {
-                return entry.getKey();
-            }
+        Integer userId = userIds.get(nickname);
+        // if no user has this nickname then return -1
+        if (userId == null) {
+            return -1;
         }
-        // if no value matched nickname then return -1
-        return -1;
+        return userId;
     }
 
     /**
@@ -68,12 +279,7 @@ public final class ServerModel {
      *         such a user exists, otherwise null
      */
     public String getNickname(int userId) {
-        for (Map.Entry<Integer, String> entry : users.entrySet()) {
-            if (entry.getKey() == userId) {
-                return entry.getValue();
-            }
-        }
-        return null;
+        return users.get(userId);
     }
 
     /**
@@ -123,7 +329,7 @@ public final class ServerModel {
         if (channels.get(channelName) == null) {
             return result;
         } else {
-            result = channels.get(channelName).getUserList();
+            result = nicknamesIn(channels.get(channelName));
             return result;
         }
     }
@@ -142,8 +348,24 @@ public final class ServerModel {
         if (channels.get(channelName) == null) {
             return null;
         } else {
-            return channels.get(channelName).getOwner();
+            return getNickname(channels.get(channelName).getOwner());
+        }
+    }
+
+    /**
+     * Applies a command received from a client, as the backend does. Unlike
+     * calling {@link Command#updateServerModel(ServerModel)} directly, the
+     * command is reported to the {@link FlightEvents} of a Flight Recorder
+     * recording that wants it.
+     *
+     * @param command The command
+     * @return the command's broadcast
+     */
+    public Broadcast apply(Command command) {
+        if (FlightEvents.AVAILABLE) {
+            return FlightEvents.command(command, this);
         }
+        return command.updateServerModel(this);
     }
 
     // ===============================================
@@ -169,6 +391,8 @@ public final class ServerModel {
         // the Broadcast for you. You need to modify this method to
         // store the new user's ID and username in this model's internal state.
         users.put(userId, nickname);
+        userIds.put(nickname, userId);
+        memberships.put(userId, newMembershipSet());
         return Broadcast.connected(nickname);
     }
 
@@ -181,13 +405,7 @@ public final class ServerModel {
      * @return The generated nickname
      */
     private String generateUniqueNickname() {
-        int suffix = 0;
-        String nickname;
-        Collection<String> existingUsers = getRegisteredUsers();
-        do {
-            nickname = "User" + suffix++;
-        } while (existingUsers.contains(nickname));
-        return nickname;
+        return nicknames.allocate();
     }
 
     /**
@@ -213,6 +431,9 @@ public final class ServerModel {
         String nickname = getNickname(userId);
         Collection<String> recipients = deleteChannelsAndReturnRecipients(userId);
         users.remove(userId);
+        userIds.remove(nickname);
+        nicknames.release(nickname);
+        memberships.remove(userId);
         return Broadcast.disconnected(nickname, recipients);
     }
 
@@ -228,29 +449,207 @@ public final class ServerModel {
      */
     private Set<String> deleteChannelsAndReturnRecipients(int id) {
         Set<String> result = new TreeSet<>();
-        Collection<String> listOfAllChannels = channels.keySet();
-        String username = getNickname(id);
-        Set<String> clone = new TreeSet<>();
-
-        for (String c : listOfAllChannels) {
-            if (channels.get(c).contains(username)) {
-                channels.get(c).removeUser(username);
-                result.addAll(channels.get(c).getUserList());
+        String nickname = getNickname(id);
+
+        // removing owned channels alters the membership index, so walk a copy
+        // of the channels this user is in. An owner is always a member of the
+        // channels they own, so this also covers every channel to delete.
+        for (String c : new ArrayList<>(channelsOf(id))) {
+            Channel channel = channels.get(c);
+            removeFromChannel(channel, id, nickname);
+            leaveMembership(id, c);
+            if (journal != null) {
+                journal.left(c, nickname);
             }
-            if (channels.get(c).getOwner().equals(username)) {
-                clone.add(c);
+            result.addAll(nicknamesIn(channel));
+            if (channel.getOwner() == id) {
+                removeChannel(c);
             }
         }
-        // the only way to get rid of my ConcurrentModificationError is to create a
-        // clone of removed channels
-        // and use that to alter channels state.
-        for (String c : clone) {
-            channels.remove(c);
+
+        return result;
+    }
+
+    /**
+     * Resolves the user IDs stored in a channel to the users' current
+     * nicknames. Does not alter server's internal state.
+     *
+     * @param channel whose members to look up
+     * @return set of nicknames of all users in the channel, including the
+     *         owner, in ascending order
+     */
+    private SortedSet<String> nicknamesIn(Channel channel) {
+        SortedSet<String> result = new TreeSet<>();
+        Channel.Members members = channel.getMembers();
+        for (int i = 0; i < members.size(); i++) {
+            result.add(getNickname(members.get(i)));
         }
+        return result;
+    }
 
+    /**
+     * Like {@link #nicknamesIn(Channel)}, without copying: a view of the
+     * channel's members as they are now, which resolves their nicknames as
+     * it is iterated, e.g. by {@link Broadcast#okay(Command, Collection)}.
+     * Changes to the channel's members do not show in the view, but
+     * nickname changes do, so it must be used before any.
+     *
+     * @param channel whose members to look up
+     * @return unmodifiable collection of the nicknames of all users in the
+     *         channel, including the owner, in no particular order
+     */
+    private Collection<String> nicknameView(Channel channel) {
+        final Channel.Members members = channel.getMembers();
+        return new AbstractCollection<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < members.size();
+                    }
+
+                    @Override
+                    public String next() {
+                        if (next >= members.size()) {
+                            throw new NoSuchElementException();
+                        }
+                        return getNickname(members.get(next++));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return members.size();
+            }
+        };
+    }
+
+    /**
+     * Helper for {@link #joinChannel(JoinCommand)} and
+     * {@link #inviteUser(InviteCommand)}
+     * Gives the NAMES payload of a channel a user has just been added to, and
+     * caches it in the channel: the payload cached before the user was added,
+     * patched, or else one built from the members' nicknames, which are only
+     * sorted in that case.
+     *
+     * @param channel  the channel, with the user added
+     * @param cached   the channel's payload from before the user was added,
+     *                 or null
+     * @param nickname the nickname of the user added
+     * @return the payload for the channel's members
+     */
+    private String namesPayloadAfterJoin(Channel channel, String cached, String nickname) {
+        String payload = cached != null
+                ? NamesPayload.insert(cached, nickname)
+                : NamesPayload.build(getNickname(channel.getOwner()), nicknamesIn(channel));
+        channel.setNamesPayload(payload);
+        return payload;
+    }
+
+    /**
+     * Removes a user, who is not the owner, from a channel, patching the
+     * channel's NAMES payload if it has one.
+     *
+     * @param channel  the channel
+     * @param userId   the ID of the user to remove
+     * @param nickname the nickname of the user to remove
+     */
+    private void removeFromChannel(Channel channel, int userId, String nickname) {
+        String cached = channel.getNamesPayload();
+        channel.removeUser(userId);
+        if (cached != null) {
+            channel.setNamesPayload(NamesPayload.remove(cached, nickname));
+        }
+    }
+
+    /**
+     * Gets the names of all channels the given user is a member of, without
+     * scanning all channels. Does not alter server's internal state; the
+     * returned set must not be modified by the caller.
+     *
+     * @param id of the user
+     * @return set of channel names, empty if the user is in no channels
+     */
+    private Set<String> channelsOf(int id) {
+        Set<String> result = memberships.get(id);
+        if (result == null) {
+            return Collections.emptySet();
+        }
         return result;
     }
 
+    /**
+     * @return an empty set of channel names that channel-scoped commands
+     *         running on different threads can update concurrently
+     */
+    private static Set<String> newMembershipSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * @param expected The number of channels the set will hold
+     * @return an empty set of channel names like {@link #newMembershipSet()}
+     *         that holds that many without growing
+     */
+    private static Set<String> newMembershipSet(int expected) {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(expected));
+    }
+
+    /**
+     * Records in the membership index that a user is now in a channel.
+     *
+     * @param id          of the user that was added to the channel
+     * @param channelName of the channel
+     */
+    private void joinMembership(int id, String channelName) {
+        Set<String> userChannels = memberships.get(id);
+        if (userChannels == null) {
+            userChannels = newMembershipSet();
+            memberships.put(id, userChannels);
+        }
+        userChannels.add(channelName);
+    }
+
+    /**
+     * Records in the membership index that a user is no longer in a channel.
+     *
+     * @param id          of the user that was removed from the channel
+     * @param channelName of the channel
+     */
+    private void leaveMembership(int id, String channelName) {
+        Set<String> userChannels = memberships.get(id);
+        if (userChannels != null) {
+            userChannels.remove(channelName);
+        }
+    }
+
+    /**
+     * Deletes a channel from the server and drops it from the membership index
+     * of every user that was still in it.
+     *
+     * @param channelName of the channel to delete
+     */
+    private void removeChannel(String channelName) {
+        Channel channel = channels.remove(channelName);
+        if (channel == null) {
+            return;
+        }
+        Channel.Members members = channel.getMembers();
+        for (int i = 0; i < members.size(); i++) {
+            leaveMembership(members.get(i), channelName);
+        }
+        if (history != null) {
+            history.clear(channelName);
+        }
+        if (channel.getRecentMessages() != null) {
+            channel.getRecentMessages().clear();
+        }
+    }
+
     /**
      * This method is called when a user wants to change their nickname.
      * 
@@ -274,19 +673,32 @@ public final class ServerModel {
         int userId = nickCommand.getSenderId();
         String nickname = nickCommand.getNewNickname();
         String oldName = getNickname(userId);
+        int holder = getUserId(nickname);
+        if (isOffline(holder) && holder != userId) {
+            return claimNickname(nickCommand, holder);
+        }
         Collection<String> recipients = recipientUsersInclusive(userId);
         Map<String, ServerResponse> temp = validAndResponse(nickname);
 
         for (Map.Entry<String, ServerResponse> entry : temp.entrySet()) {
             if (entry.getKey().equals("true")) {
-                // replace username in user list
+                // replace username in user list and in the reverse index.
+                // channels store user IDs, so only their NAMES payloads need
+                // updating; an owner's is dropped, to be built again.
                 users.replace(userId, oldName, nickname);
-
-                // replace new nickname of user in channels where user exists
-                for (Channel c : channels.values()) {
-                    if (c.contains(oldName)) {
-                        c.setNickName(oldName, nickname);
-                    }
+                for (String c : channelsOf(userId)) {
+                    Channel channel = channels.get(c);
+                    String cached = channel.getNamesPayload();
+                    channel.setNamesPayload(cached == null || channel.getOwner() == userId
+                            ? null
+                            : NamesPayload.insert(NamesPayload.remove(cached, oldName), nickname));
+                }
+                userIds.remove(oldName);
+                userIds.put(nickname, userId);
+                nicknames.release(oldName);
+                // only members of a channel are in the journal
+                if (journal != null && !channelsOf(userId).isEmpty()) {
+                    journal.renamed(oldName, nickname);
                 }
 
                 return Broadcast.okay(nickCommand, recipients);
@@ -302,6 +714,57 @@ public final class ServerModel {
         return Broadcast.error(nickCommand, ServerResponse.NO_SUCH_USER);
     }
 
+    /**
+     * Helper for {@link #changeNickname(NicknameCommand)}
+     * Gives a connected user the nickname of an offline user, together with
+     * its place in every channel it was in, including the ownership of its
+     * channels. The offline user is removed.
+     *
+     * @param nickCommand the NICK command of the connected user
+     * @param offlineId   the ID of the offline user holding the nickname
+     * @return the broadcast of the nickname change to everyone who now shares
+     *         a channel with the user
+     */
+    private Broadcast claimNickname(NicknameCommand nickCommand, int offlineId) {
+        int userId = nickCommand.getSenderId();
+        String oldName = getNickname(userId);
+        String nickname = nickCommand.getNewNickname();
+        // a user in no channel is not in the journal, which already has the
+        // offline user in its channels under the nickname
+        boolean journaled = !channelsOf(userId).isEmpty();
+        // the user's own channels keep their members, so only their NAMES
+        // payloads change; the offline user's channels drop theirs below
+        for (String c : channelsOf(userId)) {
+            Channel channel = channels.get(c);
+            String cached = channel.getNamesPayload();
+            channel.setNamesPayload(cached == null || channel.getOwner() == userId
+                    ? null
+                    : NamesPayload.insert(NamesPayload.remove(cached, oldName), nickname));
+        }
+        for (String c : new ArrayList<>(channelsOf(offlineId))) {
+            Channel channel = channels.get(c);
+            channel.removeUser(offlineId);
+            channel.addUser(userId);
+            if (channel.getOwner() == offlineId) {
+                channel.setOwner(userId);
+            }
+            joinMembership(userId, c);
+        }
+        users.remove(offlineId);
+        memberships.remove(offlineId);
+        users.replace(userId, oldName, nickname);
+        userIds.remove(oldName);
+        userIds.put(nickname, userId);
+        nicknames.release(oldName);
+        if (journal != null && journaled) {
+            journal.renamed(oldName, nickname);
+        }
+        Collection<String> recipients = recipientUsersInclusive(userId);
+        // Broadcast.okay adds the sender under the new nickname itself
+        recipients.remove(nickname);
+        return Broadcast.okay(nickCommand, recipients);
+    }
+
     /**
      * Determines if a given nickname is valid or invalid (contains at least
      * one alphanumeric character, and no non-alphanumeric characters).
@@ -334,11 +797,8 @@ public final class ServerModel {
      */
     private Collection<String> recipientUsersInclusive(int id) {
         Collection<String> result = new TreeSet<>();
-        String username = getNickname(id);
-        for (Map.Entry<String, Channel> entry : channels.entrySet()) {
-            if (entry.getValue().contains(username)) {
-                result.addAll(entry.getValue().getUserList());
-            }
+        for (String c : channelsOf(id)) {
+            result.addAll(nicknamesIn(channels.get(c)));
         }
         return result;
     }
@@ -402,21 +862,30 @@ public final class ServerModel {
      */
     public Broadcast createChannel(CreateCommand createCommand) {
         String name = createCommand.getChannel(); // key to the channels map
-        String ownerName = createCommand.getSender();
+        int ownerId = createCommand.getSenderId();
 
         Map<String, ServerResponse> temp = channelValidAndResponse(name);
 
         for (Map.Entry<String, ServerResponse> entry : temp.entrySet()) {
             if (entry.getKey().equals("true")) {
 
-                // create a new channel with ownerName and isPrivate status desired
-                Channel channel = new Channel(ownerName, createCommand.isInviteOnly());
+                // create a new channel with ownerId and isPrivate status desired
+                Channel channel = new Channel(ownerId, createCommand.isInviteOnly());
 
                 // add the new channel to server model internal state
                 channels.put(name, channel);
+                joinMembership(ownerId, name);
+                if (journal != null) {
+                    journal.created(name, createCommand.getSender(), createCommand.isInviteOnly());
+                }
+                if (history != null) {
+                    // left over from a channel that was not deleted before
+                    // a restart without a write-ahead log
+                    history.clear(name);
+                }
 
                 // return the broadcast OKAY with the given command and owner as recipients
-                Collection<String> recipients = channels.get(name).getUserList();
+                Collection<String> recipients = nicknameView(channel);
                 return Broadcast.okay(createCommand, recipients);
             } else if (entry.getKey().equals("false nameInUse")) {
                 return Broadcast.error(createCommand, entry.getValue());
@@ -470,7 +939,9 @@ public final class ServerModel {
      * @return The {@link Broadcast} object generated by
      *         {@link Broadcast#names(Command, Collection, String)} if the user
      *         joins the channel successfully. The recipients should be all
-     *         people in the joined channel (including the sender).
+     *         people in the joined channel (including the sender), and the
+     *         sender is also sent the channel's recent messages, if it keeps
+     *         any.
      *
      *         If an error occurs, use
      *         {@link Broadcast#error(Command, ServerResponse)} with either:
@@ -488,10 +959,19 @@ public final class ServerModel {
         } else if (channels.get(channelName).getPrivacy()) {
             return Broadcast.error(joinCommand, ServerResponse.JOIN_PRIVATE_CHANNEL);
         } else {
-            Collection<String> recipients = channels.get(channelName).getUserList();
-            channels.get(channelName).addUser(username);
-            recipients.add(username);
-            return Broadcast.names(joinCommand, recipients, channels.get(channelName).getOwner());
+            Channel channel = channels.get(channelName);
+            String cached = channel.getNamesPayload();
+            channel.addUser(joinCommand.getSenderId());
+            joinMembership(joinCommand.getSenderId(), channelName);
+            if (journal != null) {
+                journal.joined(channelName, username);
+            }
+            RecentMessages recent = channel.getRecentMessages();
+            return Broadcast.names(
+                    joinCommand, nicknameView(channel),
+                    recent == null ? Collections.<ByteBuffer>emptyList() : recent.get(),
+                    namesPayloadAfterJoin(channel, cached, username)
+            );
         }
     }
 
@@ -517,14 +997,61 @@ public final class ServerModel {
 
         if (!(channels.containsKey(channelName))) {
             return Broadcast.error(messageCommand, ServerResponse.NO_SUCH_CHANNEL);
-        } else if (!(channels.get(channelName).contains(messageCommand.getSender()))) {
+        } else if (!(channels.get(channelName).contains(messageCommand.getSenderId()))) {
             return Broadcast.error(messageCommand, ServerResponse.USER_NOT_IN_CHANNEL);
         } else {
-            return Broadcast.okay(messageCommand, channels.get(channelName).getUserList());
+            Channel channel = channels.get(channelName);
+            if (history != null) {
+                history.append(channelName, messageCommand.toString());
+            }
+            if (recentMessages != null && !channel.getPrivacy()) {
+                RecentMessages recent = channel.getRecentMessages();
+                if (recent == null) {
+                    recent = recentMessages.newRing();
+                    channel.setRecentMessages(recent);
+                }
+                recent.add(OutboundQueue.encode(messageCommand.toString()));
+            }
+            return Broadcast.okay(messageCommand, nicknameView(channel));
         }
 
     }
 
+    /**
+     * This method is called when a user wants the most recent messages sent
+     * to a channel.
+     *
+     * @param historyCommand The {@link HistoryCommand} object containing all
+     *                       information needed to fetch the messages
+     * @return The {@link Broadcast} object generated by
+     *         {@link Broadcast#history(HistoryCommand, int, List)} with the
+     *         messages found, which are none if the server keeps no history.
+     *         The only recipient is the sender.
+     *
+     *         If an error occurs, use
+     *         {@link Broadcast#error(Command, ServerResponse)} with either:
+     *         (1) {@link ServerResponse#NO_SUCH_CHANNEL} if there is no
+     *         channel with the specified name
+     *         (2) {@link ServerResponse#USER_NOT_IN_CHANNEL} if the sender is
+     *         not in the channel
+     */
+    public Broadcast fetchHistory(HistoryCommand historyCommand) {
+        String channelName = historyCommand.getChannel();
+        Channel channel = channels.get(channelName);
+
+        if (channel == null) {
+            return Broadcast.error(historyCommand, ServerResponse.NO_SUCH_CHANNEL);
+        } else if (!channel.contains(historyCommand.getSenderId())) {
+            return Broadcast.error(historyCommand, ServerResponse.USER_NOT_IN_CHANNEL);
+        }
+        List<ByteBuffer> messages = new ArrayList<>();
+        int count = 0;
+        if (history != null) {
+            count = history.last(channelName, historyCommand.getCount(), messages);
+        }
+        return Broadcast.history(historyCommand, count, messages);
+    }
+
     /**
      * This method is called when a user wants to leave a channel.
      * 
@@ -544,24 +1071,26 @@ public final class ServerModel {
      */
     public Broadcast leaveChannel(LeaveCommand leaveCommand) {
         String channelName = leaveCommand.getChannel();
-        String username = leaveCommand.getSender();
+        int userId = leaveCommand.getSenderId();
         Channel chan = channels.get(channelName);
 
-        Collection<String> recipients = chan.getUserList();
-
-        if (channels.containsKey(channelName) &&
-                chan.contains(username)) {
-            if (chan.getOwner().equals(username)) {
-                channels.remove(channelName);
+        if (chan == null) {
+            return Broadcast.error(leaveCommand, ServerResponse.NO_SUCH_CHANNEL);
+        } else if (chan.contains(userId)) {
+            Collection<String> recipients = nicknameView(chan);
+            if (chan.getOwner() == userId) {
+                removeChannel(channelName);
             } else {
-                channels.get(channelName).removeUser(username);
+                removeFromChannel(chan, userId, getNickname(userId));
+                leaveMembership(userId, channelName);
+            }
+            if (journal != null) {
+                journal.left(channelName, getNickname(userId));
             }
             return Broadcast.okay(leaveCommand, recipients);
 
-        } else if (!chan.contains(username)) {
-            return Broadcast.error(leaveCommand, ServerResponse.USER_NOT_IN_CHANNEL);
         } else {
-            return Broadcast.error(leaveCommand, ServerResponse.NO_SUCH_CHANNEL);
+            return Broadcast.error(leaveCommand, ServerResponse.USER_NOT_IN_CHANNEL);
         }
 
     }
@@ -602,21 +1131,29 @@ public final class ServerModel {
         String invitedUser = inviteCommand.getUserToInvite();
 
         // if user is not contained in server model internal user state
-        if (!(users.containsValue(invitedUser))) {
+        if (!(userIds.containsKey(invitedUser))) {
             return Broadcast.error(inviteCommand, ServerResponse.NO_SUCH_USER);
-        } else if (!(channels.containsValue(channel))) {
+        } else if (channel == null) {
             // if channel is not contained in server model internal channel state
             return Broadcast.error(inviteCommand, ServerResponse.NO_SUCH_CHANNEL);
         } else if (!(channel.getPrivacy())) { // if channel being invited to is public
             return Broadcast.error(inviteCommand, ServerResponse.INVITE_TO_PUBLIC_CHANNEL);
-        } else if (!(channel.getOwner().equals(sender))) { // if the invite sender is not owner
+        } else if (channel.getOwner() != inviteCommand.getSenderId()) {
+            // if the invite sender is not owner
             return Broadcast.error(inviteCommand, ServerResponse.USER_NOT_OWNER);
         } else {
             // if all above conditions are met then add user to channel and Broadcast.names
-            Collection<String> recipients = channel.getUserList();
-            recipients.add(invitedUser);
-            channel.addUser(invitedUser);
-            return Broadcast.names(inviteCommand, recipients, sender);
+            int invitedId = getUserId(invitedUser);
+            String cached = channel.getNamesPayload();
+            channel.addUser(invitedId);
+            joinMembership(invitedId, channelName);
+            if (journal != null) {
+                journal.invited(channelName, invitedUser);
+            }
+            return Broadcast.names(
+                    inviteCommand, nicknameView(channel), Collections.<ByteBuffer>emptyList(),
+                    namesPayloadAfterJoin(channel, cached, invitedUser)
+            );
         }
 
     }
@@ -645,30 +1182,38 @@ public final class ServerModel {
      *         the owner of the channel
      */
     public Broadcast kickUser(KickCommand kickCommand) {
-        String sender = kickCommand.getSender();
+        int senderId = kickCommand.getSenderId();
         String channelName = kickCommand.getChannel();
         Channel channel = channels.get(channelName);
         String kickUser = kickCommand.getUserToKick();
+        int kickId = getUserId(kickUser);
 
         // if user is not contained in server model internal user state
-        if (!(users.containsValue(kickUser))) {
+        if (!(userIds.containsKey(kickUser))) {
             return Broadcast.error(kickCommand, ServerResponse.NO_SUCH_USER);
-        } else if (!(channels.containsValue(channel))) {
+        } else if (channel == null) {
             // if channel is not contained in server model internal channel state
             return Broadcast.error(kickCommand, ServerResponse.NO_SUCH_CHANNEL);
-        } else if (!(channel.contains(kickUser))) { // if kickUser is not in channel
+        } else if (!(channel.contains(kickId))) { // if kickUser is not in channel
             return Broadcast.error(kickCommand, ServerResponse.USER_NOT_IN_CHANNEL);
-        } else if (!(channel.getOwner().equals(sender))) {
+        } else if (channel.getOwner() != senderId) {
             // if the invite sender is not owner of the channel
             return Broadcast.error(kickCommand, ServerResponse.USER_NOT_OWNER);
-        } else if (sender.equals(kickUser) && (channel.getOwner().equals(sender))) {
+        } else if (senderId == kickId) {
             // if owner kicks himself out, delete the channel
-            Collection<String> recipients = channel.getUserList();
-            channels.remove(channelName);
+            Collection<String> recipients = nicknameView(channel);
+            removeChannel(channelName);
+            if (journal != null) {
+                journal.kicked(channelName, kickUser);
+            }
             return Broadcast.okay(kickCommand, recipients);
         } else {
-            Collection<String> recipients = channel.getUserList();
-            channel.removeUser(kickUser);
+            Collection<String> recipients = nicknameView(channel);
+            removeFromChannel(channel, kickId, kickUser);
+            leaveMembership(kickId, channelName);
+            if (journal != null) {
+                journal.kicked(channelName, kickUser);
+            }
             return Broadcast.okay(kickCommand, recipients);
         }
     }
@@ -0,0 +1,288 @@
+package org.cis120;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, preallocated ring of tasks handed from many producer threads
+ * (the network engines) to a single consumer (the model thread), as an
+ * alternative to the backend's {@code LinkedBlockingQueue}. It takes no
+ * locks, and nothing is allocated per task: each slot is a reusable record
+ * of a task's fields, written in place by the producer that claimed it.
+ *
+ * Every slot carries a sequence number. A producer claims the next sequence
+ * with an atomic increment, waits until the consumer has released the slot
+ * from its previous lap around the ring, fills it in and publishes it by
+ * setting the slot's sequence. The consumer reads slots in order, each as
+ * soon as it is published, and releases it for the producer one lap ahead.
+ * A full ring makes producers wait, so a model thread that falls behind
+ * pushes back on the network threads instead of growing a queue without
+ * bound.
+ */
+final class TaskRing {
+
+    /**
+     * How the consumer waits for a task to be published, and a producer for a
+     * slot to be released.
+     */
+    enum WaitStrategy {
+        /**
+         * Spin on the CPU. Lowest latency, but keeps a core busy even when the
+         * server is idle.
+         */
+        BUSY_SPIN,
+
+        /**
+         * Spin, yielding the CPU between checks.
+         */
+        YIELD,
+
+        /**
+         * Park the waiting thread until it is woken by the other side.
+         */
+        PARK
+    }
+
+    /**
+     * Receives the tasks taken from the ring.
+     */
+    interface Handler {
+        /**
+         * @param kind   The kind of task: {@link #REGISTRATION},
+         *               {@link #DISCONNECTION} or {@link #REQUEST}
+         * @param userId The user the task is for
+         * @param line   The request line, or null if the task is not a request
+         * @param start  The index in {@code line} at which the command starts
+         */
+        void onTask(int kind, int userId, String line, int start);
+    }
+
+    /**
+     * The smallest number of slots. With one slot, the sequence a publish
+     * gives the slot would be the one that frees it for the next producer,
+     * which could then overwrite a task not yet taken.
+     */
+    static final int MIN_CAPACITY = 2;
+
+    static final int REGISTRATION = 0;
+    static final int DISCONNECTION = 1;
+    static final int REQUEST = 2;
+
+    // How long a parked thread sleeps before checking again on its own, in
+    // case a wakeup raced with it going to sleep
+    private static final long PARK_NANOS = 100000;
+
+    // How many times a producer waiting for a slot yields before it parks
+    private static final int YIELDS_BEFORE_PARK = 100;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    // Null unless the time tasks spend in the ring is measured
+    private final Log2Histogram queueWaits;
+
+    // The next sequence to hand to a producer
+    private final AtomicLong claimed;
+    // The next sequence the consumer takes; only written by the consumer
+    private volatile long consumed;
+
+    // Set while the consumer is, or is about to be, parked; cleared by the
+    // first producer to wake it, so that it is only woken once
+    private final AtomicReference<Thread> parkedConsumer;
+
+    /**
+     * @param capacity     The number of slots, a power of two of at least
+     *                     {@link #MIN_CAPACITY}
+     * @param waitStrategy How waiting threads wait
+     * @throws IllegalArgumentException if {@code capacity} is not a power of
+     *                                  two of at least {@link #MIN_CAPACITY}
+     */
+    TaskRing(int capacity, WaitStrategy waitStrategy) {
+        this(capacity, waitStrategy, null);
+    }
+
+    /**
+     * @param capacity     The number of slots, a power of two of at least
+     *                     {@link #MIN_CAPACITY}
+     * @param waitStrategy How waiting threads wait
+     * @param queueWaits   Where to record the nanoseconds each task waits
+     *                     between being published and drained, or null not
+     *                     to measure them
+     * @throws IllegalArgumentException if {@code capacity} is not a power of
+     *                                  two of at least {@link #MIN_CAPACITY}
+     */
+    TaskRing(int capacity, WaitStrategy waitStrategy, Log2Histogram queueWaits) {
+        if (capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException(
+                    "capacity must be a power of two of at least " + MIN_CAPACITY
+            );
+        }
+        if (waitStrategy == null) {
+            throw new NullPointerException();
+        }
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot(i);
+        }
+        mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+        this.queueWaits = queueWaits;
+        claimed = new AtomicLong();
+        consumed = 0;
+        parkedConsumer = new AtomicReference<>();
+    }
+
+    /**
+     * Adds a task to the ring, waiting while the ring is full. May be called
+     * from any number of threads.
+     *
+     * @param kind   The kind of task
+     * @param userId The user the task is for
+     * @param line   The request line, or null
+     * @param start  The index in {@code line} at which the command starts
+     */
+    public void publish(int kind, int userId, String line, int start) {
+        long sequence = claimed.getAndIncrement();
+        Slot slot = slots[(int) sequence & mask];
+        // The slot is free once the consumer has released it for this lap
+        int waits = 0;
+        while (slot.sequence != sequence) {
+            waitForConsumer(waits++);
+        }
+        slot.kind = kind;
+        slot.userId = userId;
+        slot.line = line;
+        slot.start = start;
+        if (queueWaits != null) {
+            slot.published = System.nanoTime();
+        }
+        slot.sequence = sequence + 1;
+
+        if (parkedConsumer.get() != null) {
+            Thread consumer = parkedConsumer.getAndSet(null);
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+    }
+
+    /**
+     * Hands published tasks to the handler, in order, without waiting. Must
+     * only be called from the consumer thread.
+     *
+     * @param handler Receives the tasks
+     * @param max     The most tasks to take
+     * @return the number of tasks taken
+     */
+    public int drain(Handler handler, int max) {
+        long next = consumed;
+        int count = 0;
+        while (count < max) {
+            Slot slot = slots[(int) next & mask];
+            if (slot.sequence != next + 1) {
+                break;
+            }
+            String line = slot.line;
+            slot.line = null;
+            if (queueWaits != null) {
+                queueWaits.record(System.nanoTime() - slot.published);
+            }
+            try {
+                handler.onTask(slot.kind, slot.userId, line, slot.start);
+            } finally {
+                // release the slot to the producer one lap ahead
+                slot.sequence = next + slots.length;
+                next++;
+                consumed = next;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Waits, using the ring's wait strategy, until a task is published or the
+     * consumer thread is interrupted. Must only be called from the consumer
+     * thread.
+     *
+     * @return true if a task is ready to be drained
+     */
+    public boolean await() {
+        while (!isReady()) {
+            if (Thread.interrupted()) {
+                return false;
+            }
+            switch (waitStrategy) {
+                case BUSY_SPIN:
+                    break;
+                case YIELD:
+                    Thread.yield();
+                    break;
+                default:
+                    parkedConsumer.set(Thread.currentThread());
+                    // publish() reads parkedConsumer after making its slot
+                    // visible, so either it sees us and unparks, or we see it
+                    if (!isReady()) {
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                    parkedConsumer.set(null);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if no task has been published but not yet drained
+     */
+    public boolean isEmpty() {
+        return claimed.get() == consumed;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    private boolean isReady() {
+        long next = consumed;
+        return slots[(int) next & mask].sequence == next + 1;
+    }
+
+    private void waitForConsumer(int waits) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            default:
+                // the consumer frees slots in batches, so a full ring usually
+                // has room again after a few yields
+                if (waits < YIELDS_BEFORE_PARK) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                break;
+        }
+    }
+
+    /**
+     * A reusable task record. The sequence is volatile so that writing it
+     * publishes the other fields to the consumer, and releases the slot back
+     * to the producers.
+     */
+    private static final class Slot {
+        private volatile long sequence;
+        private int kind;
+        private int userId;
+        private String line;
+        private int start;
+        private long published;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
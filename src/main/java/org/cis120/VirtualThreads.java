@@ -0,0 +1,54 @@
+package org.cis120;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads (Java 21 and later) for the
+ * {@link ServerConfig.Engine#VIRTUAL} engine. The server is compiled for
+ * Java 8, so the executor factory is looked up reflectively; on older
+ * runtimes {@link #isAvailable()} is false.
+ */
+final class VirtualThreads {
+
+    // Executors.newVirtualThreadPerTaskExecutor(), or null if not supported
+    private static final Method NEW_EXECUTOR = findExecutorFactory();
+
+    private static Method findExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException nsmx) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads
+     */
+    static boolean isAvailable() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * @return an executor that runs each task on a new virtual thread
+     * @throws UnsupportedOperationException if virtual threads are not
+     *                                       available
+     */
+    static ExecutorService newPerTaskExecutor() {
+        if (NEW_EXECUTOR == null) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads need Java 21 or later, running on "
+                            + System.getProperty("java.version")
+            );
+        }
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException rox) {
+            throw new UnsupportedOperationException("Could not create virtual threads", rox);
+        }
+    }
+
+    private VirtualThreads() {
+    }
+}
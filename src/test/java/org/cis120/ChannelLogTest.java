@@ -0,0 +1,239 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+public class ChannelLogTest {
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private ServerLog log;
+    private ServerModel model;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = dir.resolve("channels.wal");
+        log = new ServerLog(ServerLog.Level.WARN, 1, ServerLog.CONSOLE);
+        model = new ServerModel();
+        for (int id = 0; id < 4; id++) {
+            model.registerUser(id);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        log.close();
+    }
+
+    private ChannelLog openLog() throws IOException {
+        ChannelLog channelLog = new ChannelLog(file, ChannelLog.Sync.BATCH, 100, log);
+        model.setJournal(channelLog);
+        return channelLog;
+    }
+
+    /**
+     * Runs a mix of channel changes on the model: a public and a private
+     * channel, joins, an invite, a kick, a leave and a rename.
+     */
+    private void changeChannels() {
+        model.createChannel(new CreateCommand(0, "User0", "lobby", false));
+        model.createChannel(new CreateCommand(1, "User1", "secret", true));
+        model.createChannel(new CreateCommand(3, "User3", "gone", false));
+        model.joinChannel(new JoinCommand(2, "User2", "lobby"));
+        model.joinChannel(new JoinCommand(3, "User3", "lobby"));
+        model.inviteUser(new InviteCommand(1, "User1", "secret", "User2"));
+        model.inviteUser(new InviteCommand(1, "User1", "secret", "User3"));
+        model.kickUser(new KickCommand(1, "User1", "secret", "User3"));
+        model.leaveChannel(new LeaveCommand(3, "User3", "gone"));
+        model.changeNickname(new NicknameCommand(0, "User0", "alice"));
+        // failures are not logged
+        model.joinChannel(new JoinCommand(3, "User3", "secret"));
+        model.createChannel(new CreateCommand(2, "User2", "lobby", false));
+    }
+
+    private static void assertSameChannels(ServerModel expected, ServerModel actual) {
+        assertEquals(expected.getChannels(), actual.getChannels());
+        for (String channel : expected.getChannels()) {
+            assertEquals(expected.getOwner(channel), actual.getOwner(channel), channel);
+            assertEquals(
+                    expected.getUsersInChannel(channel), actual.getUsersInChannel(channel), channel
+            );
+        }
+    }
+
+    @Test
+    public void testReplayRestoresChannels() throws IOException {
+        ChannelLog channelLog = openLog();
+        changeChannels();
+        channelLog.close();
+
+        ServerModel restored = new ServerModel();
+        assertEquals(10, ChannelLog.replay(file, restored));
+        assertSameChannels(model, restored);
+        assertEquals(Arrays.asList("lobby", "secret"), new ArrayList<>(restored.getChannels()));
+        assertEquals("alice", restored.getOwner("lobby"));
+    }
+
+    @Test
+    public void testDisconnectDeletesOwnedChannels() throws IOException {
+        ChannelLog channelLog = openLog();
+        changeChannels();
+        model.deregisterUser(1);
+        model.deregisterUser(2);
+        channelLog.close();
+
+        ServerModel restored = new ServerModel();
+        ChannelLog.replay(file, restored);
+        assertSameChannels(model, restored);
+        assertEquals(Collections.singleton("lobby"), new TreeSet<>(restored.getChannels()));
+    }
+
+    @Test
+    public void testChangesAfterCloseNotLogged() throws IOException {
+        ChannelLog channelLog = openLog();
+        changeChannels();
+        channelLog.close();
+        model.deregisterUser(0);
+
+        ServerModel restored = new ServerModel();
+        ChannelLog.replay(file, restored);
+        assertTrue(restored.getChannels().contains("lobby"));
+    }
+
+    @Test
+    public void testAppendAfterReplay() throws IOException {
+        ChannelLog channelLog = openLog();
+        changeChannels();
+        channelLog.close();
+
+        model = new ServerModel();
+        ChannelLog.replay(file, model);
+        channelLog = openLog();
+        model.leaveChannel(new LeaveCommand(model.getUserId("User2"), "User2", "secret"));
+        channelLog.close();
+
+        ServerModel restored = new ServerModel();
+        assertEquals(11, ChannelLog.replay(file, restored));
+        assertSameChannels(model, restored);
+    }
+
+    @Test
+    public void testTornRecordDropped() throws IOException {
+        ChannelLog channelLog = openLog();
+        changeChannels();
+        channelLog.close();
+        long size = Files.size(file);
+
+        // the start of a record whose body never made it to disk
+        Files.write(file, new byte[] {0, 0, 0, 20, 1, 2, 3}, StandardOpenOption.APPEND);
+        ServerModel restored = new ServerModel();
+        assertEquals(10, ChannelLog.replay(file, restored));
+        assertSameChannels(model, restored);
+        assertEquals(size, Files.size(file));
+    }
+
+    @Test
+    public void testCorruptRecordEndsReplay() throws IOException {
+        ChannelLog channelLog = openLog();
+        model.createChannel(new CreateCommand(0, "User0", "first", false));
+        channelLog.close();
+        long size = Files.size(file);
+        channelLog = openLog();
+        model.createChannel(new CreateCommand(1, "User1", "second", false));
+        channelLog.close();
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 0x55;
+        Files.write(file, bytes);
+        ServerModel restored = new ServerModel();
+        assertEquals(1, ChannelLog.replay(file, restored));
+        assertEquals(Collections.singleton("first"), new TreeSet<>(restored.getChannels()));
+        assertEquals(size, Files.size(file));
+    }
+
+    @Test
+    public void testNotAChannelLog() throws IOException {
+        Files.write(file, "not a log".getBytes("UTF-8"));
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                ChannelLog.replay(file, new ServerModel());
+            }
+        });
+    }
+
+    @Test
+    public void testRenameOutsideChannelsNotRestored() throws IOException {
+        ChannelLog channelLog = openLog();
+        changeChannels();
+        // User4 is in no channel, User2 is in two
+        model.registerUser(4);
+        model.changeNickname(new NicknameCommand(4, "User4", "carol"));
+        model.changeNickname(new NicknameCommand(2, "User2", "bob"));
+        // as written before renames outside channels were left out
+        channelLog.renamed("ghost", "casper");
+        channelLog.close();
+
+        ServerModel restored = new ServerModel();
+        ChannelLog.replay(file, restored);
+        assertSameChannels(model, restored);
+        assertEquals(-1, restored.getUserId("carol"));
+        assertEquals(-1, restored.getUserId("casper"));
+        assertNotEquals(-1, restored.getUserId("bob"));
+    }
+
+    @Test
+    public void testClaimOfflineNickname() throws IOException {
+        ChannelLog channelLog = openLog();
+        changeChannels();
+        channelLog.close();
+
+        ServerModel restored = new ServerModel();
+        ChannelLog.replay(file, restored);
+        // restored users keep their nicknames; User0 became alice
+        restored.registerUser(10);
+        assertEquals("User0", restored.getNickname(10));
+
+        Broadcast nick = restored.changeNickname(new NicknameCommand(10, "User0", "alice"));
+        assertEquals(10, restored.getUserId("alice"));
+        assertEquals("alice", restored.getOwner("lobby"));
+        assertTrue(nick.getResponses(restored).containsKey(10));
+        assertEquals(
+                new TreeSet<>(Arrays.asList("alice", "User2", "User3")),
+                restored.getUsersInChannel("lobby")
+        );
+        assertFalse(restored.getRegisteredUsers().contains("User0"));
+
+        // the claimed channels work as before
+        Broadcast message = restored.sendMessage(
+                new MessageCommand(10, "alice", "lobby", "back again")
+        );
+        assertEquals(3, message.getResponses(restored).size());
+    }
+
+    @Test
+    public void testNicknameOfConnectedUserStillInUse() {
+        model.restoreUser("bob");
+        model.registerUser(10);
+        Broadcast claim = model.changeNickname(new NicknameCommand(10, "User4", "bob"));
+        assertEquals(10, model.getUserId("bob"));
+        Broadcast taken = model.changeNickname(new NicknameCommand(0, "User0", "bob"));
+        assertEquals(
+                Broadcast.error(
+                        new NicknameCommand(0, "User0", "bob"), ServerResponse.NAME_ALREADY_IN_USE
+                ),
+                taken
+        );
+        assertNotNull(claim);
+    }
+}
@@ -0,0 +1,167 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class ChannelSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private Path snapshotFile;
+    private ServerLog log;
+    private ServerModel model;
+    private ChannelLog channelLog;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = dir.resolve("channels.wal");
+        snapshotFile = ChannelSnapshot.pathFor(file);
+        log = new ServerLog(ServerLog.Level.WARN, 1, ServerLog.CONSOLE);
+        model = new ServerModel();
+        for (int id = 0; id < 5; id++) {
+            model.registerUser(id);
+        }
+        channelLog = new ChannelLog(file, ChannelLog.Sync.BATCH, 100, log);
+        model.setJournal(channelLog);
+        model.createChannel(new CreateCommand(0, "User0", "lobby", false));
+        model.createChannel(new CreateCommand(1, "User1", "secret", true));
+        model.joinChannel(new JoinCommand(2, "User2", "lobby"));
+        model.inviteUser(new InviteCommand(1, "User1", "secret", "User2"));
+        model.changeNickname(new NicknameCommand(0, "User0", "alice"));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        channelLog.close();
+        log.close();
+    }
+
+    private static void assertSameChannels(ServerModel expected, ServerModel actual) {
+        assertEquals(expected.getChannels(), actual.getChannels());
+        for (String channel : expected.getChannels()) {
+            assertEquals(expected.getOwner(channel), actual.getOwner(channel), channel);
+            assertEquals(
+                    expected.getUsersInChannel(channel), actual.getUsersInChannel(channel), channel
+            );
+        }
+    }
+
+    /**
+     * Takes a snapshot of the model, with the log open, as the backend does.
+     */
+    private ChannelLog.Checkpoint snapshot() throws IOException, InterruptedException {
+        ChannelSnapshot snapshot = model.snapshotChannels();
+        ChannelLog.Checkpoint checkpoint = channelLog.checkpoint();
+        assertTrue(channelLog.awaitCheckpoint(checkpoint));
+        snapshot.write(snapshotFile, checkpoint);
+        return checkpoint;
+    }
+
+    private ServerModel restore() throws IOException {
+        ServerModel restored = new ServerModel();
+        ChannelLog.Checkpoint checkpoint = ChannelSnapshot.load(snapshotFile, restored);
+        ChannelLog.replay(file, restored, checkpoint);
+        return restored;
+    }
+
+    @Test
+    public void testLoadRestoresChannels() throws Exception {
+        snapshot();
+        channelLog.close();
+
+        ServerModel restored = new ServerModel();
+        assertNotNull(ChannelSnapshot.load(snapshotFile, restored));
+        assertSameChannels(model, restored);
+        assertEquals("alice", restored.getOwner("lobby"));
+        // users in no channel are not kept
+        assertEquals(
+                new TreeSet<>(Arrays.asList("alice", "User1", "User2")),
+                restored.getRegisteredUsers()
+        );
+    }
+
+    @Test
+    public void testReplayAfterTruncatedLog() throws Exception {
+        ChannelLog.Checkpoint checkpoint = snapshot();
+        model.createChannel(new CreateCommand(3, "User3", "later", false));
+        channelLog.truncate(checkpoint);
+        model.joinChannel(new JoinCommand(4, "User4", "later"));
+        channelLog.close();
+
+        // only the header and the two records after the checkpoint are left
+        assertEquals(16 + 24 + 23, Files.size(file));
+        ServerModel restored = new ServerModel();
+        ChannelLog.Checkpoint loaded = ChannelSnapshot.load(snapshotFile, restored);
+        assertEquals(2, ChannelLog.replay(file, restored, loaded));
+        assertSameChannels(model, restored);
+
+        // the truncated log is appended to and replayed as usual
+        model = restored;
+        channelLog = new ChannelLog(
+                file, loaded.getGeneration() + 1, ChannelLog.Sync.BATCH, 100, log
+        );
+        model.setJournal(channelLog);
+        model.leaveChannel(new LeaveCommand(model.getUserId("User2"), "User2", "lobby"));
+        channelLog.close();
+        assertSameChannels(model, restore());
+    }
+
+    @Test
+    public void testReplayFromCheckpointBeforeTruncation() throws Exception {
+        snapshot();
+        model.createChannel(new CreateCommand(3, "User3", "later", false));
+        model.kickUser(new KickCommand(1, "User1", "secret", "User2"));
+        // stopped before the log was truncated
+        channelLog.close();
+
+        ServerModel restored = new ServerModel();
+        ChannelLog.Checkpoint loaded = ChannelSnapshot.load(snapshotFile, restored);
+        assertEquals(2, ChannelLog.replay(file, restored, loaded));
+        assertSameChannels(model, restored);
+    }
+
+    @Test
+    public void testTruncatedLogNeedsSnapshot() throws Exception {
+        ChannelLog.Checkpoint checkpoint = snapshot();
+        channelLog.truncate(checkpoint);
+        channelLog.close();
+        Files.delete(snapshotFile);
+
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                restore();
+            }
+        });
+    }
+
+    @Test
+    public void testCorruptSnapshot() throws Exception {
+        snapshot();
+        channelLog.close();
+
+        byte[] bytes = Files.readAllBytes(snapshotFile);
+        bytes[bytes.length / 2] ^= 0x55;
+        Files.write(snapshotFile, bytes);
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                ChannelSnapshot.load(snapshotFile, new ServerModel());
+            }
+        });
+    }
+
+    @Test
+    public void testNoSnapshot() throws IOException {
+        assertNull(ChannelSnapshot.load(snapshotFile, new ServerModel()));
+    }
+}
@@ -0,0 +1,125 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+public class ChannelTest {
+
+    private static int[] ids(Channel.Members members) {
+        int[] ids = new int[members.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = members.get(i);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testMembersInOrder() {
+        Channel channel = new Channel(5, false);
+        channel.addUser(9);
+        channel.addUser(1);
+        channel.addUser(5);
+        assertArrayEquals(new int[] { 1, 5, 9 }, ids(channel.getMembers()));
+        assertArrayEquals(new int[] { 1, 5, 9 }, channel.getUserList());
+        assertEquals(3, channel.getSize());
+    }
+
+    @Test
+    public void testMembersAreSnapshot() {
+        Channel channel = new Channel(0, false);
+        channel.addUser(2);
+        Channel.Members before = channel.getMembers();
+        assertSame(before, channel.getMembers(), "not copied while unchanged");
+
+        channel.addUser(1);
+        channel.removeUser(2);
+        assertArrayEquals(new int[] { 0, 2 }, ids(before));
+        assertArrayEquals(new int[] { 0, 1 }, ids(channel.getMembers()));
+
+        // adding a member twice, or removing a non-member, changes nothing
+        Channel.Members after = channel.getMembers();
+        channel.addUser(1);
+        channel.removeUser(7);
+        assertSame(after, channel.getMembers());
+    }
+
+    @Test
+    public void testUserListIsCopy() {
+        Channel channel = new Channel(0, false);
+        channel.addUser(3);
+        channel.getUserList()[1] = 4;
+        assertTrue(channel.contains(3));
+        assertFalse(channel.contains(4));
+
+        Channel same = new Channel(0, false);
+        same.addUser(3);
+        assertEquals(same, channel);
+        assertEquals(same.hashCode(), channel.hashCode());
+    }
+
+    @Test
+    public void testContainsAfterChurn() {
+        // offline users have negative IDs
+        Channel channel = new Channel(-5, false);
+        TreeSet<Integer> expected = new TreeSet<>();
+        expected.add(-5);
+        Random random = new Random(120);
+        for (int i = 0; i < 20000; i++) {
+            int userId = random.nextInt(600) - 100;
+            if (random.nextInt(3) == 0) {
+                channel.removeUser(userId);
+                expected.remove(userId);
+            } else {
+                channel.addUser(userId);
+                expected.add(userId);
+            }
+            int probe = random.nextInt(600) - 100;
+            assertEquals(expected.contains(probe), channel.contains(probe), "user " + probe);
+        }
+        for (int userId = -100; userId < 500; userId++) {
+            assertEquals(expected.contains(userId), channel.contains(userId), "user " + userId);
+        }
+        assertEquals(expected.size(), channel.getSize());
+        int[] ids = channel.getUserList();
+        int i = 0;
+        for (int userId : expected) {
+            assertEquals(userId, ids[i++]);
+        }
+    }
+
+    @Test
+    public void testMemberTableShrinksAfterMassLeave() {
+        Channel channel = new Channel(0, false);
+        for (int userId = 1; userId < 4096; userId++) {
+            channel.addUser(userId);
+        }
+        int full = channel.getMemberTableCapacity();
+        assertTrue(full >= 2 * 4096, "capacity " + full);
+
+        // everyone but the owner and a few others leaves
+        for (int userId = 1; userId < 4096; userId++) {
+            if (userId % 1000 != 0) {
+                channel.removeUser(userId);
+            }
+            int capacity = channel.getMemberTableCapacity();
+            assertTrue(capacity <= 8 || channel.getSize() * 8 >= capacity, "capacity " + capacity);
+        }
+        // the smallest table the five remaining users fill an eighth of
+        assertEquals(32, channel.getMemberTableCapacity());
+        assertEquals(5, channel.getSize());
+        for (int userId = 0; userId < 4096; userId++) {
+            assertEquals(userId % 1000 == 0, channel.contains(userId), "user " + userId);
+        }
+
+        // and it grows again
+        for (int userId = 1; userId < 100; userId++) {
+            channel.addUser(userId);
+        }
+        assertEquals(256, channel.getMemberTableCapacity());
+        assertTrue(channel.contains(99));
+        assertTrue(channel.contains(3000));
+    }
+}
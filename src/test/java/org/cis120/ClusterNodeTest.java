@@ -0,0 +1,206 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Runs a cluster of three nodes on loopback ports in this JVM, with a client
+ * connected to each node.
+ */
+public class ClusterNodeTest {
+
+    private static final int NODES = 3;
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private ServerBackend[] backends;
+    private Thread[] threads;
+    private int[] clientPorts;
+    private List<Client> clients;
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * A client of one node, reading each response with a timeout.
+     */
+    private static final class Client {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+        private final String nickname;
+
+        Client(int port) throws IOException, InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            Socket connected = null;
+            while (connected == null) {
+                try {
+                    connected = new Socket(InetAddress.getLoopbackAddress(), port);
+                } catch (IOException iox) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw iox;
+                    }
+                    Thread.sleep(50);
+                }
+            }
+            socket = connected;
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)
+            );
+            out = new PrintWriter(socket.getOutputStream(), true);
+            String connectedLine = in.readLine();
+            assertNotNull(connectedLine);
+            assertTrue(connectedLine.endsWith(" CONNECT"), connectedLine);
+            nickname = connectedLine.substring(1, connectedLine.indexOf(' '));
+        }
+
+        void send(String line) {
+            out.println(line);
+        }
+
+        String read() throws IOException {
+            String line = in.readLine();
+            assertNotNull(line, "connection closed");
+            return line;
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        clientPorts = new int[NODES];
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), freePort()));
+            clientPorts[i] = freePort();
+        }
+        backends = new ServerBackend[NODES];
+        threads = new Thread[NODES];
+        for (int i = 0; i < NODES; i++) {
+            ServerConfig config = ServerConfig.defaults()
+                    .withBindAddress(InetAddress.getLoopbackAddress())
+                    .withPort(clientPorts[i])
+                    .withClusterNodes(nodes)
+                    .withNodeIndex(i)
+                    .withLogLevel(ServerLog.Level.ERROR);
+            backends[i] = new ServerBackend(new ServerModel(), config);
+            threads[i] = new Thread(backends[i], "Node " + i);
+            threads[i].start();
+        }
+        clients = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            clients.add(new Client(clientPorts[i]));
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        for (Client client : clients) {
+            client.close();
+        }
+        // the registry last, so that the others never see it go
+        for (int i = NODES - 1; i >= 0; i--) {
+            backends[i].stop();
+        }
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MILLIS);
+        }
+    }
+
+    @Test
+    public void testNicknamesUniqueAcrossNodes() {
+        Set<String> nicknames = new HashSet<>();
+        for (Client client : clients) {
+            nicknames.add(client.nickname);
+        }
+        assertEquals(NODES, nicknames.size());
+    }
+
+    @Test
+    public void testChannelSpansNodes() throws IOException {
+        Client a = clients.get(0);
+        Client b = clients.get(1);
+        Client c = clients.get(2);
+
+        a.send("CREATE room 0");
+        assertEquals(":" + a.nickname + " CREATE room 0", a.read());
+
+        b.send("JOIN room");
+        String join = ":" + b.nickname + " JOIN room";
+        assertEquals(join, a.read());
+        assertEquals(join, b.read());
+        assertTrue(b.read().contains("NAMES"));
+
+        c.send("JOIN room");
+        join = ":" + c.nickname + " JOIN room";
+        assertEquals(join, a.read());
+        assertEquals(join, b.read());
+        assertEquals(join, c.read());
+        assertTrue(c.read().contains("NAMES"));
+
+        b.send("MESG room :hello from node 1");
+        String message = ":" + b.nickname + " MESG room :hello from node 1";
+        assertEquals(message, a.read());
+        assertEquals(message, b.read());
+        assertEquals(message, c.read());
+    }
+
+    @Test
+    public void testNicknameSharedAcrossNodes() throws IOException {
+        Client a = clients.get(0);
+        Client c = clients.get(2);
+
+        a.send("CREATE room 0");
+        assertEquals(":" + a.nickname + " CREATE room 0", a.read());
+        c.send("JOIN room");
+        c.read();
+        assertTrue(c.read().contains("NAMES"));
+        a.read();
+
+        c.send("NICK carol");
+        String nick = ":" + c.nickname + " NICK carol";
+        assertEquals(nick, a.read());
+        assertEquals(nick, c.read());
+
+        // taken on another node
+        a.send("NICK carol");
+        assertTrue(a.read().startsWith(":" + a.nickname + " ERROR"));
+
+        a.send("MESG room :hi carol");
+        assertEquals(":" + a.nickname + " MESG room :hi carol", c.read());
+    }
+
+    @Test
+    public void testNodeLossDisconnectsItsUsers() throws Exception {
+        Client a = clients.get(0);
+        Client c = clients.get(2);
+
+        a.send("CREATE room 0");
+        assertEquals(":" + a.nickname + " CREATE room 0", a.read());
+        c.send("JOIN room");
+        a.read();
+        c.read();
+        c.read();
+
+        backends[2].stop();
+        threads[2].join(TIMEOUT_MILLIS);
+        assertEquals(":" + c.nickname + " QUIT", a.read());
+    }
+}
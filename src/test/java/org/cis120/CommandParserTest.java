@@ -0,0 +1,83 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.function.Executable;
+
+public class CommandParserTest {
+
+    private static Command parse(String line) {
+        return CommandParser.parse(0, "User0", line, 0, line.length());
+    }
+
+    @Test
+    public void testParseEveryCommand() {
+        assertEquals(new NicknameCommand(0, "User0", "cis120"), parse("NICK cis120"));
+        assertEquals(new CreateCommand(0, "User0", "java", true), parse("CREATE java 1"));
+        assertEquals(new CreateCommand(0, "User0", "java", false), parse("CREATE java 0"));
+        assertEquals(new JoinCommand(0, "User0", "java"), parse("JOIN java"));
+        assertEquals(new LeaveCommand(0, "User0", "java"), parse("LEAVE java"));
+        assertEquals(new InviteCommand(0, "User0", "java", "User1"), parse("INVITE java User1"));
+        assertEquals(new KickCommand(0, "User0", "java", "User1"), parse("KICK java User1"));
+        assertEquals(
+                new MessageCommand(0, "User0", "java", "hello : world"),
+                parse("MESG java :hello : world")
+        );
+        assertEquals(new MessageCommand(0, "User0", "java", ""), parse("MESG java :"));
+        assertEquals(new HistoryCommand(0, "User0", "java", 50), parse("HISTORY java 50"));
+    }
+
+    @Test
+    public void testParseRegionSkipsPrefix() {
+        String line = ":User0 JOIN java";
+        Command command = CommandParser.parse(0, "User0", line, 7, line.length());
+        assertEquals(new JoinCommand(0, "User0", "java"), command);
+    }
+
+    @Test
+    public void testParseMalformedReturnsNull() {
+        assertNull(parse(""), "empty line");
+        assertNull(parse("PART java"), "unknown verb");
+        assertNull(parse("join java"), "verbs are upper case");
+        assertNull(parse("JOIN"), "missing parameter");
+        assertNull(parse("JOIN  java"), "empty parameter");
+        assertNull(parse("KICK java User1 User2"), "too many parameters");
+        assertNull(parse("CREATE java 2"), "bad flag");
+        assertNull(parse("CREATE java"), "missing flag");
+        assertNull(parse("MESG java"), "missing payload");
+        assertNull(parse("MESG :hello"), "missing channel");
+        assertNull(parse("NICK cis120 :extra"), "payload on NICK");
+        assertNull(parse("HISTORY java"), "missing count");
+        assertNull(parse("HISTORY java 0"), "count not positive");
+        assertNull(parse("HISTORY java -5"), "count not a number");
+        assertNull(parse("HISTORY java 1234567890"), "count too large");
+    }
+
+    @Test
+    public void testParseStringThrowsOnMalformed() {
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                CommandParser.parse(0, "User0", "PART java");
+            }
+        });
+    }
+
+    @Test
+    public void testParseStringReturnsNullOnBadCreateFlag() {
+        assertNull(CommandParser.parse(0, "User0", "CREATE java 2"));
+        assertNull(CommandParser.parse(0, "User0", "CREATE java yes"));
+        assertNull(CommandParser.parse(0, "User0", "CREATE java"));
+        assertEquals(
+                new CreateCommand(0, "User0", "java", true),
+                CommandParser.parse(0, "User0", "CREATE java 1")
+        );
+        // other malformed CREATEs still throw
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                CommandParser.parse(0, "User0", "CREATE java 1 extra");
+            }
+        });
+    }
+}
@@ -0,0 +1,64 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.function.Executable;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+public class ConsistentHashRingTest {
+
+    private static final int CHANNELS = 10000;
+    private static final int VIRTUAL_NODES = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+
+    @Test
+    public void testEveryNodeOwnsChannels() {
+        ConsistentHashRing ring = new ConsistentHashRing(4, VIRTUAL_NODES);
+        int[] owned = new int[4];
+        for (int i = 0; i < CHANNELS; i++) {
+            owned[ring.ownerOf("channel" + i)]++;
+        }
+        for (int count : owned) {
+            // a fair share is 2500
+            assertTrue(count > 1500 && count < 3500, Arrays.toString(owned));
+        }
+    }
+
+    @Test
+    public void testRemoveOnlyMovesRemovedNodesChannels() {
+        ConsistentHashRing ring = new ConsistentHashRing(4, VIRTUAL_NODES);
+        Map<String, Integer> before = new HashMap<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            before.put("channel" + i, ring.ownerOf("channel" + i));
+        }
+        ring.remove(2);
+        for (Map.Entry<String, Integer> entry : before.entrySet()) {
+            int owner = ring.ownerOf(entry.getKey());
+            assertNotEquals(2, owner);
+            if (entry.getValue() != 2) {
+                assertEquals((int) entry.getValue(), owner, entry.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void testSameOwnerOnEveryRing() {
+        ConsistentHashRing first = new ConsistentHashRing(3, VIRTUAL_NODES);
+        ConsistentHashRing second = new ConsistentHashRing(3, VIRTUAL_NODES);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first.ownerOf("room" + i), second.ownerOf("room" + i));
+        }
+    }
+
+    @Test
+    public void testNoNodesLeft() {
+        final ConsistentHashRing ring = new ConsistentHashRing(1, 4);
+        ring.remove(0);
+        assertThrows(IllegalStateException.class, new Executable() {
+            @Override
+            public void execute() {
+                ring.ownerOf("room");
+            }
+        });
+    }
+}
@@ -0,0 +1,127 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightEventsTest {
+
+    @TempDir
+    Path dir;
+
+    private Recording recording;
+
+    @BeforeEach
+    public void setUp() {
+        assertTrue(FlightEvents.AVAILABLE);
+        recording = new Recording();
+        String[] events = { "org.cis120.Command", "org.cis120.BroadcastDispatched" };
+        for (String name : events) {
+            recording.enable(name).withThreshold(Duration.ZERO);
+        }
+        recording.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        recording.close();
+    }
+
+    /**
+     * @return the events of the given type recorded so far, in order
+     */
+    private List<RecordedEvent> stop(String name) throws IOException {
+        recording.stop();
+        Path file = dir.resolve("recording.jfr");
+        recording.dump(file);
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            if (event.getEventType().getName().equals(name)) {
+                events.add(event);
+            }
+        }
+        Collections.sort(events, new Comparator<RecordedEvent>() {
+            @Override
+            public int compare(RecordedEvent a, RecordedEvent b) {
+                return a.getStartTime().compareTo(b.getStartTime());
+            }
+        });
+        return events;
+    }
+
+    @Test
+    public void testRecordsCommands() throws IOException {
+        ServerModel model = new ServerModel();
+        model.registerUser(0);
+        model.registerUser(1);
+        model.apply(new CreateCommand(0, "User0", "java", false));
+        model.apply(new JoinCommand(1, "User1", "java"));
+        model.apply(new MessageCommand(1, "User1", "java", "hello"));
+        // not through apply, so not recorded
+        new LeaveCommand(1, "User1", "java").updateServerModel(model);
+
+        List<RecordedEvent> events = stop("org.cis120.Command");
+        assertEquals(3, events.size());
+        assertEquals("CREATE", events.get(0).getString("command"));
+        assertEquals("JOIN", events.get(1).getString("command"));
+        RecordedEvent message = events.get(2);
+        assertEquals("MESG", message.getString("command"));
+        assertEquals("java", message.getString("channel"));
+        assertEquals("User1", message.getString("sender"));
+        assertEquals(2, message.getInt("recipients"));
+        assertFalse(message.getDuration().isNegative());
+    }
+
+    @Test
+    public void testRecordsDispatches() throws IOException {
+        ServerModel model = new ServerModel();
+        Map<Integer, ClientConnection> connections = new ConcurrentHashMap<>();
+        for (int id = 0; id < 3; id++) {
+            connections.put(id, new ClientConnection() {
+                @Override
+                public void send(List<ByteBuffer> frames) {
+                }
+
+                @Override
+                public long getBytesWritten() {
+                    return 0;
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        }
+        ServerLog log = new ServerLog(ServerLog.Level.WARN, 1, ServerLog.CONSOLE);
+        ResponseBatch responses = new ResponseBatch(model, connections, log);
+        for (int id = 0; id < 3; id++) {
+            responses.collect(model.registerUser(id));
+        }
+        responses.collect(model.apply(new CreateCommand(0, "User0", "java", false)));
+        responses.send();
+        log.close();
+
+        List<RecordedEvent> events = stop("org.cis120.BroadcastDispatched");
+        assertEquals(1, events.size());
+        assertEquals(3, events.get(0).getInt("recipients"));
+        assertEquals(4, events.get(0).getInt("frames"));
+    }
+
+    @Test
+    public void testVerbs() {
+        assertEquals("NICK", CommandParser.verbOf(new NicknameCommand(0, "User0", "cis120")));
+        assertEquals("HISTORY", CommandParser.verbOf(new HistoryCommand(0, "User0", "java", 5)));
+        assertEquals("KICK", CommandParser.verbOf(new KickCommand(0, "User0", "java", "User1")));
+    }
+}
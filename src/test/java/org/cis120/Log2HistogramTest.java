@@ -0,0 +1,34 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Log2HistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        assertEquals(0, Log2Histogram.bucketOf(0));
+        assertEquals(1, Log2Histogram.bucketOf(1));
+        assertEquals(2, Log2Histogram.bucketOf(2));
+        assertEquals(2, Log2Histogram.bucketOf(3));
+        assertEquals(3, Log2Histogram.bucketOf(4));
+        assertEquals(Log2Histogram.BUCKETS - 1, Log2Histogram.bucketOf(Long.MAX_VALUE));
+        for (int i = 1; i < Log2Histogram.BUCKETS; i++) {
+            assertEquals(i, Log2Histogram.bucketOf(Log2Histogram.lowerBound(i)));
+            assertEquals(i, Log2Histogram.bucketOf(Log2Histogram.upperBound(i)));
+        }
+    }
+
+    @Test
+    public void testRecordAndFormat() {
+        Log2Histogram histogram = new Log2Histogram();
+        histogram.record(1);
+        histogram.record(2);
+        histogram.record(3);
+        histogram.record(100);
+        assertEquals(4, histogram.getCount());
+        assertEquals(106, histogram.getSum());
+        assertEquals(2, histogram.getCount(2));
+        assertEquals("1:1 2-3:2 64-127:1", histogram.toString());
+    }
+}
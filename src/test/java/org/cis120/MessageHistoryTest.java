@@ -0,0 +1,233 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class MessageHistoryTest {
+
+    @TempDir
+    Path dir;
+
+    private ServerLog log;
+    private MessageHistory history;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        log = new ServerLog(ServerLog.Level.WARN, 1, ServerLog.CONSOLE);
+        history = new MessageHistory(dir, 4096, 2, log);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        history.close();
+        log.close();
+    }
+
+    private static String message(int i) {
+        return String.format(":User0 MESG java :message %d", i);
+    }
+
+    private static String text(List<ByteBuffer> frames) {
+        StringBuilder text = new StringBuilder();
+        for (ByteBuffer frame : frames) {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            text.append(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return text.toString();
+    }
+
+    private static String lines(int from, int to) {
+        StringBuilder lines = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            lines.append(message(i)).append('\n');
+        }
+        return lines.toString();
+    }
+
+    @Test
+    public void testLastMessages() {
+        for (int i = 0; i < 5; i++) {
+            history.append("java", message(i));
+        }
+        List<ByteBuffer> frames = new ArrayList<>();
+        assertEquals(3, history.last("java", 3, frames));
+        assertEquals(1, frames.size(), "one slice per segment");
+        assertTrue(frames.get(0).isReadOnly());
+        assertEquals(lines(2, 5), text(frames));
+
+        frames.clear();
+        assertEquals(5, history.last("java", 100, frames));
+        assertEquals(lines(0, 5), text(frames));
+
+        frames.clear();
+        assertEquals(0, history.last("python", 10, frames));
+        assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    public void testRollsAndDropsOldSegments() throws IOException {
+        // about 40 bytes and an index entry per message, so about 90 fit
+        // in a segment
+        for (int i = 0; i < 300; i++) {
+            history.append("java", message(i));
+        }
+        List<Path> segments = new ArrayList<>();
+        for (Path file : Files.newDirectoryStream(dir.resolve("java"))) {
+            segments.add(file);
+        }
+        assertEquals(2, segments.size());
+
+        List<ByteBuffer> frames = new ArrayList<>();
+        int found = history.last("java", 1000, frames);
+        assertTrue(found > 100 && found < 200, "found " + found);
+        assertEquals(2, frames.size());
+        assertEquals(lines(300 - found, 300), text(frames));
+
+        // a fetch spanning the boundary between the segments
+        frames.clear();
+        assertEquals(found - 10, history.last("java", found - 10, frames));
+        assertEquals(lines(310 - found, 300), text(frames));
+    }
+
+    @Test
+    public void testReopenKeepsMessages() throws IOException {
+        for (int i = 0; i < 150; i++) {
+            history.append("java", message(i));
+        }
+        List<ByteBuffer> before = new ArrayList<>();
+        int found = history.last("java", 1000, before);
+        history.close();
+
+        history = new MessageHistory(dir, 4096, 2, log);
+        List<ByteBuffer> after = new ArrayList<>();
+        assertEquals(found, history.last("java", 1000, after));
+        assertEquals(text(before), text(after));
+
+        history.append("java", message(150));
+        after.clear();
+        assertEquals(2, history.last("java", 2, after));
+        assertEquals(lines(149, 151), text(after));
+    }
+
+    @Test
+    public void testClearDeletesHistory() {
+        history.append("java", message(0));
+        history.clear("java");
+        assertFalse(Files.exists(dir.resolve("java")));
+        assertEquals(0, history.last("java", 10, new ArrayList<ByteBuffer>()));
+        // clearing a channel without a history does nothing
+        history.clear("python");
+    }
+
+    @Test
+    public void testSlicesOutliveClear() {
+        history.append("java", message(0));
+        List<ByteBuffer> frames = new ArrayList<>();
+        history.last("java", 1, frames);
+        history.clear("java");
+        assertEquals(lines(0, 1), text(frames));
+    }
+
+    @Test
+    public void testEncodesAsResponsesAre() {
+        String[] messages = {
+            ":User0 MESG java :café", ":User0 MESG java :€1",
+            ":User0 MESG java :😀", ":User0 MESG java :lone \ud83d surrogate"
+        };
+        for (String message : messages) {
+            history.append("java", message);
+        }
+        List<ByteBuffer> frames = new ArrayList<>();
+        assertEquals(messages.length, history.last("java", messages.length, frames));
+        List<ByteBuffer> expected = new ArrayList<>();
+        for (String message : messages) {
+            expected.add(OutboundQueue.encode(message));
+        }
+        assertEquals(text(expected), text(frames));
+    }
+
+    @Test
+    public void testTooLongMessageIsSkipped() {
+        char[] payload = new char[5000];
+        Arrays.fill(payload, 'x');
+        history.append("java", ":User0 MESG java :" + new String(payload));
+        history.append("java", message(0));
+        List<ByteBuffer> frames = new ArrayList<>();
+        assertEquals(1, history.last("java", 10, frames));
+    }
+
+    // ==========================================================================
+    // Through the model
+    // ==========================================================================
+
+    @Test
+    public void testHistoryCommand() {
+        ServerModel model = new ServerModel();
+        model.setHistory(history);
+        model.registerUser(0);
+        model.registerUser(1);
+        model.registerUser(2);
+        model.createChannel(new CreateCommand(0, "User0", "java", false));
+        model.joinChannel(new JoinCommand(1, "User1", "java"));
+        model.sendMessage(new MessageCommand(0, "User0", "java", "hello"));
+        model.sendMessage(new MessageCommand(1, "User1", "java", "hi"));
+
+        Broadcast broadcast = model.fetchHistory(new HistoryCommand(1, "User1", "java", 5));
+        Map<Integer, List<String>> responses = broadcast.getResponses(model);
+        assertEquals(
+                Collections.singletonMap(1, Collections.singletonList(":User1 HISTORY java 2")),
+                responses
+        );
+        assertEquals(
+                ":User0 MESG java :hello\n:User1 MESG java :hi\n",
+                text(broadcast.getFrames(model).get(1))
+        );
+
+        assertEquals(
+                Broadcast.error(
+                        new HistoryCommand(2, "User2", "java", 5),
+                        ServerResponse.USER_NOT_IN_CHANNEL
+                ),
+                model.fetchHistory(new HistoryCommand(2, "User2", "java", 5))
+        );
+        assertEquals(
+                Broadcast.error(
+                        new HistoryCommand(1, "User1", "python", 5),
+                        ServerResponse.NO_SUCH_CHANNEL
+                ),
+                model.fetchHistory(new HistoryCommand(1, "User1", "python", 5))
+        );
+
+        // deleting the channel deletes its history
+        model.leaveChannel(new LeaveCommand(0, "User0", "java"));
+        model.createChannel(new CreateCommand(1, "User1", "java", false));
+        broadcast = model.fetchHistory(new HistoryCommand(1, "User1", "java", 5));
+        assertEquals(
+                Collections.singletonMap(1, Collections.singletonList(":User1 HISTORY java 0")),
+                broadcast.getResponses(model)
+        );
+        assertTrue(broadcast.getFrames(model).isEmpty());
+    }
+
+    @Test
+    public void testHistoryCommandWithoutHistory() {
+        ServerModel model = new ServerModel();
+        model.registerUser(0);
+        model.createChannel(new CreateCommand(0, "User0", "java", false));
+        model.sendMessage(new MessageCommand(0, "User0", "java", "hello"));
+        Broadcast broadcast = model.fetchHistory(new HistoryCommand(0, "User0", "java", 5));
+        assertEquals(
+                Collections.singletonMap(0, Collections.singletonList(":User0 HISTORY java 0")),
+                broadcast.getResponses(model)
+        );
+    }
+}
@@ -0,0 +1,145 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ModelShardsTest {
+
+    private static final int USERS = 40;
+    private static final int CHANNELS = 12;
+
+    private ServerLog log;
+
+    @BeforeEach
+    public void setUp() {
+        log = new ServerLog(ServerLog.Level.WARN, 1, ServerLog.CONSOLE);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        log.close();
+    }
+
+    /**
+     * Records the lines sent to one user.
+     */
+    private static final class RecordingConnection implements ClientConnection {
+        private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void send(List<ByteBuffer> frames) {
+            for (ByteBuffer frame : frames) {
+                lines.add(StandardCharsets.UTF_8.decode(frame.duplicate()).toString().trim());
+            }
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A sequence of channel-scoped commands over several channels: each
+     * channel is created by one user, joined by others, messaged, and left.
+     */
+    private static List<Command> workload(ServerModel model) {
+        List<Command> commands = new ArrayList<>();
+        for (int c = 0; c < CHANNELS; c++) {
+            commands.add(new CreateCommand(c, model.getNickname(c), "ch" + c, false));
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int id = CHANNELS; id < USERS; id++) {
+                String channel = "ch" + ((id + round) % CHANNELS);
+                String nick = model.getNickname(id);
+                commands.add(new JoinCommand(id, nick, channel));
+                commands.add(new MessageCommand(id, nick, channel, "m" + round));
+                if (id % 3 == round) {
+                    commands.add(new LeaveCommand(id, nick, channel));
+                }
+            }
+        }
+        return commands;
+    }
+
+    private static ServerModel registered() {
+        ServerModel model = new ServerModel();
+        for (int id = 0; id < USERS; id++) {
+            model.registerUser(id);
+        }
+        return model;
+    }
+
+    @Test
+    public void testShardedMatchesSequential() {
+        ServerModel sequential = registered();
+        for (Command command : workload(sequential)) {
+            command.updateServerModel(sequential);
+        }
+
+        ServerModel sharded = registered();
+        ModelShards shards = new ModelShards(
+                4, sharded, new ConcurrentHashMap<Integer, ClientConnection>(), log, 16
+        );
+        shards.start();
+        for (Command command : workload(sharded)) {
+            shards.route(ModelShards.channelOf(command), command);
+        }
+        shards.quiesce();
+
+        assertEquals(sequential.getChannels(), sharded.getChannels());
+        for (String channel : sequential.getChannels()) {
+            assertEquals(
+                    sequential.getUsersInChannel(channel), sharded.getUsersInChannel(channel),
+                    channel
+            );
+        }
+
+        // a global operation after quiescing sees every channel's state
+        sharded.changeNickname(new NicknameCommand(0, "User0", "renamed"));
+        assertTrue(sharded.getUsersInChannel("ch0").contains("renamed"));
+        shards.close();
+    }
+
+    @Test
+    public void testChannelOrderPreservedPerRecipient() {
+        ServerModel model = registered();
+        Map<Integer, ClientConnection> connections = new ConcurrentHashMap<>();
+        RecordingConnection owner = new RecordingConnection();
+        connections.put(0, owner);
+        ModelShards shards = new ModelShards(3, model, connections, log, 4);
+        shards.start();
+
+        shards.route("java", new CreateCommand(0, "User0", "java", false));
+        shards.route("java", new JoinCommand(1, "User1", "java"));
+        for (int i = 0; i < 100; i++) {
+            shards.route("java", new MessageCommand(1, "User1", "java", "" + i));
+        }
+        shards.close();
+
+        int expected = 0;
+        for (String line : owner.lines) {
+            if (line.startsWith(":User1 MESG java :")) {
+                assertEquals(":User1 MESG java :" + expected, line);
+                expected++;
+            }
+        }
+        assertEquals(100, expected, "every message delivered");
+    }
+
+    @Test
+    public void testOnlyChannelCommandsRouted() {
+        assertEquals("java", ModelShards.channelOf(new KickCommand(0, "a", "java", "b")));
+        assertEquals("java", ModelShards.channelOf(new InviteCommand(0, "a", "java", "b")));
+        assertNull(ModelShards.channelOf(new NicknameCommand(0, "a", "b")));
+    }
+}
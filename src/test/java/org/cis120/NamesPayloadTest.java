@@ -0,0 +1,168 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+public class NamesPayloadTest {
+
+    @Test
+    public void testBuild() {
+        assertEquals(
+                "@User0 User1 User10 User2",
+                NamesPayload.build("User0", Arrays.asList("User0", "User1", "User10", "User2"))
+        );
+        assertEquals("User0 @User1", NamesPayload.build("User1", Arrays.asList("User0", "User1")));
+        assertEquals("@User0", NamesPayload.build("User0", Collections.singleton("User0")));
+    }
+
+    @Test
+    public void testInsert() {
+        String payload = "@User1 User3";
+        assertEquals("User0 @User1 User3", NamesPayload.insert(payload, "User0"));
+        assertEquals("@User1 User2 User3", NamesPayload.insert(payload, "User2"));
+        assertEquals("@User1 User3 User4", NamesPayload.insert(payload, "User4"));
+        // a nickname that is a prefix of another sorts before it
+        assertEquals("@User1 User10 User3", NamesPayload.insert(payload, "User10"));
+        assertEquals("User @User1 User3", NamesPayload.insert(payload, "User"));
+        // the owner's '@' is not part of its nickname
+        assertEquals("@User1 User3 a", NamesPayload.insert(payload, "a"));
+        assertSame(payload, NamesPayload.insert(payload, "User3"));
+        assertSame(payload, NamesPayload.insert(payload, "User1"));
+    }
+
+    @Test
+    public void testRemove() {
+        String payload = "User0 @User1 User10 User3";
+        assertEquals("@User1 User10 User3", NamesPayload.remove(payload, "User0"));
+        assertEquals("User0 @User1 User3", NamesPayload.remove(payload, "User10"));
+        assertEquals("User0 @User1 User10", NamesPayload.remove(payload, "User3"));
+        assertSame(payload, NamesPayload.remove(payload, "User2"));
+        assertSame(payload, NamesPayload.remove(payload, "User"));
+        assertEquals("", NamesPayload.remove("User0", "User0"));
+    }
+
+    @Test
+    public void testMatchesBuildAfterChurn() {
+        Random random = new Random(120);
+        TreeSet<String> nicks = new TreeSet<>();
+        nicks.add("owner");
+        String payload = NamesPayload.build("owner", nicks);
+        for (int i = 0; i < 2000; i++) {
+            String nick = (random.nextBoolean() ? "User" : "user") + random.nextInt(200);
+            if (nicks.contains(nick)) {
+                nicks.remove(nick);
+                payload = NamesPayload.remove(payload, nick);
+            } else {
+                nicks.add(nick);
+                payload = NamesPayload.insert(payload, nick);
+            }
+            assertEquals(NamesPayload.build("owner", nicks), payload);
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    public void testShortNicknames() {
+        // the middle of the search can fall on the space before the end of
+        // its range
+        assertEquals("a aa @bob", NamesPayload.insert("a @bob", "aa"));
+        assertEquals("a @b", NamesPayload.insert("@b", "a"));
+        assertEquals("@b c", NamesPayload.insert("@b", "c"));
+        assertEquals("a", NamesPayload.insert("", "a"));
+        assertSame("", NamesPayload.remove("", "a"));
+    }
+
+    @Test
+    @Timeout(10)
+    public void testMatchesBuildAfterChurnWithShortNicknames() {
+        Random random = new Random(120);
+        String letters = "abAB0";
+        for (int round = 0; round < 50; round++) {
+            TreeSet<String> nicks = new TreeSet<>();
+            String owner = "o" + round;
+            nicks.add(owner);
+            String payload = NamesPayload.build(owner, nicks);
+            for (int i = 0; i < 400; i++) {
+                String nick = String.valueOf(letters.charAt(random.nextInt(letters.length())));
+                if (random.nextBoolean()) {
+                    nick += letters.charAt(random.nextInt(letters.length()));
+                }
+                if (nicks.contains(nick)) {
+                    nicks.remove(nick);
+                    payload = NamesPayload.remove(payload, nick);
+                } else {
+                    nicks.add(nick);
+                    payload = NamesPayload.insert(payload, nick);
+                }
+                assertEquals(NamesPayload.build(owner, nicks), payload);
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Cached by the model
+    // ==========================================================================
+
+    private static final int USERS = 40;
+
+    private static Broadcast expectedNames(ServerModel model, Command command, String channel) {
+        return Broadcast.names(command, model.getUsersInChannel(channel), model.getOwner(channel));
+    }
+
+    @Test
+    public void testJoinNamesMatchAfterChurn() {
+        ServerModel model = new ServerModel();
+        for (int i = 0; i < USERS; i++) {
+            model.registerUser(i);
+        }
+        model.createChannel(new CreateCommand(0, "User0", "java", false));
+        model.createChannel(new CreateCommand(0, "User0", "secret", true));
+
+        Random random = new Random(120);
+        for (int step = 0; step < 1000; step++) {
+            int id = 1 + random.nextInt(USERS - 1);
+            String nick = model.getNickname(id);
+            Collection<String> members = model.getUsersInChannel("java");
+            int op = random.nextInt(6);
+            if (op == 0) {
+                // rename anyone, including the owner
+                int renamed = random.nextInt(USERS);
+                model.changeNickname(new NicknameCommand(
+                        renamed, model.getNickname(renamed), "n" + random.nextInt(1000) + "x" + step
+                ));
+            } else if (op == 1) {
+                InviteCommand invite = new InviteCommand(0, model.getNickname(0), "secret", nick);
+                Broadcast actual = model.inviteUser(invite);
+                assertEquals(expectedNames(model, invite, "secret"), actual);
+            } else if (op == 2 && members.contains(nick)) {
+                model.kickUser(new KickCommand(0, model.getNickname(0), "java", nick));
+            } else if (members.contains(nick)) {
+                model.leaveChannel(new LeaveCommand(id, nick, "java"));
+            } else {
+                JoinCommand join = new JoinCommand(id, nick, "java");
+                Broadcast actual = model.joinChannel(join);
+                assertEquals(expectedNames(model, join, "java"), actual, "step " + step);
+            }
+        }
+    }
+
+    @Test
+    public void testJoinNamesAfterDeregister() {
+        ServerModel model = new ServerModel();
+        for (int i = 0; i < 4; i++) {
+            model.registerUser(i);
+        }
+        model.createChannel(new CreateCommand(0, "User0", "java", false));
+        model.joinChannel(new JoinCommand(1, "User1", "java"));
+        model.joinChannel(new JoinCommand(2, "User2", "java"));
+        model.deregisterUser(1);
+
+        JoinCommand join = new JoinCommand(3, "User3", "java");
+        assertEquals(
+                Broadcast.names(join, Arrays.asList("User0", "User2", "User3"), "User0"),
+                model.joinChannel(join)
+        );
+    }
+}
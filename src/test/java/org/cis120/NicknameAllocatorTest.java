@@ -0,0 +1,106 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+public class NicknameAllocatorTest {
+
+    private Set<String> taken;
+    private NicknameAllocator allocator;
+
+    @BeforeEach
+    public void setUp() {
+        taken = new HashSet<>();
+        allocator = new NicknameAllocator(taken);
+    }
+
+    private String take() {
+        String nickname = allocator.allocate();
+        assertTrue(taken.add(nickname), nickname + " is already taken");
+        return nickname;
+    }
+
+    private void give(String nickname) {
+        taken.remove(nickname);
+        allocator.release(nickname);
+    }
+
+    @Test
+    public void testCountsUp() {
+        assertEquals("User0", take());
+        assertEquals("User1", take());
+        assertEquals("User2", take());
+    }
+
+    @Test
+    public void testReusesSmallestReleased() {
+        for (int i = 0; i < 5; i++) {
+            take();
+        }
+        give("User3");
+        give("User1");
+        assertEquals("User1", take());
+        assertEquals("User3", take());
+        assertEquals("User5", take());
+    }
+
+    @Test
+    public void testSkipsNicknamesTakenByNick() {
+        take();
+        taken.add("User1");
+        taken.add("User3");
+        assertEquals("User2", take());
+        assertEquals("User4", take());
+
+        // a released default taken by a NICK before it is handed out again
+        give("User2");
+        taken.add("User2");
+        assertEquals("User5", take());
+
+        // given up by the users who took them
+        give("User3");
+        give("User1");
+        assertEquals("User1", take());
+        assertEquals("User3", take());
+    }
+
+    @Test
+    public void testSuffixOf() {
+        assertEquals(0, NicknameAllocator.suffixOf("User0"));
+        assertEquals(42, NicknameAllocator.suffixOf("User42"));
+        assertEquals(-1, NicknameAllocator.suffixOf("User"));
+        assertEquals(-1, NicknameAllocator.suffixOf("User01"));
+        assertEquals(-1, NicknameAllocator.suffixOf("User4x"));
+        assertEquals(-1, NicknameAllocator.suffixOf("user4"));
+        assertEquals(-1, NicknameAllocator.suffixOf("User12345678901"));
+    }
+
+    @Test
+    public void testModelMatchesLinearProbe() {
+        ServerModel model = new ServerModel();
+        List<Integer> connected = new ArrayList<>();
+        Random random = new Random(120);
+        for (int id = 0; id < 3000; id++) {
+            int op = random.nextInt(4);
+            if (op == 0 && !connected.isEmpty()) {
+                model.deregisterUser(connected.remove(random.nextInt(connected.size())));
+            } else if (op == 1 && !connected.isEmpty()) {
+                int renamed = connected.get(random.nextInt(connected.size()));
+                model.changeNickname(new NicknameCommand(
+                        renamed, model.getNickname(renamed), "User" + random.nextInt(60)
+                ));
+            } else {
+                Collection<String> registered = model.getRegisteredUsers();
+                int suffix = 0;
+                while (registered.contains("User" + suffix)) {
+                    suffix++;
+                }
+                model.registerUser(id);
+                connected.add(id);
+                assertEquals("User" + suffix, model.getNickname(id));
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class NioEngineTest {
+
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private ServerBackend backend;
+    private Thread thread;
+    private int port;
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static ServerConfig config() {
+        return ServerConfig.defaults()
+                .withBindAddress(InetAddress.getLoopbackAddress())
+                .withEngine(ServerConfig.Engine.NIO)
+                .withLogLevel(ServerLog.Level.ERROR);
+    }
+
+    private void start(ServerConfig config) throws IOException {
+        port = freePort();
+        backend = new ServerBackend(new ServerModel(), config.withPort(port));
+        thread = new Thread(backend, "Server");
+        thread.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        if (backend != null) {
+            backend.stop();
+            thread.join(TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * A connected client, which has read its CONNECT line.
+     */
+    private final class Client implements AutoCloseable {
+        final Socket socket;
+        final BufferedReader in;
+        final OutputStream out;
+        final String nickname;
+
+        Client() throws IOException, InterruptedException {
+            Socket connected = null;
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (connected == null) {
+                try {
+                    connected = new Socket(InetAddress.getLoopbackAddress(), port);
+                } catch (IOException iox) {
+                    assertTrue(System.currentTimeMillis() < deadline, "server did not start");
+                    Thread.sleep(50);
+                }
+            }
+            socket = connected;
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)
+            );
+            out = socket.getOutputStream();
+            String line = in.readLine();
+            nickname = line.substring(1, line.indexOf(' '));
+        }
+
+        void write(String text) throws IOException {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        String readLine() throws IOException {
+            return in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Reads from a socket until the server closes it.
+     */
+    private static void awaitClosed(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            while (in.read(buffer) >= 0) {
+                // discard what was queued before the close
+            }
+        } catch (SocketTimeoutException stx) {
+            fail("connection not closed");
+        } catch (IOException iox) {
+            // reset by the server; closed all the same
+        }
+    }
+
+    /**
+     * Creates a public channel owned by the first client and joins the
+     * second to it.
+     */
+    private static void share(Client owner, Client member) throws IOException {
+        owner.write("CREATE java 0\n");
+        assertEquals(":" + owner.nickname + " CREATE java 0", owner.readLine());
+        member.write("JOIN java\n");
+        assertEquals(":" + member.nickname + " JOIN java", owner.readLine());
+        assertEquals(":" + member.nickname + " JOIN java", member.readLine());
+        assertTrue(member.readLine().contains(" NAMES java :"));
+    }
+
+    // ==========================================================================
+    // Framing
+    // ==========================================================================
+
+    @Test
+    public void testLineSplitAcrossReads() throws Exception {
+        start(config());
+        try (Client client = new Client()) {
+            client.write("CRE");
+            Thread.sleep(100);
+            client.write("ATE ja");
+            Thread.sleep(100);
+            client.write("va 0\nCREATE python 0\nCREATE c");
+            assertEquals(":" + client.nickname + " CREATE java 0", client.readLine());
+            assertEquals(":" + client.nickname + " CREATE python 0", client.readLine());
+            Thread.sleep(100);
+            client.write("pp 0\n");
+            assertEquals(":" + client.nickname + " CREATE cpp 0", client.readLine());
+        }
+    }
+
+    @Test
+    public void testCrlfAndEmptyLines() throws Exception {
+        start(config());
+        try (Client client = new Client()) {
+            // empty lines reach the backend, which ignores them as malformed
+            client.write("\n\r\nCREATE java 0\r\n\n");
+            assertEquals(":" + client.nickname + " CREATE java 0", client.readLine());
+            client.write("CREATE python 0\n");
+            assertEquals(":" + client.nickname + " CREATE python 0", client.readLine());
+        }
+    }
+
+    @Test
+    public void testOverlongLineDisconnects() throws Exception {
+        start(config());
+        try (Client owner = new Client(); Client member = new Client()) {
+            share(owner, member);
+            byte[] line = new byte[NioEngine.MAX_LINE_LENGTH + 1];
+            Arrays.fill(line, (byte) 'x');
+            try {
+                member.out.write(line);
+                member.out.flush();
+            } catch (IOException iox) {
+                // closed by the server before everything was written
+            }
+            awaitClosed(member.socket);
+            assertEquals(":" + member.nickname + " QUIT", owner.readLine());
+        }
+    }
+
+    @Test
+    public void testPendingLineAtEndOfStream() throws Exception {
+        start(config());
+        try (Client owner = new Client(); Client member = new Client()) {
+            owner.write("CREATE java 0\n");
+            assertEquals(":" + owner.nickname + " CREATE java 0", owner.readLine());
+            member.write("JOIN java");
+            member.socket.shutdownOutput();
+            assertEquals(":" + member.nickname + " JOIN java", owner.readLine());
+            assertEquals(":" + member.nickname + " QUIT", owner.readLine());
+        }
+    }
+
+    // ==========================================================================
+    // Writing
+    // ==========================================================================
+
+    @Test
+    public void testWritesResumeWhenSocketDrains() throws Exception {
+        // far more than the socket buffers hold, so that writes are partial
+        // and the loop waits for the socket to become writable again
+        start(config()
+                .withOutboundCapacity(1024)
+                .withOverflowPolicy(OutboundQueue.OverflowPolicy.DISCONNECT));
+        int messages = 400;
+        char[] text = new char[32 * 1024];
+        Arrays.fill(text, 'x');
+        String payload = new String(text);
+        try (Client sender = new Client(); Client reader = new Client()) {
+            share(sender, reader);
+            for (int i = 0; i < messages; i++) {
+                sender.write("MESG java :" + i + payload + "\n");
+                assertEquals(
+                        ":" + sender.nickname + " MESG java :" + i + payload, sender.readLine()
+                );
+            }
+            for (int i = 0; i < messages; i++) {
+                assertEquals(
+                        ":" + sender.nickname + " MESG java :" + i + payload, reader.readLine(),
+                        "message " + i
+                );
+            }
+        }
+    }
+
+    // ==========================================================================
+    // Slow clients
+    // ==========================================================================
+
+    @Test
+    public void testSlowClientDisconnectedWhileTaskRingIsFull() throws Exception {
+        // a two-slot ring stays full while the sender pipelines messages, so
+        // the disconnection of the client that reads nothing is found while
+        // the model thread, the ring's only consumer, cannot make room
+        start(config()
+                .withTaskChannel(ServerConfig.TaskChannel.RING)
+                .withRingCapacity(2)
+                .withOutboundCapacity(64)
+                .withOverflowPolicy(OutboundQueue.OverflowPolicy.DISCONNECT));
+        try (Client sender = new Client(); Client slow = new Client()) {
+            sender.write("CREATE java 0\n");
+            assertEquals(":" + sender.nickname + " CREATE java 0", sender.readLine());
+            slow.write("JOIN java\n");
+            assertEquals(":" + slow.nickname + " JOIN java", sender.readLine());
+
+            char[] text = new char[8000];
+            Arrays.fill(text, 'x');
+            String message = "MESG java :" + new String(text) + "\n";
+            StringBuilder burst = new StringBuilder();
+            for (int i = 0; i < 32; i++) {
+                burst.append(message);
+            }
+            boolean quit = false;
+            for (int round = 0; round < 200 && !quit; round++) {
+                sender.write(burst.toString());
+                for (int i = 0; i < 32; i++) {
+                    String line = sender.readLine();
+                    assertNotNull(line, "server stopped answering");
+                    if (line.equals(":" + slow.nickname + " QUIT")) {
+                        quit = true;
+                        // the rest of this burst's messages follow
+                        i--;
+                    }
+                }
+            }
+            assertTrue(quit, "slow client not disconnected");
+            awaitClosed(slow.socket);
+
+            // the server still serves its other clients
+            sender.write("CREATE python 0\n");
+            assertEquals(":" + sender.nickname + " CREATE python 0", sender.readLine());
+        }
+    }
+}
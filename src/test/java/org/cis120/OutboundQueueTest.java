@@ -0,0 +1,70 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class OutboundQueueTest {
+
+    private static ByteBuffer frame(String line) {
+        return OutboundQueue.encode(line);
+    }
+
+    private static String text(ByteBuffer frame) {
+        return StandardCharsets.UTF_8.decode(frame.duplicate()).toString();
+    }
+
+    @Test
+    public void testEncodeTerminatesLine() {
+        ByteBuffer frame = OutboundQueue.encode(":User0 MESG java :h\u00e9llo");
+        assertEquals(":User0 MESG java :h\u00e9llo\n", text(frame));
+        assertTrue(frame.isReadOnly(), "shared frames are read-only");
+    }
+
+    @Test
+    public void testSharedFrameDuplicatesAreIndependent() {
+        ByteBuffer shared = OutboundQueue.encode("hello");
+        OutboundQueue first = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT);
+        OutboundQueue second = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT);
+        first.offer(shared.duplicate());
+        second.offer(shared.duplicate());
+
+        ByteBuffer written = first.poll();
+        written.position(written.limit());
+        assertEquals("hello\n", text(second.poll()), "other recipient unaffected");
+        assertEquals(0, shared.position(), "shared frame unaffected");
+    }
+
+    @Test
+    public void testPollInOrder() {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(frame("a")));
+        assertTrue(queue.offer(frame("b")));
+        assertEquals("a\n", text(queue.poll()));
+        assertEquals("b\n", text(queue.poll()));
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testDropOldestWhenFull() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        assertTrue(queue.offer(frame("a")));
+        assertTrue(queue.offer(frame("b")));
+        assertTrue(queue.offer(frame("c")));
+        assertEquals(1, queue.getDropped(), "one frame dropped");
+        assertEquals("b\n", text(queue.poll()));
+        assertEquals("c\n", text(queue.poll()));
+    }
+
+    @Test
+    public void testDisconnectPolicyRefusesWhenFull() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(frame("a")));
+        assertFalse(queue.offer(frame("b")), "full queue refuses frame");
+        assertEquals("a\n", text(queue.poll()));
+        assertNull(queue.poll(), "refused frame not queued");
+    }
+}
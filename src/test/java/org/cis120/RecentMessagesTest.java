@@ -0,0 +1,153 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class RecentMessagesTest {
+
+    private static ByteBuffer frame(int i) {
+        return OutboundQueue.encode(":User0 MESG java :message " + i);
+    }
+
+    private static String text(List<ByteBuffer> frames) {
+        StringBuilder text = new StringBuilder();
+        for (ByteBuffer frame : frames) {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            text.append(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void testKeepsLastMessages() {
+        RecentMessages ring = new RecentMessages.Budget(3, 1 << 20).newRing();
+        assertTrue(ring.get().isEmpty());
+        for (int i = 0; i < 5; i++) {
+            ring.add(frame(i));
+        }
+        assertEquals(3, ring.size());
+        assertEquals(text(Arrays.asList(frame(2), frame(3), frame(4))), text(ring.get()));
+    }
+
+    @Test
+    public void testBudgetEvictsColdRings() {
+        RecentMessages.Budget budget = new RecentMessages.Budget(10, 100000);
+        List<RecentMessages> rings = new ArrayList<>();
+        for (int c = 0; c < 1000; c++) {
+            RecentMessages ring = budget.newRing();
+            rings.add(ring);
+            for (int i = 0; i < 10; i++) {
+                ring.add(frame(i));
+            }
+            // keep the first ring in use
+            rings.get(0).get();
+            assertTrue(budget.getUsed() <= 100000, "used " + budget.getUsed());
+        }
+        assertEquals(10, rings.get(0).size(), "the ring in use is kept");
+        assertEquals(10, rings.get(999).size(), "the newest ring is kept");
+        assertEquals(0, rings.get(1).size(), "a cold ring is evicted");
+        assertTrue(budget.getRingCount() < 1000);
+
+        // an evicted ring fills up again
+        rings.get(1).add(frame(0));
+        assertEquals(1, rings.get(1).size());
+
+        for (RecentMessages ring : rings) {
+            ring.clear();
+        }
+        assertEquals(0, budget.getUsed());
+        assertEquals(0, budget.getRingCount());
+    }
+
+    @Test
+    public void testConcurrentAddsAndEvictionsBalance() throws InterruptedException {
+        final RecentMessages.Budget budget = new RecentMessages.Budget(8, 50000);
+        final List<RecentMessages> rings = new ArrayList<>();
+        for (int c = 0; c < 400; c++) {
+            rings.add(budget.newRing());
+        }
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int first = t * 100;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        rings.get(first + i % 100).add(frame(i));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (RecentMessages ring : rings) {
+            ring.clear();
+        }
+        assertEquals(0, budget.getUsed());
+    }
+
+    // ==========================================================================
+    // Through the model
+    // ==========================================================================
+
+    private ServerModel model;
+    private RecentMessages.Budget budget;
+
+    @BeforeEach
+    public void setUp() {
+        model = new ServerModel();
+        budget = new RecentMessages.Budget(2, 1 << 20);
+        model.setRecentMessages(budget);
+        for (int id = 0; id < 3; id++) {
+            model.registerUser(id);
+        }
+    }
+
+    @Test
+    public void testJoinSendsRecentMessagesAfterNames() {
+        model.createChannel(new CreateCommand(0, "User0", "java", false));
+        model.sendMessage(new MessageCommand(0, "User0", "java", "one"));
+        model.sendMessage(new MessageCommand(0, "User0", "java", "two"));
+        model.sendMessage(new MessageCommand(0, "User0", "java", "three"));
+
+        Broadcast broadcast = model.joinChannel(new JoinCommand(1, "User1", "java"));
+        assertEquals(
+                Arrays.asList(":User1 JOIN java", ":User1 NAMES java :@User0 User1"),
+                broadcast.getResponses(model).get(1)
+        );
+        Map<Integer, List<ByteBuffer>> frames = broadcast.getFrames(model);
+        assertEquals(Collections.singleton(1), frames.keySet());
+        assertEquals(
+                ":User0 MESG java :two\n:User0 MESG java :three\n", text(frames.get(1))
+        );
+    }
+
+    @Test
+    public void testPrivateChannelsKeepNone() {
+        model.createChannel(new CreateCommand(0, "User0", "secret", true));
+        model.sendMessage(new MessageCommand(0, "User0", "secret", "hush"));
+        Broadcast broadcast = model.inviteUser(new InviteCommand(0, "User0", "secret", "User1"));
+        assertTrue(broadcast.getFrames(model).isEmpty());
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void testDeletingChannelReleasesMemory() {
+        model.createChannel(new CreateCommand(0, "User0", "java", false));
+        model.sendMessage(new MessageCommand(0, "User0", "java", "one"));
+        assertTrue(budget.getUsed() > 0);
+        model.leaveChannel(new LeaveCommand(0, "User0", "java"));
+        assertEquals(0, budget.getUsed());
+
+        model.createChannel(new CreateCommand(0, "User0", "java", false));
+        Broadcast broadcast = model.joinChannel(new JoinCommand(1, "User1", "java"));
+        assertTrue(broadcast.getFrames(model).isEmpty());
+    }
+}
@@ -0,0 +1,54 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerBackendTest {
+
+    private static final int MIN = ServerBackend.MIN_BATCH_LIMIT;
+
+    @Test
+    public void testBatchLimitDoublesWhenFull() {
+        assertEquals(2 * MIN, ServerBackend.nextBatchLimit(MIN, MIN, 1024));
+        assertEquals(4 * MIN, ServerBackend.nextBatchLimit(2 * MIN, 2 * MIN, 1024));
+    }
+
+    @Test
+    public void testBatchLimitHalvesBelowAQuarter() {
+        assertEquals(128, ServerBackend.nextBatchLimit(256, 63, 1024));
+        assertEquals(128, ServerBackend.nextBatchLimit(256, 1, 1024));
+    }
+
+    @Test
+    public void testBatchLimitHoldsInBetween() {
+        assertEquals(256, ServerBackend.nextBatchLimit(256, 64, 1024));
+        assertEquals(256, ServerBackend.nextBatchLimit(256, 255, 1024));
+    }
+
+    @Test
+    public void testBatchLimitStaysWithinBounds() {
+        // never past the maximum, even when it is not a power of two
+        assertEquals(1000, ServerBackend.nextBatchLimit(512, 512, 1000));
+        assertEquals(1000, ServerBackend.nextBatchLimit(1000, 1000, 1000));
+        // never below the minimum
+        assertEquals(MIN, ServerBackend.nextBatchLimit(MIN, 0, 1024));
+        assertEquals(MIN, ServerBackend.nextBatchLimit(MIN + 2, 1, 1024));
+        // nor below a maximum smaller than the minimum
+        assertEquals(4, ServerBackend.nextBatchLimit(4, 4, 4));
+        assertEquals(4, ServerBackend.nextBatchLimit(4, 0, 4));
+        assertEquals(1, ServerBackend.nextBatchLimit(1, 1, 1));
+
+        // a run of full batches, then of empty ones
+        int limit = MIN;
+        for (int i = 0; i < 20; i++) {
+            limit = ServerBackend.nextBatchLimit(limit, limit, 1000);
+            assertTrue(limit >= MIN && limit <= 1000, "limit " + limit);
+        }
+        assertEquals(1000, limit);
+        for (int i = 0; i < 20; i++) {
+            limit = ServerBackend.nextBatchLimit(limit, 0, 1000);
+            assertTrue(limit >= MIN && limit <= 1000, "limit " + limit);
+        }
+        assertEquals(MIN, limit);
+    }
+}
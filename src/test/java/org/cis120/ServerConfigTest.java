@@ -0,0 +1,60 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ServerConfigTest {
+
+    private static final Map<String, String> NO_ENV = Collections.emptyMap();
+
+    @Test
+    public void testLauncherDefaults() {
+        ServerConfig config = ServerConfig.fromLauncher(new String[0], NO_ENV);
+        assertNull(config.getBindAddress(), "all interfaces");
+        assertEquals(ServerConfig.DEFAULT_PORT, config.getPort());
+        assertEquals(ServerConfig.DEFAULT_BACKLOG, config.getBacklog());
+        assertEquals(ServerConfig.Engine.BLOCKING, config.getEngine());
+    }
+
+    @Test
+    public void testLauncherOptionForms() {
+        ServerConfig config = ServerConfig.fromLauncher(
+                new String[] { "--engine=nio", "--io-threads", "3", "--bind-address=127.0.0.1" },
+                NO_ENV
+        );
+        assertEquals(ServerConfig.Engine.NIO, config.getEngine());
+        assertEquals(3, config.getIoThreads());
+        assertEquals("127.0.0.1", config.getBindAddress().getHostAddress());
+    }
+
+    @Test
+    public void testLauncherOptionsOverrideEnvironment() {
+        Map<String, String> env = new HashMap<>();
+        env.put("PENNPALS_PORT", "7000");
+        env.put("PENNPALS_BACKLOG", "512");
+        ServerConfig config = ServerConfig.fromLauncher(new String[] { "--port", "7001" }, env);
+        assertEquals(7001, config.getPort(), "option wins");
+        assertEquals(512, config.getBacklog(), "environment used");
+    }
+
+    @Test
+    public void testLauncherRejectsBadInput() {
+        final String[][] invalid = {
+            { "--colour=blue" }, { "--port" }, { "--port=http" }, { "--backlog=0" }, { "nio" },
+            { "--ringCapacity=1" }
+        };
+        for (final String[] args : invalid) {
+            assertThrows(IllegalArgumentException.class, new Executable() {
+                @Override
+                public void execute() {
+                    ServerConfig.fromLauncher(args, NO_ENV);
+                }
+            }, String.join(" ", args));
+        }
+    }
+}
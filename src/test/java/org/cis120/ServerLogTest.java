@@ -0,0 +1,127 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ServerLogTest {
+
+    /**
+     * Keeps what is written, as "LEVEL line".
+     */
+    private static final class RecordingSink implements ServerLog.Sink {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void write(ServerLog.Level level, String line) {
+            lines.add(level + " " + line);
+        }
+    }
+
+    @Test
+    public void testFiltersByLevel() {
+        RecordingSink sink = new RecordingSink();
+        ServerLog log = new ServerLog(ServerLog.Level.WARN, 1, sink);
+        assertTrue(log.isEnabled(ServerLog.Level.ERROR));
+        assertTrue(log.isEnabled(ServerLog.Level.WARN));
+        assertFalse(log.isEnabled(ServerLog.Level.INFO));
+        assertFalse(log.shouldTrace());
+
+        log.info("not logged");
+        log.warn("logged %d", 1);
+        log.error("logged 2", null);
+        log.close();
+        assertEquals(Arrays.asList("WARN logged 1", "ERROR logged 2"), sink.lines);
+    }
+
+    @Test
+    public void testFormatsArguments() {
+        RecordingSink sink = new RecordingSink();
+        ServerLog log = new ServerLog(ServerLog.Level.TRACE, 1, sink);
+        log.info("user %d is %s", 7, "User7");
+        log.trace("request \"%s\"", "MESG java :100%");
+        // an error's message is not a format
+        log.error("100% of %d", null);
+        log.error("failed", new IllegalStateException("cause"));
+        log.close();
+
+        assertEquals("INFO user 7 is User7", sink.lines.get(0));
+        assertEquals("TRACE request \"MESG java :100%\"", sink.lines.get(1));
+        assertEquals("ERROR 100% of %d", sink.lines.get(2));
+        String failed = sink.lines.get(3);
+        assertTrue(failed.startsWith("ERROR failed" + System.lineSeparator()), failed);
+        assertTrue(failed.contains("java.lang.IllegalStateException: cause"), failed);
+    }
+
+    @Test
+    public void testSamplesTrace() {
+        ServerLog log = new ServerLog(ServerLog.Level.TRACE, 3, new RecordingSink());
+        int sampled = 0;
+        for (int i = 0; i < 30; i++) {
+            if (log.shouldTrace()) {
+                sampled++;
+            }
+        }
+        log.close();
+        assertEquals(10, sampled);
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new ServerLog(ServerLog.Level.INFO, 0, new RecordingSink());
+            }
+        });
+    }
+
+    @Test
+    public void testCloseWritesQueuedMessages() {
+        RecordingSink sink = new RecordingSink();
+        ServerLog log = new ServerLog(ServerLog.Level.INFO, 1, sink);
+        for (int i = 0; i < 1000; i++) {
+            log.info("message %d", i);
+        }
+        log.close();
+        assertEquals(1000, sink.lines.size());
+        assertEquals("INFO message 999", sink.lines.get(999));
+        assertEquals(0, log.getDropped());
+    }
+
+    @Test
+    public void testDropsWhenFull() throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingSink sink = new RecordingSink();
+        ServerLog log = new ServerLog(ServerLog.Level.INFO, 1, new ServerLog.Sink() {
+            @Override
+            public void write(ServerLog.Level level, String line) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                }
+                sink.write(level, line);
+            }
+        }, 2);
+
+        // the writer takes the first message and stalls in the sink
+        log.info("message 0");
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) {
+            log.info("message %d", i);
+        }
+        assertEquals(3, log.getDropped());
+        release.countDown();
+        log.close();
+        assertEquals(
+                Arrays.asList("INFO message 0", "INFO message 1", "INFO message 2"), sink.lines
+        );
+    }
+}
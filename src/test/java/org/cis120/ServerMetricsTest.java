@@ -0,0 +1,207 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+public class ServerMetricsTest {
+
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    @TempDir
+    Path dir;
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * @return the value of the sample with the given name and labels, or -1
+     *         if there is none
+     */
+    private static double sample(String text, String series) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return Double.parseDouble(line.substring(series.length() + 1));
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testFormatsHistograms() {
+        Log2Histogram batchSizes = new Log2Histogram();
+        batchSizes.record(1);
+        batchSizes.record(5);
+        ServerMetrics metrics = new ServerMetrics(batchSizes);
+        metrics.getQueueWaits().record(500);
+        metrics.getQueueWaits().record(3000);
+        metrics.getQueueWaits().record(1L << 40);
+        metrics.broadcastCollected(3);
+
+        String text = metrics.format();
+        String waits = "pennpals_task_queue_wait_seconds";
+        assertTrue(text.contains("# TYPE " + waits + " histogram\n"), text);
+        // times below 2^10 ns fall in the first exported bucket
+        assertEquals(1, sample(text, waits + "_bucket{le=\"1.024E-6\"}"));
+        assertEquals(2, sample(text, waits + "_bucket{le=\"4.096E-6\"}"));
+        assertEquals(2, sample(text, waits + "_bucket{le=\"68.719476736\"}"));
+        assertEquals(3, sample(text, waits + "_bucket{le=\"+Inf\"}"));
+        assertEquals(3, sample(text, waits + "_count"));
+        assertEquals(((1L << 40) + 3500) / 1e9, sample(text, waits + "_sum"), 1e-9);
+
+        assertEquals(1, sample(text, "pennpals_model_batch_size_bucket{le=\"1\"}"));
+        assertEquals(1, sample(text, "pennpals_model_batch_size_bucket{le=\"3\"}"));
+        assertEquals(2, sample(text, "pennpals_model_batch_size_bucket{le=\"7\"}"));
+        assertEquals(6, sample(text, "pennpals_model_batch_size_sum"));
+        assertEquals(1, sample(text, "pennpals_broadcast_recipients_bucket{le=\"3\"}"));
+        assertEquals(
+                0, sample(text, "pennpals_command_duration_seconds_count{command=\"JOIN\"}")
+        );
+    }
+
+    @Test
+    public void testTimesCommandsByType() {
+        ServerModel model = new ServerModel();
+        model.registerUser(0);
+        ServerMetrics metrics = new ServerMetrics(new Log2Histogram());
+        assertEquals(
+                Broadcast.okay(new CreateCommand(0, "User0", "java", false),
+                        Collections.singleton("User0")),
+                metrics.apply(new CreateCommand(0, "User0", "java", false), model)
+        );
+        metrics.apply(new MessageCommand(0, "User0", "java", "hi"), model);
+        metrics.apply(new MessageCommand(0, "User0", "java", "again"), model);
+
+        assertEquals(1, metrics.getCommandTimes(CreateCommand.class).getCount());
+        assertEquals(2, metrics.getCommandTimes(MessageCommand.class).getCount());
+        assertEquals(0, metrics.getCommandTimes(JoinCommand.class).getCount());
+        String text = metrics.format();
+        assertEquals(2, sample(text, "pennpals_command_duration_seconds_count{command=\"MESG\"}"));
+    }
+
+    @Test
+    public void testCountsConnections() {
+        ServerMetrics metrics = new ServerMetrics(new Log2Histogram());
+        metrics.connectionOpened();
+        metrics.connectionOpened();
+        metrics.bytesWritten(100);
+        metrics.connectionClosed(100);
+        assertEquals(1, metrics.getOpenConnections());
+        String text = metrics.format();
+        assertEquals(2, sample(text, "pennpals_connections_opened_total"));
+        assertEquals(1, sample(text, "pennpals_connections_open"));
+        assertEquals(100, sample(text, "pennpals_bytes_written_total"));
+        assertEquals(1, sample(text, "pennpals_connection_bytes_written_bucket{le=\"127\"}"));
+    }
+
+    // ==========================================================================
+    // Through a running server
+    // ==========================================================================
+
+    private static String fetch(int port) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + port + "/metrics");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(MetricsExporter.CONTENT_TYPE, connection.getContentType());
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    body.write(buffer, 0, read);
+                }
+                return new String(body.toByteArray(), StandardCharsets.UTF_8);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void testServesAndWritesMetrics() throws Exception {
+        int port = freePort();
+        Path file = dir.resolve("metrics.prom");
+        ServerConfig config = ServerConfig.defaults()
+                .withBindAddress(InetAddress.getLoopbackAddress())
+                .withPort(port)
+                .withEngine(ServerConfig.Engine.NIO)
+                .withMetricsPort(freePort())
+                .withMetricsFile(file)
+                .withMetricsInterval(50)
+                .withLogLevel(ServerLog.Level.ERROR);
+        ServerBackend backend = new ServerBackend(new ServerModel(), config);
+        Thread thread = new Thread(backend, "Server");
+        thread.start();
+        try {
+            Socket socket = null;
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (socket == null) {
+                try {
+                    socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                } catch (IOException iox) {
+                    assertTrue(System.currentTimeMillis() < deadline, "server did not start");
+                    Thread.sleep(50);
+                }
+            }
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)
+            );
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            String connected = in.readLine();
+            String nickname = connected.substring(1, connected.indexOf(' '));
+            out.println("CREATE java 0");
+            assertEquals(":" + nickname + " CREATE java 0", in.readLine());
+
+            String text = fetch(backend.getMetricsPort());
+            assertEquals(1, sample(text, "pennpals_connections_open"));
+            assertEquals(
+                    1, sample(text, "pennpals_command_duration_seconds_count{command=\"CREATE\"}")
+            );
+            assertEquals(2, sample(text, "pennpals_task_queue_wait_seconds_count"));
+            assertEquals(2, sample(text, "pennpals_broadcast_recipients_count"));
+            assertTrue(sample(text, "pennpals_bytes_written_total") > 0, text);
+
+            socket.close();
+            while (backend.getMetrics().getOpenConnections() > 0) {
+                assertTrue(System.currentTimeMillis() < deadline, "disconnection not counted");
+                Thread.sleep(10);
+            }
+        } finally {
+            backend.stop();
+            thread.join(TIMEOUT_MILLIS);
+        }
+
+        // written every interval, and a last time as the server stops
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        String text = "";
+        while (sample(text, "pennpals_connection_bytes_written_count") != 1) {
+            assertTrue(System.currentTimeMillis() < deadline, "metrics file not written");
+            Thread.sleep(10);
+            if (Files.exists(file)) {
+                text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            }
+        }
+        assertEquals(0, sample(text, "pennpals_connections_open"));
+    }
+}
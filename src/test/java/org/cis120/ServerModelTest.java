@@ -3,6 +3,7 @@ package org.cis120;
 import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Set;
 import java.util.TreeSet;
@@ -316,6 +317,86 @@ public class ServerModelTest {
         assertEquals(expected, msg.updateServerModel(model), "broadcast of channel not existing");
     }
 
+    /**
+     * My Test -> tests inviting to a channel that does not exist.
+     */
+    @Test
+    public void testInviteChannelNonExistent() {
+        model.registerUser(0);
+        model.registerUser(1);
+
+        Command create = new CreateCommand(0, "User0", "java", true);
+        create.updateServerModel(model);
+
+        Command invite = new InviteCommand(0, "User0", "java2", "User1");
+        Broadcast expected = Broadcast.error(invite, ServerResponse.NO_SUCH_CHANNEL);
+        assertEquals(
+                expected, invite.updateServerModel(model), "broadcast of channel not existing"
+        );
+    }
+
+    /**
+     * My Test -> tests kicking from a channel that does not exist.
+     */
+    @Test
+    public void testKickChannelNonExistent() {
+        model.registerUser(0);
+        model.registerUser(1);
+
+        Command create = new CreateCommand(0, "User0", "java", false);
+        create.updateServerModel(model);
+        Command join = new JoinCommand(1, "User1", "java");
+        join.updateServerModel(model);
+
+        Command kick = new KickCommand(0, "User0", "java2", "User1");
+        Broadcast expected = Broadcast.error(kick, ServerResponse.NO_SUCH_CHANNEL);
+        assertEquals(expected, kick.updateServerModel(model), "broadcast of channel not existing");
+    }
+
+    /**
+     * My Test -> tests leaving a channel that does not exist.
+     */
+    @Test
+    public void testLeaveChannelNonExistent() {
+        model.registerUser(0);
+
+        Command create = new CreateCommand(0, "User0", "java", false);
+        create.updateServerModel(model);
+
+        Command leave = new LeaveCommand(0, "User0", "java2");
+        Broadcast expected = Broadcast.error(leave, ServerResponse.NO_SUCH_CHANNEL);
+        assertEquals(expected, leave.updateServerModel(model), "broadcast of channel not existing");
+    }
+
+    @Test
+    public void testJoinNamesAfterClaimingOfflineNickname() {
+        model.registerUser(0);
+        model.registerUser(1);
+        model.restoreUser("alice");
+        model.createChannel(new CreateCommand(1, "User1", "mine", false));
+        model.createChannel(new CreateCommand(0, "User0", "own", false));
+        // the joins cache each channel's NAMES payload
+        model.joinChannel(new JoinCommand(0, "User0", "mine"));
+        model.joinChannel(new JoinCommand(1, "User1", "own"));
+
+        model.changeNickname(new NicknameCommand(0, "User0", "alice"));
+        assertEquals("alice", model.getNickname(0));
+
+        // the released default nickname is handed out again
+        model.registerUser(2);
+        assertEquals("User0", model.getNickname(2));
+        Command join = new JoinCommand(2, "User0", "mine");
+        assertEquals(
+                Broadcast.names(join, Arrays.asList("User0", "User1", "alice"), "User1"),
+                join.updateServerModel(model)
+        );
+        join = new JoinCommand(2, "User0", "own");
+        assertEquals(
+                Broadcast.names(join, Arrays.asList("User0", "User1", "alice"), "alice"),
+                join.updateServerModel(model)
+        );
+    }
+
     /**
      * My Test -> Tests if a user, who is not a member of a channel, tries
      * messaging.
@@ -535,4 +616,95 @@ public class ServerModelTest {
 
     }
 
+    /**
+     * My test -> Tests that id and nickname lookups stay consistent in both
+     * directions after a user changes nickname and after a user disconnects.
+     */
+    @Test
+    public void testUserIdLookupAfterNickAndDeregister() {
+        model.registerUser(0);
+        model.registerUser(1);
+
+        Command nick = new NicknameCommand(0, "User0", "BOSSMAN");
+        nick.updateServerModel(model);
+
+        assertEquals(0, model.getUserId("BOSSMAN"), "new nickname maps to id");
+        assertEquals(-1, model.getUserId("User0"), "old nickname released");
+        assertEquals("BOSSMAN", model.getNickname(0), "id maps to new nickname");
+
+        model.deregisterUser(0);
+        assertEquals(-1, model.getUserId("BOSSMAN"), "nickname removed on disconnect");
+        assertNull(model.getNickname(0), "id removed on disconnect");
+        assertEquals(1, model.getUserId("User1"), "other user unaffected");
+
+        // the released nickname can now be claimed by someone else
+        Command nick2 = new NicknameCommand(1, "User1", "BOSSMAN");
+        nick2.updateServerModel(model);
+        assertEquals(1, model.getUserId("BOSSMAN"), "nickname reused");
+        assertEquals(-1, model.getUserId("User1"), "old nickname released");
+    }
+
+    /**
+     * My test -> Tests that a user who was kicked from one channel and whose
+     * other channel was deleted by its owner leaving is no longer treated as a
+     * member of either. NICK should only be relayed to the user, and the later
+     * disconnect should not inform anyone.
+     */
+    @Test
+    public void testNickAndDeregisterAfterKickAndChannelDeleted() {
+        model.registerUser(0);
+        model.registerUser(1);
+
+        Command create = new CreateCommand(0, "User0", "java", true);
+        create.updateServerModel(model);
+        Command create2 = new CreateCommand(0, "User0", "java2", false);
+        create2.updateServerModel(model);
+        Command invite = new InviteCommand(0, "User0", "java", "User1");
+        invite.updateServerModel(model);
+        Command join = new JoinCommand(1, "User1", "java2");
+        join.updateServerModel(model);
+
+        Command kick = new KickCommand(0, "User0", "java", "User1");
+        kick.updateServerModel(model);
+        Command leave = new LeaveCommand(0, "User0", "java2");
+        leave.updateServerModel(model);
+        assertFalse(model.getChannels().contains("java2"), "java2 deleted");
+
+        Command nick = new NicknameCommand(1, "User1", "Loner");
+        Broadcast expected = Broadcast.okay(nick, new TreeSet<String>());
+        assertEquals(expected, nick.updateServerModel(model), "NICK only to sender");
+
+        Broadcast expectedQuit = Broadcast.disconnected("Loner", new TreeSet<String>());
+        assertEquals(expectedQuit, model.deregisterUser(1), "QUIT to nobody");
+        assertEquals(1, model.getUsersInChannel("java").size(), "owner still in java");
+    }
+
+    /**
+     * My test -> Tests that an owner who changes nickname keeps ownership of
+     * the channel: the channel reports the new owner name and the owner can
+     * still kick users under the new name.
+     */
+    @Test
+    public void testOwnerKeepsChannelAfterNick() {
+        model.registerUser(0);
+        model.registerUser(1);
+
+        Command create = new CreateCommand(0, "User0", "java", true);
+        create.updateServerModel(model);
+        Command invite = new InviteCommand(0, "User0", "java", "User1");
+        invite.updateServerModel(model);
+
+        Command nick = new NicknameCommand(0, "User0", "BOSSMAN");
+        nick.updateServerModel(model);
+        assertEquals("BOSSMAN", model.getOwner("java"), "owner renamed");
+
+        Command kick = new KickCommand(0, "BOSSMAN", "java", "User1");
+        Set<String> recipients = new TreeSet<>();
+        recipients.add("BOSSMAN");
+        recipients.add("User1");
+        Broadcast expected = Broadcast.okay(kick, recipients);
+        assertEquals(expected, kick.updateServerModel(model), "renamed owner can kick");
+        assertEquals(1, model.getUsersInChannel("java").size(), "only owner left");
+    }
+
 }
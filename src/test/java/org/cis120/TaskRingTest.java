@@ -0,0 +1,111 @@
+package org.cis120;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TaskRingTest {
+
+    private static final class Recorder implements TaskRing.Handler {
+        private final List<String> tasks = new ArrayList<>();
+
+        @Override
+        public void onTask(int kind, int userId, String line, int start) {
+            tasks.add(kind + ":" + userId + ":" + line + ":" + start);
+        }
+    }
+
+    @Test
+    public void testDrainInOrderUpToMax() {
+        TaskRing ring = new TaskRing(4, TaskRing.WaitStrategy.PARK);
+        assertTrue(ring.isEmpty());
+        ring.publish(TaskRing.REGISTRATION, 1, null, 0);
+        ring.publish(TaskRing.REQUEST, 1, ":x JOIN java", 3);
+        ring.publish(TaskRing.DISCONNECTION, 1, null, 0);
+
+        Recorder recorder = new Recorder();
+        assertEquals(2, ring.drain(recorder, 2));
+        assertEquals(1, ring.drain(recorder, 2));
+        assertEquals(0, ring.drain(recorder, 2), "nothing left");
+        assertTrue(ring.isEmpty());
+        assertEquals("0:1:null:0", recorder.tasks.get(0));
+        assertEquals("2:1::x JOIN java:3", recorder.tasks.get(1));
+        assertEquals("1:1:null:0", recorder.tasks.get(2));
+    }
+
+    @Test
+    public void testCapacityMustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new TaskRing(6, TaskRing.WaitStrategy.YIELD);
+            }
+        });
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new TaskRing(1, TaskRing.WaitStrategy.YIELD);
+            }
+        });
+    }
+
+    @Test
+    public void testProducersWrapAroundSmallRing() throws InterruptedException {
+        produceAndCheck(8, 3);
+    }
+
+    @Test
+    @Timeout(30)
+    public void testTwoProducersAtMinimumCapacity() throws InterruptedException {
+        // every publish waits for the slot a lap behind it, so no task may be
+        // overwritten before it is taken; a lost task leaves the consumer
+        // waiting for it
+        produceAndCheck(TaskRing.MIN_CAPACITY, 2);
+    }
+
+    /**
+     * Publishes tasks from several threads and checks that the consumer takes
+     * every one of them, in each producer's order, with every wait strategy.
+     */
+    private static void produceAndCheck(int capacity, final int producers)
+            throws InterruptedException {
+        for (TaskRing.WaitStrategy strategy : TaskRing.WaitStrategy.values()) {
+            final TaskRing ring = new TaskRing(capacity, strategy);
+            final int perProducer = 2000;
+            Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; p++) {
+                final int producer = p;
+                threads[p] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < perProducer; i++) {
+                            ring.publish(TaskRing.REQUEST, producer, null, i);
+                        }
+                    }
+                });
+                threads[p].start();
+            }
+
+            final int[] next = new int[producers];
+            TaskRing.Handler checker = new TaskRing.Handler() {
+                @Override
+                public void onTask(int kind, int userId, String line, int start) {
+                    assertEquals(next[userId], start, "in order for producer " + userId);
+                    next[userId]++;
+                }
+            };
+            int received = 0;
+            while (received < producers * perProducer) {
+                assertTrue(ring.await());
+                received += ring.drain(checker, 5);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(ring.isEmpty(), strategy.toString());
+        }
+    }
+}